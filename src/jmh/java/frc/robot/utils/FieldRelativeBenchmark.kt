@@ -0,0 +1,47 @@
+package frc.robot.utils
+
+import edu.wpi.first.math.geometry.Rotation2d
+import edu.wpi.first.math.kinematics.ChassisSpeeds
+import java.util.concurrent.TimeUnit
+import kotlin.math.cos
+import kotlin.math.sin
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.infra.Blackhole
+
+/**
+ * Compares the field to robot rotation done in place by SwerveSubsystem.getDriveSpeeds against
+ * the WPILib [ChassisSpeeds.fromFieldRelativeSpeeds].
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+open class FieldRelativeBenchmark {
+  // Not final, so the JIT cannot fold the inputs away
+  private var forward = 3.2
+  private var left = -1.4
+  private var rotation = 2.5
+  private var heading = 0.7
+
+  /** WPILib rotation into the robot frame, as the drive code used to do it. */
+  @Benchmark
+  fun wpilibFieldRelative(blackhole: Blackhole) {
+    blackhole.consume(
+      ChassisSpeeds.fromFieldRelativeSpeeds(forward, left, rotation, Rotation2d(heading))
+    )
+  }
+
+  /** Primitive rotation into the robot frame. */
+  @Benchmark
+  fun primitiveFieldRelative(blackhole: Blackhole) {
+    val cos = cos(heading)
+    val sin = sin(heading)
+    blackhole.consume(forward * cos + left * sin)
+    blackhole.consume(-forward * sin + left * cos)
+    blackhole.consume(rotation)
+  }
+}
@@ -0,0 +1,68 @@
+package frc.robot.utils
+
+import edu.wpi.first.math.kinematics.ChassisSpeeds
+import edu.wpi.first.math.kinematics.SwerveDriveKinematics
+import edu.wpi.first.math.kinematics.SwerveModuleState
+import frc.robot.utils.GlobalsValues.MotorGlobalValues
+import frc.robot.utils.GlobalsValues.SwerveGlobalValues
+import java.util.concurrent.TimeUnit
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.infra.Blackhole
+
+/** Compares [FourModuleKinematics] against the WPILib [SwerveDriveKinematics]. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+open class KinematicsBenchmark {
+  private val wpilibKinematics = SwerveGlobalValues.kinematics
+  private val fourModuleKinematics = SwerveGlobalValues.moduleKinematics
+
+  // Not final, so the JIT cannot fold the inputs away
+  private var vx = 3.2
+  private var vy = -1.4
+  private var omega = 2.5
+
+  private val speeds = DoubleArray(4)
+  private val angles = DoubleArray(4)
+  private val chassisSpeeds = DoubleArray(3)
+
+  private val measuredStates: Array<SwerveModuleState> =
+    wpilibKinematics.toSwerveModuleStates(ChassisSpeeds(vx, vy, omega))
+  private val measuredSpeeds = DoubleArray(4) { measuredStates[it].speedMetersPerSecond }
+  private val measuredAngles = DoubleArray(4) { measuredStates[it].angle.rotations }
+
+  /** WPILib inverse kinematics and desaturation, as the drive code used to do it. */
+  @Benchmark
+  fun wpilibInverse(blackhole: Blackhole) {
+    val states = wpilibKinematics.toSwerveModuleStates(ChassisSpeeds(vx, vy, omega))
+    SwerveDriveKinematics.desaturateWheelSpeeds(states, MotorGlobalValues.MAX_SPEED)
+    blackhole.consume(states)
+  }
+
+  /** Primitive inverse kinematics and desaturation. */
+  @Benchmark
+  fun fourModuleInverse(blackhole: Blackhole) {
+    fourModuleKinematics.toSwerveModuleStates(vx, vy, omega, speeds, angles)
+    fourModuleKinematics.desaturateWheelSpeeds(speeds, MotorGlobalValues.MAX_SPEED)
+    blackhole.consume(speeds)
+    blackhole.consume(angles)
+  }
+
+  /** WPILib forward kinematics. */
+  @Benchmark
+  fun wpilibForward(blackhole: Blackhole) {
+    blackhole.consume(wpilibKinematics.toChassisSpeeds(*measuredStates))
+  }
+
+  /** Primitive forward kinematics. */
+  @Benchmark
+  fun fourModuleForward(blackhole: Blackhole) {
+    fourModuleKinematics.toChassisSpeeds(measuredSpeeds, measuredAngles, chassisSpeeds)
+    blackhole.consume(chassisSpeeds)
+  }
+}
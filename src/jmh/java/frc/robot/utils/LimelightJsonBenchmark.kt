@@ -0,0 +1,44 @@
+package frc.robot.utils
+
+import com.fasterxml.jackson.databind.DeserializationFeature
+import com.fasterxml.jackson.databind.ObjectMapper
+import frc.robot.utils.LimelightHelpers.LimelightResults
+import java.util.concurrent.TimeUnit
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.infra.Blackhole
+
+/**
+ * Compares [LimelightJsonParser] against the Jackson path LimelightHelpers used to take, on a
+ * results dump recorded from a Limelight seeing two AprilTags.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+open class LimelightJsonBenchmark {
+  private val json: String =
+    LimelightJsonBenchmark::class.java.getResource("/limelight-results.json")!!.readText()
+
+  private val mapper =
+    ObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
+
+  private val parser = LimelightJsonParser()
+  private val results = LimelightResults()
+
+  /** Jackson with reflection, a new results object every call. */
+  @Benchmark
+  fun jackson(blackhole: Blackhole) {
+    blackhole.consume(mapper.readValue(json, LimelightResults::class.java))
+  }
+
+  /** Streaming parser filling the same results object every call. */
+  @Benchmark
+  fun streaming(blackhole: Blackhole) {
+    parser.parse(json, results)
+    blackhole.consume(results)
+  }
+}
@@ -0,0 +1,53 @@
+package frc.robot.utils
+
+import edu.wpi.first.math.MathUtil
+import edu.wpi.first.math.geometry.Rotation2d
+import edu.wpi.first.math.kinematics.SwerveModuleState
+import frc.robot.subsystems.SwerveModule
+import java.util.concurrent.TimeUnit
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.infra.Blackhole
+
+/**
+ * Compares the module state optimization of [SwerveModule.setState] against the WPILib
+ * [SwerveModuleState.optimize]. The target is more than a quarter rotation away, so both flip it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+open class ModuleStateBenchmark {
+  // Not final, so the JIT cannot fold the inputs away
+  private var speed = 3.2
+  private var angleRotations = 0.4
+  private var steerPosition = -0.05
+
+  /** WPILib optimization, as the drive code used to do it. */
+  @Benchmark
+  fun wpilibOptimize(blackhole: Blackhole) {
+    val state =
+      SwerveModuleState.optimize(
+        SwerveModuleState(speed, Rotation2d.fromRotations(angleRotations)),
+        Rotation2d.fromRotations(steerPosition),
+      )
+    blackhole.consume(state.speedMetersPerSecond)
+    blackhole.consume(state.angle.rotations)
+  }
+
+  /** Primitive optimization. */
+  @Benchmark
+  fun moduleOptimize(blackhole: Blackhole) {
+    var speedToSet = speed
+    var angleToSet = angleRotations
+    if (SwerveModule.shouldReverse(angleToSet, steerPosition)) {
+      speedToSet = -speedToSet
+      angleToSet = MathUtil.inputModulus(angleToSet + 0.5, -0.5, 0.5)
+    }
+    blackhole.consume(speedToSet)
+    blackhole.consume(angleToSet)
+  }
+}
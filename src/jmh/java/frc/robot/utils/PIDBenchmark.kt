@@ -0,0 +1,38 @@
+package frc.robot.utils
+
+import edu.wpi.first.math.controller.PIDController
+import frc.robot.utils.GlobalsValues.SwerveGlobalValues.BasePIDGlobal
+import java.util.concurrent.TimeUnit
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.infra.Blackhole
+
+/** Compares [PID.calculate] against the WPILib [PIDController], both with the rotational gains. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+open class PIDBenchmark {
+  private val gains = BasePIDGlobal.ROTATIONAL_PID
+  private val pid = PID(gains.p, gains.i, gains.d)
+  private val wpilibPID = PIDController(gains.p, gains.i, gains.d)
+
+  // Not final, so the JIT cannot fold the inputs away
+  private var measurement = 0.3
+  private var setpoint = 1.2
+
+  /** WPILib PID controller. */
+  @Benchmark
+  fun wpilibCalculate(blackhole: Blackhole) {
+    blackhole.consume(wpilibPID.calculate(measurement, setpoint))
+  }
+
+  /** PID controller of this repo. */
+  @Benchmark
+  fun pidCalculate(blackhole: Blackhole) {
+    blackhole.consume(pid.calculate(measurement, setpoint))
+  }
+}
@@ -0,0 +1,109 @@
+package frc.robot.utils
+
+import edu.wpi.first.math.estimator.SwerveDrivePoseEstimator
+import edu.wpi.first.math.geometry.Pose2d
+import edu.wpi.first.math.geometry.Rotation2d
+import edu.wpi.first.math.kinematics.SwerveModulePosition
+import frc.robot.utils.GlobalsValues.SwerveGlobalValues
+import java.util.concurrent.TimeUnit
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.infra.Blackhole
+
+/**
+ * Compares [SwervePoseEstimator] against the WPILib [SwerveDrivePoseEstimator]. Every call is one
+ * odometry sample of a robot driving forward while turning, the vision benchmarks also fuse a
+ * frame captured a few loops earlier, which is the worst case of one frame per sample.
+ *
+ * The two vision benchmarks do not do the same work. WPILib replays every odometry sample since
+ * the capture time, about 15 of them here, while [SwervePoseEstimator] only corrects the pose at
+ * the capture time. It only applies corrections again for frames that arrive out of order, which
+ * these never do. The difference is the cost of that replay, not the same work done faster.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+open class PoseEstimatorBenchmark {
+  private val period = 1.0 / SwerveGlobalValues.ODOMETRY_FREQUENCY
+
+  private val distances = DoubleArray(4)
+  private val angles = DoubleArray(4) { 0.1 }
+  private val positions =
+    Array(4) { SwerveModulePosition(0.0, Rotation2d.fromRotations(angles[it])) }
+  private val pose = DoubleArray(3)
+
+  private val wpilibEstimator =
+    SwerveDrivePoseEstimator(SwerveGlobalValues.kinematics, Rotation2d(), positions, Pose2d())
+  private val estimator =
+    SwervePoseEstimator(
+      SwerveGlobalValues.moduleKinematics,
+      SwerveGlobalValues.POSE_HISTORY_SECONDS,
+      SwerveGlobalValues.ODOMETRY_FREQUENCY,
+    )
+
+  // Not final, so the JIT cannot fold the inputs away
+  private var timestamp = 0.0
+  private var gyroRadians = 0.0
+  private var visionLatency = 0.06
+
+  init {
+    estimator.resetPosition(0.0, distances, 0.0, 0.0, 0.0)
+  }
+
+  /** WPILib odometry update, as the drive code used to do it. */
+  @Benchmark
+  fun wpilibUpdate(blackhole: Blackhole) {
+    step()
+    blackhole.consume(wpilibEstimator.updateWithTime(timestamp, Rotation2d(gyroRadians), positions))
+  }
+
+  /** Primitive odometry update. */
+  @Benchmark
+  fun primitiveUpdate(blackhole: Blackhole) {
+    step()
+    estimator.updateWithTime(timestamp, gyroRadians, distances, angles)
+    estimator.getEstimate(pose)
+    blackhole.consume(pose)
+  }
+
+  /** WPILib odometry update and vision fusion. */
+  @Benchmark
+  fun wpilibVision(blackhole: Blackhole) {
+    step()
+    wpilibEstimator.updateWithTime(timestamp, Rotation2d(gyroRadians), positions)
+    wpilibEstimator.addVisionMeasurement(
+      Pose2d(distances[0] + 0.05, 0.02, Rotation2d(gyroRadians)),
+      timestamp - visionLatency,
+    )
+    blackhole.consume(wpilibEstimator.estimatedPosition)
+  }
+
+  /** Primitive odometry update and vision fusion. */
+  @Benchmark
+  fun primitiveVision(blackhole: Blackhole) {
+    step()
+    estimator.updateWithTime(timestamp, gyroRadians, distances, angles)
+    estimator.addVisionMeasurement(
+      distances[0] + 0.05,
+      0.02,
+      gyroRadians,
+      timestamp - visionLatency,
+    )
+    estimator.getEstimate(pose)
+    blackhole.consume(pose)
+  }
+
+  /** Moves the time, wheels and gyro on by one odometry sample. */
+  private fun step() {
+    timestamp += period
+    gyroRadians += 0.002
+    for (i in distances.indices) {
+      distances[i] += 0.01
+      positions[i].distanceMeters = distances[i]
+    }
+  }
+}
@@ -3,34 +3,49 @@
 // the WPILib BSD license file in the root directory of this project.
 package frc.robot
 
+import edu.wpi.first.wpilibj.DataLogManager
 import edu.wpi.first.wpilibj.TimedRobot
-import edu.wpi.first.wpilibj.Timer
-import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard
 import edu.wpi.first.wpilibj2.command.Command
 import edu.wpi.first.wpilibj2.command.CommandScheduler
-import java.util.ArrayList
+import frc.robot.commands.CommandProfiler
+import frc.robot.subsystems.CameraIO
+import frc.robot.subsystems.SwerveIO
+import frc.robot.utils.LoopProfiler
+import frc.robot.utils.LoopTimer
 
 /**
 * The Robot class extends the TimedRobot class and serves as the main entry point for the robot code.
 * It contains methods that are called periodically and during different robot modes.
+*
+* @param swerveIO The drive hardware, or null for the real hardware, see [RobotContainer].
+* @param cameras The cameras, or null for the real cameras, see [RobotContainer].
 */
-class Robot : TimedRobot() {
+class Robot(
+  private val swerveIO: SwerveIO? = null,
+  private val cameras: Array<out CameraIO>? = null,
+) : TimedRobot() {
   private var autonomousCommand: Command? = null
-  private var robotContainer: RobotContainer? = null
-  private val timer = Timer()
-  private val avgTimer = Timer()
-  private var timesRan = 0
-  private val timesRanArr = ArrayList<Int?>()
+
+  /** The subsystems and commands of the robot, created by [robotInit]. */
+  var robotContainer: RobotContainer? = null
+    private set
+
+  /** Timing statistics for every run of the [CommandScheduler]. */
+  val loopTimer = LoopTimer()
 
   /**
    * This function is run when the robot is first started up and should be used for any
    * initialization code.
    */
   override fun robotInit() {
-    // Start the timers and instantiate the RobotContainer
-    avgTimer.start()
-    timer.start()
-    robotContainer = RobotContainer()
+    // Start the on-robot data log before anything records to it
+    DataLogManager.start()
+
+    // Instantiate the RobotContainer
+    robotContainer = RobotContainer(swerveIO, cameras)
+
+    // Time every command the scheduler runs, once the bindings are configured
+    CommandProfiler.install()
   }
 
   /**
@@ -41,30 +56,15 @@ class Robot : TimedRobot() {
    * integrated updating.
    */
   override fun robotPeriodic() {
-    // Run the CommandScheduler
+    // Run the CommandScheduler and time how long it took
+    loopTimer.start()
     CommandScheduler.getInstance().run()
-    timesRan++
-
-    // Check if 1 second has passed
-    if (timer.advanceIfElapsed(1.0)) {
-      println("1 second has passed, times ran is $timesRan")
-      SmartDashboard.putNumber("Hurtz Ketchup", timesRan.toDouble())
-      timesRanArr.add(timesRan)
-      timesRan = 0
-    }
+    loopTimer.stop()
+    CommandProfiler.endLoop()
 
-    // Check if 15 seconds have passed
-    if (avgTimer.advanceIfElapsed(15.0)) {
-      val avgTimesRan =
-        timesRanArr
-          .stream()
-          .mapToInt { a: Int? -> a!! }
-          .average()
-          .orElse(404.0) // Something's wrong
-      println("15 seconds have passed, times ran is $avgTimesRan")
-      SmartDashboard.putNumber("Hurtz Ketchup Average", avgTimesRan)
-      timesRanArr.clear()
-    }
+    // Publish the loop statistics and the slowest subsystems and commands once a second
+    loopTimer.publish()
+    LoopProfiler.report()
   }
 
   /** This function is called once each time the robot enters Disabled mode. */
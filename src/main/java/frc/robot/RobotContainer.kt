@@ -4,11 +4,15 @@
 package frc.robot
 
 import com.pathplanner.lib.commands.PathPlannerAuto
+import edu.wpi.first.wpilibj.DataLogManager
 import edu.wpi.first.wpilibj2.command.Command
 import edu.wpi.first.wpilibj2.command.button.JoystickButton
 import frc.robot.commands.PadDrive
+import frc.robot.subsystems.CameraIO
 import frc.robot.subsystems.PhotonVision
+import frc.robot.subsystems.SwerveIO
 import frc.robot.subsystems.SwerveSubsystem
+import frc.robot.utils.DriveLog
 import frc.robot.utils.GlobalsValues.SwerveGlobalValues
 import frc.robot.utils.LogitechGamingPad
 
@@ -17,10 +21,22 @@ import frc.robot.utils.LogitechGamingPad
  * "declarative" paradigm, very little robot logic should actually be handled in the [Robot]
  * periodic methods (other than the scheduler calls). Instead, the structure of the robot (including
  * subsystems, commands, and trigger mappings) should be declared here.
+ *
+ * @param swerveIO The drive hardware, or null for the real hardware. The headless simulation
+ *   passes the ideal simulated drive so the robot can be stepped faster than real time.
+ * @param cameras The cameras, or null for the real cameras.
  */
-class RobotContainer {
-  private val swerveSubsystem: SwerveSubsystem
-  private val photonvision: PhotonVision
+class RobotContainer(swerveIO: SwerveIO? = null, cameras: Array<out CameraIO>? = null) {
+  val swerveSubsystem: SwerveSubsystem
+  val photonvision: PhotonVision
+
+  // Records the drive and vision inputs and outputs to the data log, null if disabled
+  private val driveLog: DriveLog? =
+    if (SwerveGlobalValues.DRIVE_LOG_ENABLED) {
+      DriveLog(DataLogManager.getLog(), SwerveGlobalValues.MODULE_COUNT).also { it.start() }
+    } else {
+      null
+    }
 
   private val padA: JoystickButton
   private val padB: JoystickButton
@@ -35,8 +51,13 @@ class RobotContainer {
       padX = JoystickButton(this, 3)
       padY = JoystickButton(this, 4)
 
-      photonvision = PhotonVision()
-      swerveSubsystem = SwerveSubsystem(photonvision)
+      photonvision = PhotonVision(driveLog, cameras)
+      swerveSubsystem =
+        SwerveSubsystem(
+          if (SwerveGlobalValues.USING_VISION) photonvision else null,
+          driveLog,
+          swerveIO ?: SwerveIO.real(),
+        )
       swerveSubsystem.defaultCommand = PadDrive(swerveSubsystem, this, SwerveGlobalValues.IS_FIELD_ORIENTATED)
     }
 
@@ -0,0 +1,77 @@
+package frc.robot.commands
+
+import edu.wpi.first.wpilibj2.command.Command
+import edu.wpi.first.wpilibj2.command.CommandScheduler
+import frc.robot.utils.LoopProfiler
+import java.util.WeakHashMap
+
+/**
+ * Times the initialize, execute and end of every command the [CommandScheduler] runs with the
+ * [LoopProfiler], through the scheduler's command hooks.
+ *
+ * The scheduler only calls its hooks after a command callback, so every callback is timed from the
+ * previous scheduler event, the same way the scheduler's own watchdog epochs are. The command
+ * phase of a loop starts when the scheduler polls its button loop and ends with [endLoop].
+ * Callbacks outside of it, such as a command scheduled from autonomousInit, are not timed. The
+ * hooks are installed once, so commands created later and profiling enabled later are covered.
+ */
+object CommandProfiler {
+  private const val INITIALIZE = 0
+  private const val EXECUTE = 1
+  private const val END = 2
+
+  /** Profiler sections of each command seen, indexed by callback, registered once per command. */
+  private val sections = WeakHashMap<Command, IntArray>()
+
+  /** Time of the last scheduler event in the command phase, or 0 outside of it. */
+  private var lastEventNanos = 0L
+
+  private var installed = false
+
+  /**
+   * Installs the hooks on a scheduler. Call this after the trigger bindings are configured, so the
+   * command phase starts after they were polled.
+   *
+   * @param scheduler The scheduler whose commands are timed.
+   */
+  fun install(scheduler: CommandScheduler = CommandScheduler.getInstance()) {
+    if (installed) {
+      return
+    }
+    installed = true
+
+    scheduler.activeButtonLoop.bind { lastEventNanos = LoopProfiler.start() }
+    scheduler.onCommandInitialize { record(it, INITIALIZE) }
+    scheduler.onCommandExecute { record(it, EXECUTE) }
+    scheduler.onCommandFinish { record(it, END) }
+    scheduler.onCommandInterrupt { record(it, END) }
+  }
+
+  /** Ends the command phase of the loop. Call this right after running the scheduler. */
+  fun endLoop() {
+    lastEventNanos = 0L
+  }
+
+  /**
+   * Records a command callback that just returned, timed from the previous scheduler event.
+   *
+   * @param command The command whose callback returned.
+   * @param callback Which callback returned, [INITIALIZE], [EXECUTE] or [END].
+   */
+  private fun record(command: Command, callback: Int) {
+    val start = lastEventNanos
+    if (start == 0L) {
+      return
+    }
+    val commandSections =
+      sections.getOrPut(command) {
+        intArrayOf(
+          LoopProfiler.register(command.name + ".initialize()"),
+          LoopProfiler.register(command.name + ".execute()"),
+          LoopProfiler.register(command.name + ".end()"),
+        )
+      }
+    LoopProfiler.stop(commandSections[callback], start)
+    lastEventNanos = LoopProfiler.start()
+  }
+}
@@ -1,10 +1,11 @@
 package frc.robot.commands
 
-import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard
+import edu.wpi.first.networktables.DoublePublisher
 import edu.wpi.first.wpilibj2.command.Command
 import frc.robot.subsystems.SwerveSubsystem
 import frc.robot.utils.GlobalsValues.MotorGlobalValues
 import frc.robot.utils.LogitechGamingPad
+import frc.robot.utils.Telemetry
 
 /**
  * A command to drive the robot using a Logitech gaming pad.
@@ -18,9 +19,12 @@ class PadDrive(
   private val pad: LogitechGamingPad,
   private val isFieldOriented: Boolean,
 ) : Command() {
+  // Joystick telemetry, registered once instead of looked up every loop
+  private val yPublisher: DoublePublisher = Telemetry.number("Y Joystick")
+  private val xPublisher: DoublePublisher = Telemetry.number("X Joystick")
 
-  /** Initializes the command and adds the swerve subsystem as a requirement. */
-  override fun initialize() {
+  // Required before the command is made the default command of the swerve subsystem
+  init {
     addRequirements(this.swerveSubsystem)
   }
 
@@ -33,8 +37,8 @@ class PadDrive(
     val x = -pad.getLeftAnalogXAxis() * MotorGlobalValues.MAX_SPEED
     val rotation = pad.getRightAnalogXAxis() * MotorGlobalValues.MAX_ANGULAR_SPEED
 
-    SmartDashboard.putNumber("Y Joystick", y)
-    SmartDashboard.putNumber("X Joystick", x)
+    yPublisher.set(y)
+    xPublisher.set(x)
 
     swerveSubsystem.getDriveSpeeds(y, x, rotation, isFieldOriented)
   }
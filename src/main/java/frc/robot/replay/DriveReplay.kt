@@ -0,0 +1,261 @@
+package frc.robot.replay
+
+import edu.wpi.first.hal.HAL
+import edu.wpi.first.hal.simulation.SimulatorJNI
+import edu.wpi.first.math.geometry.Pose2d
+import edu.wpi.first.math.geometry.Rotation2d
+import edu.wpi.first.util.datalog.DataLogReader
+import edu.wpi.first.wpilibj.RobotController
+import edu.wpi.first.wpilibj.TimedRobot
+import edu.wpi.first.wpilibj.simulation.SimHooks
+import frc.robot.subsystems.PhotonVision
+import frc.robot.subsystems.SwerveIO
+import frc.robot.subsystems.SwerveSubsystem
+import frc.robot.utils.DriveLog
+import frc.robot.utils.GlobalsValues.PhotonVisionConstants
+import frc.robot.utils.GlobalsValues.SwerveGlobalValues
+import java.io.File
+import java.io.IOException
+import java.io.PrintWriter
+import java.nio.ByteBuffer
+import java.nio.ByteOrder.LITTLE_ENDIAN
+import kotlin.math.hypot
+import kotlin.math.max
+
+/**
+ * Replays a recorded match through the real [PhotonVision] and [SwerveSubsystem] on a desktop
+ * JVM, as fast as the log can be read.
+ *
+ * The subsystems run on replay IO: [ModuleIOReplay] modules and a [GyroIOReplay] gyro that read
+ * back the inputs the drive recorded every loop, a [LogOdometrySource] that hands out the
+ * recorded odometry samples, and [CameraIOReplay] cameras that serve the recorded frames. The
+ * HAL clock is paused and set to the recorded time of every loop before the subsystems run, so
+ * they see the same times as on the robot. Every robot loop ends with the estimated pose being
+ * logged, which is where the replay runs that loop: the vision subsystem with the frames it
+ * received, then the drive, whose estimate is compared with the recorded one. Pose resets are
+ * replayed between loops, where the commands made them.
+ *
+ * Nothing depends on the wall clock or another thread, so a log always replays to bit-identical
+ * poses. [ReplayResult.checksum] makes that easy to check, and the recorded poses show how far a
+ * change to the subsystems or the estimator moves the estimate. The commands are not replayed,
+ * so the module setpoints are not compared.
+ *
+ * @param log The path of the .wpilog file.
+ * @param useVision Whether the drive fuses the camera estimates, as the robot code does by
+ *   default.
+ */
+class DriveReplay(
+  private val log: String,
+  private val useVision: Boolean = SwerveGlobalValues.USING_VISION,
+) {
+  private val moduleCount = SwerveGlobalValues.MODULE_COUNT
+  private val modules = Array(moduleCount) { ModuleIOReplay(it) }
+  private val gyro = GyroIOReplay()
+  private val odometry = LogOdometrySource(moduleCount)
+  private val cameras = Array(PhotonVisionConstants.CAMERA_COUNT) { CameraIOReplay() }
+
+  /** Frames and inputs of the loop being read, run once its pose is reached. */
+  private val frames = ArrayDeque<DoubleArray>()
+  private var inputs: DoubleArray? = null
+
+  private val estimate = DoubleArray(3)
+
+  /**
+   * Replays the whole log.
+   *
+   * @param output Gets the replayed and recorded pose of every loop, or null.
+   * @return The summary of the replay.
+   * @throws IOException If the log cannot be read or is not a data log.
+   * @throws IllegalArgumentException If a record does not match the drive.
+   * @throws IllegalStateException If the HAL cannot be initialized.
+   */
+  fun run(output: PrintWriter? = null): ReplayResult {
+    val reader = DataLogReader(log)
+    if (!reader.isValid) {
+      throw IOException("$log is not a WPILib data log")
+    }
+    check(HAL.initialize(500, 0)) { "Failed to initialize the HAL" }
+    SimHooks.pauseTiming()
+    SimHooks.restartTiming()
+
+    val start = System.nanoTime()
+    val result = ReplayResult()
+    val names = HashMap<Int, String>()
+    val vision = PhotonVision(null, cameras)
+    var swerve: SwerveSubsystem? = null
+    output?.println("replayed x,replayed y,replayed heading,recorded x,recorded y,recorded heading")
+
+    for (record in reader) {
+      if (record.isStart) {
+        val data = record.startData
+        names[data.entry] = data.name
+        continue
+      }
+      if (record.isControl) {
+        continue
+      }
+
+      when (names[record.entry]) {
+        DriveLog.INPUTS_ENTRY -> {
+          val values = record.doubleArray
+          val size = ModuleIOReplay.inputsSize(moduleCount)
+          require(values.size == size) { "Inputs have ${values.size} values, expected $size" }
+          if (swerve == null) {
+            // The first inputs are the ones the drive read while it was constructed
+            loadInputs(values)
+            swerve =
+              SwerveSubsystem(
+                if (useVision) vision else null,
+                null,
+                SwerveIO(modules, gyro, odometry),
+              )
+          } else {
+            inputs = values
+          }
+        }
+        DriveLog.ODOMETRY_ENTRY -> {
+          odometry.add(record.doubleArray)
+          result.odometrySamples++
+        }
+        DriveLog.CAMERA_FRAME_ENTRY -> {
+          frames.addLast(record.doubleArray)
+          result.cameraFrames++
+        }
+        DriveLog.RESET_ENTRY -> {
+          val values = record.doubleArray
+          swerve?.newPose(Pose2d(values[2], values[3], Rotation2d(values[4])))
+          result.resets++
+        }
+        DriveLog.POSE_ENTRY -> {
+          val drive = swerve ?: continue
+          runLoop(vision, drive)
+          val replayed = drive.getPose()
+          estimate[0] = replayed.x
+          estimate[1] = replayed.y
+          estimate[2] = replayed.rotation.radians
+          val recorded = Pose2d.struct.unpack(ByteBuffer.wrap(record.raw).order(LITTLE_ENDIAN))
+          result.addLoop(estimate, recorded)
+          output?.println(
+            "${estimate[0]},${estimate[1]},${estimate[2]}," +
+              "${recorded.x},${recorded.y},${recorded.rotation.radians}"
+          )
+        }
+      }
+    }
+
+    result.elapsedSeconds = (System.nanoTime() - start) / 1e9
+    return result
+  }
+
+  /**
+   * Runs the subsystems for one robot loop, in the order the scheduler runs them: the vision
+   * subsystem with every frame it received this loop, then the drive with the inputs it read.
+   *
+   * @param vision The vision subsystem.
+   * @param swerve The drive.
+   */
+  private fun runLoop(vision: PhotonVision, swerve: SwerveSubsystem) {
+    if (frames.isNotEmpty()) {
+      setClock(frames.first()[0])
+    }
+    while (frames.isNotEmpty()) {
+      val values = frames.removeFirst()
+      cameras[values[1].toInt()].load(values)
+    }
+    vision.periodic()
+
+    val values = inputs
+    if (values != null) {
+      loadInputs(values)
+      inputs = null
+    }
+    swerve.periodic()
+  }
+
+  /**
+   * Loads the inputs of a loop into the replay modules and gyro, and sets the clock to its time.
+   *
+   * @param values The inputs recorded under [DriveLog.INPUTS_ENTRY].
+   */
+  private fun loadInputs(values: DoubleArray) {
+    setClock(values[0])
+    gyro.load(values)
+    for (module in modules) {
+      module.load(values)
+    }
+  }
+
+  /**
+   * Moves the paused HAL clock forward to a recorded time. Recorded times are whole microseconds
+   * of the FPGA clock, so the subsystems read back exactly the recorded value.
+   *
+   * @param seconds The recorded FPGA time in seconds.
+   */
+  private fun setClock(seconds: Double) {
+    val delta = Math.round(seconds * 1e6) - RobotController.getFPGATime()
+    if (delta > 0) {
+      SimulatorJNI.stepTiming(delta)
+    }
+  }
+}
+
+/** What a [DriveReplay] did and how the replayed poses compare with the recorded ones. */
+class ReplayResult {
+  var loops = 0L
+  var odometrySamples = 0L
+  var cameraFrames = 0L
+  var resets = 0L
+
+  /** Largest distance between a replayed and a recorded pose, in meters. */
+  var maxError = 0.0
+
+  /** Hash of every replayed pose, equal for two replays only if every pose is bit-identical. */
+  var checksum = 17L
+
+  /** Wall-clock time the replay took, in seconds. */
+  var elapsedSeconds = 0.0
+
+  /**
+   * Adds the pose of one loop.
+   *
+   * @param replayed The replayed x, y and heading.
+   * @param recorded The pose the robot recorded.
+   */
+  fun addLoop(replayed: DoubleArray, recorded: Pose2d) {
+    loops++
+    for (value in replayed) {
+      checksum = checksum * 31 + value.toRawBits()
+    }
+    maxError = max(maxError, hypot(replayed[0] - recorded.x, replayed[1] - recorded.y))
+  }
+
+  override fun toString(): String {
+    return String.format(
+      "%d loops, %d odometry samples, %d camera frames, %d pose resets%n" +
+        "max error %.6f m, checksum %016x, %.3f s (%.0fx real time)",
+      loops,
+      odometrySamples,
+      cameraFrames,
+      resets,
+      maxError,
+      checksum,
+      elapsedSeconds,
+      loops * TimedRobot.kDefaultPeriod / elapsedSeconds,
+    )
+  }
+}
+
+/**
+ * Replays a log from the command line, see the replay task in build.gradle.
+ *
+ * @param args The path of the .wpilog file, optionally followed by a CSV file for the poses.
+ */
+fun main(args: Array<String>) {
+  if (args.isEmpty() || args[0].isEmpty()) {
+    System.err.println("Usage: replay <log.wpilog> [poses.csv]")
+    return
+  }
+
+  val output = if (args.size > 1) PrintWriter(File(args[1])) else null
+  output.use { println(DriveReplay(args[0]).run(it)) }
+}
@@ -0,0 +1,39 @@
+package frc.robot.replay
+
+import frc.robot.subsystems.OdometrySample
+import frc.robot.subsystems.OdometrySource
+import frc.robot.utils.DriveLog
+
+/**
+ * Plays back the odometry samples recorded by [DriveLog], standing in for the odometry thread.
+ *
+ * Samples read from the log are queued with [add] and handed out in order by [poll], the same way
+ * the odometry thread hands out the samples taken between two robot loops.
+ *
+ * @param moduleCount The number of swerve modules.
+ */
+class LogOdometrySource(private val moduleCount: Int) : OdometrySource {
+  private val queue = ArrayDeque<DoubleArray>()
+
+  /**
+   * Queues a sample recorded under [DriveLog.ODOMETRY_ENTRY].
+   *
+   * @param values The time, yaw in degrees, drive positions and steer positions.
+   * @throws IllegalArgumentException If the sample does not match the module count.
+   */
+  fun add(values: DoubleArray) {
+    require(values.size == 2 + 2 * moduleCount) {
+      "Odometry sample has ${values.size} values, expected ${2 + 2 * moduleCount}"
+    }
+    queue.addLast(values)
+  }
+
+  override fun poll(sample: OdometrySample): Boolean {
+    val values = queue.removeFirstOrNull() ?: return false
+    sample.timestamp = values[0]
+    sample.yawDegrees = values[1]
+    System.arraycopy(values, 2, sample.drivePositions, 0, moduleCount)
+    System.arraycopy(values, 2 + moduleCount, sample.steerPositions, 0, moduleCount)
+    return true
+  }
+}
@@ -0,0 +1,184 @@
+package frc.robot.replay
+
+import edu.wpi.first.math.geometry.Pose3d
+import edu.wpi.first.math.geometry.Quaternion
+import edu.wpi.first.math.geometry.Rotation3d
+import frc.robot.subsystems.CameraIO
+import frc.robot.subsystems.CameraSnapshot
+import frc.robot.subsystems.GyroIO
+import frc.robot.subsystems.GyroInputs
+import frc.robot.subsystems.ModuleIO
+import frc.robot.subsystems.ModuleInputs
+import frc.robot.utils.DriveLog
+import org.photonvision.EstimatedRobotPose
+import org.photonvision.PhotonPoseEstimator.PoseStrategy
+
+/**
+ * A swerve module played back from a log. The replay loads the inputs recorded for a loop with
+ * [load] before running it and the module reads them back, while the setpoints it is given are
+ * only kept to compare with the log.
+ *
+ * @param index The index of the module in kinematics order.
+ */
+class ModuleIOReplay(private val index: Int) : ModuleIO {
+  /** The inputs the module reads next. */
+  val inputs = ModuleInputs()
+
+  /** Last drive rotor velocity setpoint in rotations per second. */
+  var driveVelocitySetpoint = 0.0
+    private set
+
+  /** Last steer position setpoint in rotations. */
+  var steerPositionSetpoint = 0.0
+    private set
+
+  /**
+   * Loads the inputs of this module from a loop recorded under [DriveLog.INPUTS_ENTRY].
+   *
+   * @param values The time, gyro inputs and module inputs of the loop.
+   */
+  fun load(values: DoubleArray) {
+    val offset = GYRO_END + index * MODULE_SIZE
+    inputs.drivePosition = values[offset]
+    inputs.driveVelocity = values[offset + 1]
+    inputs.steerPosition = values[offset + 2]
+    inputs.steerVelocity = values[offset + 3]
+    inputs.signalAge = values[offset + 4]
+  }
+
+  override fun updateInputs(inputs: ModuleInputs) {
+    inputs.drivePosition = this.inputs.drivePosition
+    inputs.driveVelocity = this.inputs.driveVelocity
+    inputs.steerPosition = this.inputs.steerPosition
+    inputs.steerVelocity = this.inputs.steerVelocity
+    inputs.signalAge = this.inputs.signalAge
+  }
+
+  override fun setDriveVelocity(rotationsPerSecond: Double) {
+    driveVelocitySetpoint = rotationsPerSecond
+  }
+
+  override fun setSteerPosition(rotations: Double) {
+    steerPositionSetpoint = rotations
+  }
+
+  companion object {
+    /** Values of a [DriveLog.INPUTS_ENTRY] record before the first module: time and gyro. */
+    private const val GYRO_END = 4
+
+    /** Values of one module in a [DriveLog.INPUTS_ENTRY] record. */
+    private const val MODULE_SIZE = 5
+
+    /**
+     * Gets the number of values a [DriveLog.INPUTS_ENTRY] record of a drive has.
+     *
+     * @param moduleCount The number of swerve modules.
+     * @return The number of values.
+     */
+    fun inputsSize(moduleCount: Int): Int {
+      return GYRO_END + moduleCount * MODULE_SIZE
+    }
+  }
+}
+
+/**
+ * A gyro played back from a log. The replay loads the inputs recorded for a loop with [load]
+ * before running it.
+ */
+class GyroIOReplay : GyroIO {
+  /** The inputs the gyro reads next. */
+  val inputs = GyroInputs()
+
+  /**
+   * Loads the gyro inputs from a loop recorded under [DriveLog.INPUTS_ENTRY].
+   *
+   * @param values The time, gyro inputs and module inputs of the loop.
+   */
+  fun load(values: DoubleArray) {
+    inputs.yawDegrees = values[1]
+    inputs.yawRate = values[2]
+    inputs.signalAge = values[3]
+  }
+
+  override fun updateInputs(inputs: GyroInputs) {
+    inputs.yawDegrees = this.inputs.yawDegrees
+    inputs.yawRate = this.inputs.yawRate
+    inputs.signalAge = this.inputs.signalAge
+  }
+}
+
+/**
+ * A camera played back from a log. The replay loads every recorded frame with [load], which makes
+ * it the latest one.
+ *
+ * The targets an estimate was made from are not recorded, so the replayed estimates have none,
+ * and their strategy is always the multi-tag strategy the robot's cameras use.
+ */
+class CameraIOReplay : CameraIO {
+  private var latest = CameraSnapshot.EMPTY
+
+  override var newFrames = 0L
+    private set
+
+  override val duplicateFrames: Long
+    get() = 0L
+
+  /**
+   * Makes a frame recorded under [DriveLog.CAMERA_FRAME_ENTRY] the latest one.
+   *
+   * @param values The received time, camera, sequence number, frame time, estimate and tags of
+   *   the frame.
+   * @throws IllegalArgumentException If the number of values does not match the tag count.
+   */
+  fun load(values: DoubleArray) {
+    val tagCount = values[FRAME_SIZE - 1].toInt()
+    require(values.size == FRAME_SIZE + tagCount * TAG_SIZE) {
+      "Camera frame has ${values.size} values, expected ${FRAME_SIZE + tagCount * TAG_SIZE}"
+    }
+
+    val estimateTime = values[4]
+    val estimate =
+      if (estimateTime.isNaN()) {
+        null
+      } else {
+        EstimatedRobotPose(
+          Pose3d(
+            values[5],
+            values[6],
+            values[7],
+            Rotation3d(Quaternion(values[8], values[9], values[10], values[11])),
+          ),
+          estimateTime,
+          emptyList(),
+          PoseStrategy.MULTI_TAG_PNP_ON_COPROCESSOR,
+        )
+      }
+
+    latest =
+      CameraSnapshot(
+        values[2].toLong(),
+        values[3],
+        IntArray(tagCount) { values[FRAME_SIZE + it * TAG_SIZE].toInt() },
+        DoubleArray(tagCount) { values[FRAME_SIZE + it * TAG_SIZE + 1] },
+        DoubleArray(tagCount) { values[FRAME_SIZE + it * TAG_SIZE + 2] },
+        DoubleArray(tagCount) { values[FRAME_SIZE + it * TAG_SIZE + 3] },
+        DoubleArray(tagCount) { values[FRAME_SIZE + it * TAG_SIZE + 4] },
+        estimate,
+        values[12],
+        values[13],
+      )
+    newFrames++
+  }
+
+  override fun getLatest(): CameraSnapshot {
+    return latest
+  }
+
+  private companion object {
+    /** Values of a [DriveLog.CAMERA_FRAME_ENTRY] record before the first tag. */
+    const val FRAME_SIZE = 15
+
+    /** Values of one tag in a [DriveLog.CAMERA_FRAME_ENTRY] record. */
+    const val TAG_SIZE = 5
+  }
+}
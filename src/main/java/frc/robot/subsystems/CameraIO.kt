@@ -0,0 +1,25 @@
+package frc.robot.subsystems
+
+/**
+ * One camera of the vision system: a PhotonVision camera processed by a [CameraPipeline], a
+ * simulation, or a recorded log played back by [frc.robot.replay.CameraIOReplay].
+ *
+ * [PhotonVision] only reads frames through this interface, as the latest [CameraSnapshot].
+ */
+interface CameraIO {
+  /** Number of new frames processed. */
+  val newFrames: Long
+
+  /** Number of new frames that repeated the capture time of a frame that was already processed. */
+  val duplicateFrames: Long
+
+  /** Starts producing frames. */
+  fun start() = Unit
+
+  /**
+   * Gets the latest frame. Never blocks.
+   *
+   * @return The latest snapshot, or [CameraSnapshot.EMPTY] if there was no frame yet.
+   */
+  fun getLatest(): CameraSnapshot
+}
@@ -0,0 +1,19 @@
+package frc.robot.subsystems
+
+/**
+ * A camera for running vision without hardware, which never sees a tag.
+ *
+ * It lets [PhotonVision] run headless with the same number of cameras as the robot. Simulating
+ * what the cameras would see needs the PhotonVision simulation, which this does not pull in.
+ */
+class CameraIOSim : CameraIO {
+  override val newFrames: Long
+    get() = 0L
+
+  override val duplicateFrames: Long
+    get() = 0L
+
+  override fun getLatest(): CameraSnapshot {
+    return CameraSnapshot.EMPTY
+  }
+}
@@ -0,0 +1,279 @@
+package frc.robot.subsystems
+
+import edu.wpi.first.math.util.Units
+import edu.wpi.first.networktables.NetworkTableInstance
+import edu.wpi.first.networktables.RawSubscriber
+import edu.wpi.first.wpilibj.DriverStation
+import frc.robot.utils.GlobalsValues.PhotonVisionConstants
+import java.util.concurrent.atomic.AtomicReference
+import org.photonvision.EstimatedRobotPose
+import org.photonvision.PhotonCamera
+import org.photonvision.PhotonPoseEstimator
+import org.photonvision.PhotonUtils
+import org.photonvision.targeting.PhotonPipelineResult
+
+/**
+ * Processes the results of one PhotonVision camera on its own thread.
+ *
+ * Decoding the result, measuring every visible tag and estimating the robot pose all happen here,
+ * so a slow frame never holds up the main robot loop. Every processed frame is published as an
+ * immutable [CameraSnapshot] through an [AtomicReference], which the main loop reads with
+ * [getLatest] without blocking. The camera and pose estimator are owned by this thread once it is
+ * started.
+ *
+ * A frame is only decoded when the camera has published something new, and only processed when
+ * its capture time differs from the last frame, so stale frames cost no decode or estimation.
+ *
+ * @param camera The camera to read results from.
+ * @param poseEstimator The pose estimator for this camera, or null to skip pose estimation.
+ * @param cameraHeight The height of the camera in meters.
+ * @param cameraPitch The pitch of the camera in radians, up is positive.
+ * @param tagHeights The height of every tag in meters indexed by tag ID, NaN for unknown tags.
+ */
+class CameraPipeline(
+  private val camera: PhotonCamera,
+  private val poseEstimator: PhotonPoseEstimator?,
+  private val cameraHeight: Double,
+  private val cameraPitch: Double,
+  private val tagHeights: DoubleArray,
+) : Runnable, CameraIO {
+  private val thread = Thread(this, "Vision ${camera.name}")
+  private val latest = AtomicReference(CameraSnapshot.EMPTY)
+
+  /** Second subscriber to the camera's result topic, only used to see when it changes. */
+  private val rawBytes: RawSubscriber =
+    NetworkTableInstance.getDefault()
+      .getTable("photonvision")
+      .getSubTable(camera.name)
+      .getRawTopic("rawBytes")
+      .subscribe("rawBytes", ByteArray(0))
+
+  // Last result change and capture time that were processed
+  private var lastChange = 0L
+  private var lastFrameTimestamp = Double.NaN
+
+  @Volatile private var running = false
+
+  /** Number of frames that threw while being processed. */
+  @Volatile
+  var errors = 0L
+    private set
+
+  /** Number of new frames processed. */
+  @Volatile
+  override var newFrames = 0L
+    private set
+
+  /** Number of new frames that repeated the capture time of a frame that was already processed. */
+  @Volatile
+  override var duplicateFrames = 0L
+    private set
+
+  /** Number of polls that found no new frame from the camera. */
+  @Volatile
+  var idlePolls = 0L
+    private set
+
+  /** How long the last frame took to process, in seconds. */
+  @Volatile
+  var processingTime = 0.0
+    private set
+
+  init {
+    thread.isDaemon = true
+  }
+
+  /** Starts processing frames. */
+  override fun start() {
+    running = true
+    thread.start()
+  }
+
+  /** Stops processing frames once the current frame is done. */
+  fun stop() {
+    running = false
+  }
+
+  /**
+   * Gets the latest processed frame. Never blocks.
+   *
+   * @return The latest snapshot, or [CameraSnapshot.EMPTY] if no frame was processed yet.
+   */
+  override fun getLatest(): CameraSnapshot {
+    return latest.get()
+  }
+
+  /** Runs the processing loop. */
+  override fun run() {
+    val pollMillis = (PhotonVisionConstants.POLL_PERIOD * 1000.0).toLong()
+
+    while (running) {
+      try {
+        poll()
+      } catch (e: Exception) {
+        errors++
+        DriverStation.reportWarning("Vision ${camera.name}: ${e.message}", false)
+      }
+
+      try {
+        Thread.sleep(pollMillis)
+      } catch (e: InterruptedException) {
+        return
+      }
+    }
+  }
+
+  /** Processes the camera's latest frame, if it is one that was not processed yet. */
+  private fun poll() {
+    // Checking the change time is cheap, decoding the result is not
+    val change = rawBytes.lastChange
+    if (change == lastChange) {
+      idlePolls++
+      return
+    }
+    lastChange = change
+
+    val start = System.nanoTime()
+    val result = camera.getLatestResult()
+    // Each capture is processed exactly once: the pose estimator returns no estimate for a capture
+    // time it has already seen, so processing it again would replace its snapshot with one that
+    // has no estimate
+    if (result.timestampSeconds == lastFrameTimestamp) {
+      duplicateFrames++
+      return
+    }
+    lastFrameTimestamp = result.timestampSeconds
+
+    latest.set(process(result, ++newFrames))
+    processingTime = (System.nanoTime() - start) / 1e9
+  }
+
+  /**
+   * Measures every visible tag and estimates the robot pose from one frame.
+   *
+   * The standard deviations of the estimate grow with the distance to the tags and shrink with the
+   * number of tags used, and ambiguous single tag estimates are thrown away.
+   *
+   * @param result The result from the camera's pipeline.
+   * @param sequence The number of the frame, counting from 1.
+   * @return The snapshot of the frame.
+   */
+  private fun process(result: PhotonPipelineResult, sequence: Long): CameraSnapshot {
+    val targets = result.getTargets()
+    val tagIds = IntArray(targets.size)
+    val yaws = DoubleArray(targets.size)
+    val pitches = DoubleArray(targets.size)
+    val ambiguities = DoubleArray(targets.size)
+    val ranges = DoubleArray(targets.size)
+
+    for (i in targets.indices) {
+      val tag = targets[i]
+      tagIds[i] = tag.fiducialId
+      yaws[i] = tag.yaw
+      pitches[i] = tag.pitch
+      ambiguities[i] = tag.poseAmbiguity
+      ranges[i] = calculateRange(tag.fiducialId, tag.pitch)
+    }
+
+    var estimatedPose = poseEstimator?.update(result)?.orElse(null)
+    var stdDevScale = Double.POSITIVE_INFINITY
+    if (estimatedPose != null && estimatedPose.targetsUsed.isEmpty()) {
+      estimatedPose = null
+    }
+    if (estimatedPose != null) {
+      val used = estimatedPose.targetsUsed
+      var distanceSum = 0.0
+      for (target in used) {
+        distanceSum += target.bestCameraToTarget.translation.norm
+      }
+      val distance = distanceSum / used.size
+      stdDevScale =
+        (1.0 + distance * distance / PhotonVisionConstants.STD_DEV_DISTANCE_SCALE) / used.size
+
+      if (used.size == 1 && used[0].poseAmbiguity > PhotonVisionConstants.MAX_AMBIGUITY) {
+        estimatedPose = null
+      }
+    }
+
+    return CameraSnapshot(
+      sequence,
+      result.timestampSeconds,
+      tagIds,
+      yaws,
+      pitches,
+      ambiguities,
+      ranges,
+      estimatedPose,
+      PhotonVisionConstants.TRANSLATION_STD_DEV * stdDevScale,
+      PhotonVisionConstants.ROTATION_STD_DEV * stdDevScale,
+    )
+  }
+
+  /**
+   * Calculates the range to a tag from the camera height, the tag height and the camera pitch.
+   *
+   * @param tagId The fiducial ID of the tag.
+   * @param tagPitch The pitch to the tag in degrees.
+   * @return The range to the tag in meters, NaN if the height of the tag is unknown.
+   */
+  private fun calculateRange(tagId: Int, tagPitch: Double): Double {
+    if (tagId < 0 || tagId >= tagHeights.size) {
+      return Double.NaN
+    }
+    return PhotonUtils.calculateDistanceToTargetMeters(
+      cameraHeight,
+      tagHeights[tagId],
+      cameraPitch, // Rotation about Y = Pitch | UP IS POSITIVE
+      Units.degreesToRadians(tagPitch),
+    )
+  }
+}
+
+/**
+ * An immutable snapshot of one processed camera frame. The arrays hold one entry per visible tag
+ * and must not be changed once the snapshot is published.
+ *
+ * @param sequence The number of the frame, counting from 1, so skipped frames can be counted.
+ * @param timestamp The time the frame was captured, in FPGA seconds.
+ * @param tagIds The fiducial ID of every visible tag.
+ * @param yaws The yaw to every tag in degrees.
+ * @param pitches The pitch to every tag in degrees.
+ * @param ambiguities The pose ambiguity of every tag.
+ * @param ranges The distance to every tag in meters, NaN if the height of the tag is unknown.
+ * @param estimatedPose The robot pose estimated from the frame, or null if there was none.
+ * @param translationStdDev The standard deviation of the estimated position in meters.
+ * @param rotationStdDev The standard deviation of the estimated heading in radians.
+ */
+class CameraSnapshot(
+  val sequence: Long,
+  val timestamp: Double,
+  val tagIds: IntArray,
+  val yaws: DoubleArray,
+  val pitches: DoubleArray,
+  val ambiguities: DoubleArray,
+  val ranges: DoubleArray,
+  val estimatedPose: EstimatedRobotPose?,
+  val translationStdDev: Double,
+  val rotationStdDev: Double,
+) {
+  /** Number of tags visible in the frame. */
+  val tagCount: Int
+    get() = tagIds.size
+
+  companion object {
+    /** Snapshot used before the first frame is processed. */
+    val EMPTY =
+      CameraSnapshot(
+        0L,
+        Double.NaN,
+        IntArray(0),
+        DoubleArray(0),
+        DoubleArray(0),
+        DoubleArray(0),
+        DoubleArray(0),
+        null,
+        Double.POSITIVE_INFINITY,
+        Double.POSITIVE_INFINITY,
+      )
+  }
+}
@@ -0,0 +1,39 @@
+package frc.robot.subsystems
+
+import com.ctre.phoenix6.BaseStatusSignal
+
+/**
+ * The gyro of the drive: the real Pigeon 2, a simulation, or a recorded log played back by
+ * [frc.robot.replay.GyroIOReplay].
+ *
+ * [SwerveSubsystem] only reads the heading through this interface, into [GyroInputs] once per
+ * loop.
+ */
+interface GyroIO {
+  /**
+   * Gets the status signals the gyro reads, so they can be refreshed in one batch before
+   * [updateInputs].
+   *
+   * @return The signals to refresh, empty if the gyro has none.
+   */
+  fun getSignals(): Array<BaseStatusSignal> = emptyArray()
+
+  /**
+   * Fills the inputs with the latest heading.
+   *
+   * @param inputs The inputs of the gyro, filled in place.
+   */
+  fun updateInputs(inputs: GyroInputs)
+}
+
+/** The heading of the robot, filled once per loop by [GyroIO.updateInputs]. */
+class GyroInputs {
+  /** Yaw in degrees, counterclockwise positive. */
+  var yawDegrees = 0.0
+
+  /** Yaw rate in degrees per second, counterclockwise positive. */
+  var yawRate = 0.0
+
+  /** How far the yaw had to be projected forward to the time it was read, in seconds. */
+  var signalAge = 0.0
+}
@@ -0,0 +1,34 @@
+package frc.robot.subsystems
+
+import com.ctre.phoenix6.BaseStatusSignal
+import com.ctre.phoenix6.StatusSignal
+import com.ctre.phoenix6.hardware.Pigeon2
+
+/**
+ * The Pigeon 2 IMU. The yaw is latency compensated with the yaw rate.
+ *
+ * @param id The CAN ID of the Pigeon 2.
+ */
+class GyroIOPigeon2(id: Int) : GyroIO {
+  val pigeon: Pigeon2 = Pigeon2(id)
+
+  /** Yaw and yaw rate signals, looked up once and refreshed together by [SwerveSubsystem]. */
+  val yaw: StatusSignal<Double>
+  val yawRate: StatusSignal<Double>
+
+  init {
+    pigeon.reset()
+    yaw = pigeon.yaw
+    yawRate = pigeon.angularVelocityZWorld
+  }
+
+  override fun getSignals(): Array<BaseStatusSignal> {
+    return arrayOf(yaw, yawRate)
+  }
+
+  override fun updateInputs(inputs: GyroInputs) {
+    inputs.yawDegrees = BaseStatusSignal.getLatencyCompensatedValue(yaw, yawRate)
+    inputs.yawRate = yawRate.valueAsDouble
+    inputs.signalAge = yaw.timestamp.latency
+  }
+}
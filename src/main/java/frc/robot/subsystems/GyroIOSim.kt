@@ -0,0 +1,42 @@
+package frc.robot.subsystems
+
+import edu.wpi.first.math.util.Units
+import edu.wpi.first.wpilibj.Timer
+import frc.robot.utils.GlobalsValues.SwerveGlobalValues.moduleKinematics
+
+/**
+ * A gyro for running the drive without hardware, which turns the robot as fast as the simulated
+ * modules would.
+ *
+ * The yaw rate comes from the module setpoints through the forward kinematics, and the yaw is
+ * integrated from it over the time between two reads.
+ *
+ * @param modules The simulated modules of the drive, in kinematics order.
+ */
+class GyroIOSim(private val modules: Array<ModuleIOSim>) : GyroIO {
+  private val speeds = DoubleArray(modules.size)
+  private val angles = DoubleArray(modules.size)
+  private val chassisSpeeds = DoubleArray(3)
+
+  private var yawDegrees = 0.0
+  private var lastTimestamp = Double.NaN
+
+  override fun updateInputs(inputs: GyroInputs) {
+    for (i in modules.indices) {
+      speeds[i] = SwerveSubsystem.toMeters(modules[i].driveVelocity)
+      angles[i] = modules[i].steerPosition
+    }
+    moduleKinematics.toChassisSpeeds(speeds, angles, chassisSpeeds)
+    val yawRate = Units.radiansToDegrees(chassisSpeeds[2])
+
+    val now = Timer.getFPGATimestamp()
+    if (!lastTimestamp.isNaN()) {
+      yawDegrees += yawRate * (now - lastTimestamp)
+    }
+    lastTimestamp = now
+
+    inputs.yawDegrees = yawDegrees
+    inputs.yawRate = yawRate
+    inputs.signalAge = 0.0
+  }
+}
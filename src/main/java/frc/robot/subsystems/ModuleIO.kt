@@ -0,0 +1,59 @@
+package frc.robot.subsystems
+
+import com.ctre.phoenix6.BaseStatusSignal
+
+/**
+ * The hardware of one swerve module: the real motors, a simulation, or a recorded log played
+ * back by [frc.robot.replay.ModuleIOReplay].
+ *
+ * [SwerveModule] only talks to its module through this interface. Its sensors are read into
+ * [ModuleInputs] once per loop, so the control code runs the same way against any of them.
+ */
+interface ModuleIO {
+  /**
+   * Gets the status signals this module reads, so they can be refreshed in one batch before
+   * [updateInputs].
+   *
+   * @return The signals to refresh, empty if the module has none.
+   */
+  fun getSignals(): Array<BaseStatusSignal> = emptyArray()
+
+  /**
+   * Fills the inputs with the latest sensor values.
+   *
+   * @param inputs The inputs of the module, filled in place.
+   */
+  fun updateInputs(inputs: ModuleInputs)
+
+  /**
+   * Sets the drive motor velocity.
+   *
+   * @param rotationsPerSecond The drive rotor velocity in rotations per second.
+   */
+  fun setDriveVelocity(rotationsPerSecond: Double)
+
+  /**
+   * Sets the steer position.
+   *
+   * @param rotations The wheel angle in rotations.
+   */
+  fun setSteerPosition(rotations: Double)
+}
+
+/** The sensor values of one swerve module, filled once per loop by [ModuleIO.updateInputs]. */
+class ModuleInputs {
+  /** Drive rotor position in rotations. */
+  var drivePosition = 0.0
+
+  /** Drive rotor velocity in rotations per second. */
+  var driveVelocity = 0.0
+
+  /** Wheel angle in rotations. */
+  var steerPosition = 0.0
+
+  /** Wheel angular velocity in rotations per second. */
+  var steerVelocity = 0.0
+
+  /** How far the values had to be projected forward to the time they were read, in seconds. */
+  var signalAge = 0.0
+}
@@ -0,0 +1,52 @@
+package frc.robot.subsystems
+
+import edu.wpi.first.wpilibj.Timer
+
+/**
+ * An ideal swerve module for running the drive without hardware.
+ *
+ * The wheel reaches every setpoint instantly: the steer position is the last setpoint and the
+ * drive position is integrated from the last velocity setpoint over the time between two reads.
+ * That is enough to run the control and odometry code on a desktop JVM.
+ */
+class ModuleIOSim : ModuleIO {
+  /** Drive rotor velocity setpoint in rotations per second. */
+  var driveVelocity = 0.0
+    private set
+
+  /** Steer position setpoint in rotations. */
+  var steerPosition = 0.0
+    private set
+
+  /** Number of reads and setpoints, each of which would be a CAN transaction on the robot. */
+  var deviceCalls = 0L
+    private set
+
+  private var drivePosition = 0.0
+  private var lastTimestamp = Double.NaN
+
+  override fun updateInputs(inputs: ModuleInputs) {
+    deviceCalls++
+    val now = Timer.getFPGATimestamp()
+    if (!lastTimestamp.isNaN()) {
+      drivePosition += driveVelocity * (now - lastTimestamp)
+    }
+    lastTimestamp = now
+
+    inputs.drivePosition = drivePosition
+    inputs.driveVelocity = driveVelocity
+    inputs.steerPosition = steerPosition
+    inputs.steerVelocity = 0.0
+    inputs.signalAge = 0.0
+  }
+
+  override fun setDriveVelocity(rotationsPerSecond: Double) {
+    deviceCalls++
+    driveVelocity = rotationsPerSecond
+  }
+
+  override fun setSteerPosition(rotations: Double) {
+    deviceCalls++
+    steerPosition = rotations
+  }
+}
@@ -0,0 +1,147 @@
+package frc.robot.subsystems
+
+import com.ctre.phoenix6.BaseStatusSignal
+import com.ctre.phoenix6.StatusSignal
+import com.ctre.phoenix6.configs.CANcoderConfiguration
+import com.ctre.phoenix6.configs.TalonFXConfiguration
+import com.ctre.phoenix6.controls.PositionVoltage
+import com.ctre.phoenix6.controls.VelocityTorqueCurrentFOC
+import com.ctre.phoenix6.hardware.CANcoder
+import com.ctre.phoenix6.hardware.TalonFX
+import com.ctre.phoenix6.signals.AbsoluteSensorRangeValue
+import com.ctre.phoenix6.signals.FeedbackSensorSourceValue
+import com.ctre.phoenix6.signals.NeutralModeValue
+import com.ctre.phoenix6.signals.SensorDirectionValue
+import frc.robot.utils.GlobalsValues.MotorGlobalValues
+import frc.robot.utils.GlobalsValues.SwerveGlobalValues
+import frc.robot.utils.GlobalsValues.SwerveGlobalValues.BasePIDGlobal
+
+/**
+ * A swerve module driven by two TalonFX motors, with a CANcoder fused into the steer motor.
+ *
+ * @param driveId The CAN ID of the drive motor.
+ * @param steerId The CAN ID of the steer motor.
+ * @param canCoderID The CAN ID of the CANcoder.
+ * @param CANCoderDriveStraightSteerSetPoint The setpoint for the CANcoder when driving straight.
+ */
+class ModuleIOTalonFX(
+  driveId: Int,
+  steerId: Int,
+  canCoderID: Int,
+  CANCoderDriveStraightSteerSetPoint: Double,
+) : ModuleIO {
+  val driveMotor: TalonFX = TalonFX(driveId)
+  val steerMotor: TalonFX = TalonFX(steerId)
+  val canCoder: CANcoder = CANcoder(canCoderID)
+
+  private val positionSetter: PositionVoltage =
+    PositionVoltage(0.0, 0.0, true, 0.0, 0, true, false, false).withSlot(0)
+  private val velocitySetter: VelocityTorqueCurrentFOC = VelocityTorqueCurrentFOC(0.0)
+
+  /**
+   * Signals looked up once and refreshed together by [SwerveSubsystem] once per loop, so reading
+   * them here never goes back to the device. Positions and the drive velocity are latency
+   * compensated with the signal one derivative up.
+   */
+  private val drivePositionSignal: StatusSignal<Double>
+  private val driveVelocitySignal: StatusSignal<Double>
+  private val driveAccelerationSignal: StatusSignal<Double>
+  private val steerPositionSignal: StatusSignal<Double>
+  private val steerVelocitySignal: StatusSignal<Double>
+
+  init {
+    val driveConfigs = TalonFXConfiguration()
+    val steerConfigs = TalonFXConfiguration()
+    val canCoderConfiguration = CANcoderConfiguration()
+
+    driveConfigs.Slot0.kP = BasePIDGlobal.DRIVE_PID.p
+    driveConfigs.Slot0.kI = BasePIDGlobal.DRIVE_PID.i
+    driveConfigs.Slot0.kD = BasePIDGlobal.DRIVE_PID.d
+
+    steerConfigs.Slot0.kP = BasePIDGlobal.STEER_PID.p
+    steerConfigs.Slot0.kI = BasePIDGlobal.STEER_PID.i
+    steerConfigs.Slot0.kD = BasePIDGlobal.STEER_PID.d
+
+    driveConfigs.MotorOutput.NeutralMode = NeutralModeValue.Brake
+    steerConfigs.MotorOutput.NeutralMode = NeutralModeValue.Brake
+
+    driveConfigs.MotorOutput.Inverted = SwerveGlobalValues.DRIVE_MOTOR_INVERETED
+    steerConfigs.MotorOutput.Inverted = SwerveGlobalValues.STEER_MOTOR_INVERTED
+
+    steerConfigs.Feedback.FeedbackRemoteSensorID = canCoderID
+    steerConfigs.Feedback.FeedbackSensorSource = FeedbackSensorSourceValue.FusedCANcoder
+    steerConfigs.Feedback.RotorToSensorRatio = MotorGlobalValues.STEER_MOTOR_GEAR_RATIO
+    steerConfigs.ClosedLoopGeneral.ContinuousWrap = true
+
+    canCoderConfiguration.MagnetSensor.AbsoluteSensorRange =
+      AbsoluteSensorRangeValue.Signed_PlusMinusHalf
+    canCoderConfiguration.MagnetSensor.SensorDirection =
+      SensorDirectionValue.CounterClockwise_Positive
+    canCoderConfiguration.MagnetSensor.MagnetOffset =
+      SwerveGlobalValues.ENCODER_OFFSET + CANCoderDriveStraightSteerSetPoint
+
+    driveMotor.configurator.apply(driveConfigs)
+    steerMotor.configurator.apply(steerConfigs)
+    canCoder.configurator.apply(canCoderConfiguration)
+
+    drivePositionSignal = driveMotor.position
+    driveVelocitySignal = driveMotor.velocity
+    driveAccelerationSignal = driveMotor.acceleration
+    steerPositionSignal = steerMotor.position
+    steerVelocitySignal = steerMotor.velocity
+  }
+
+  /**
+   * Gets the signals this module reads, so they can be refreshed in one batch.
+   *
+   * @return The drive position, velocity and acceleration and the steer position and velocity.
+   */
+  override fun getSignals(): Array<BaseStatusSignal> {
+    return arrayOf(
+      drivePositionSignal,
+      driveVelocitySignal,
+      driveAccelerationSignal,
+      steerPositionSignal,
+      steerVelocitySignal,
+    )
+  }
+
+  override fun updateInputs(inputs: ModuleInputs) {
+    inputs.drivePosition =
+      BaseStatusSignal.getLatencyCompensatedValue(drivePositionSignal, driveVelocitySignal)
+    inputs.driveVelocity =
+      BaseStatusSignal.getLatencyCompensatedValue(driveVelocitySignal, driveAccelerationSignal)
+    inputs.steerPosition =
+      BaseStatusSignal.getLatencyCompensatedValue(steerPositionSignal, steerVelocitySignal)
+    inputs.steerVelocity = steerVelocitySignal.valueAsDouble
+    inputs.signalAge =
+      maxOf(
+        drivePositionSignal.timestamp.latency,
+        driveVelocitySignal.timestamp.latency,
+        steerPositionSignal.timestamp.latency,
+      )
+  }
+
+  override fun setDriveVelocity(rotationsPerSecond: Double) {
+    driveMotor.setControl(velocitySetter.withVelocity(rotationsPerSecond))
+  }
+
+  override fun setSteerPosition(rotations: Double) {
+    steerMotor.setControl(positionSetter.withPosition(rotations))
+  }
+
+  /**
+   * Creates copies of the position and velocity signals for the odometry thread, so it never
+   * shares a signal object with the main loop.
+   *
+   * @return The drive position, drive velocity, steer position and steer velocity signals.
+   */
+  fun createOdometrySignals(): Array<StatusSignal<Double>> {
+    return arrayOf(
+      drivePositionSignal.clone(),
+      driveVelocitySignal.clone(),
+      steerPositionSignal.clone(),
+      steerVelocitySignal.clone(),
+    )
+  }
+}
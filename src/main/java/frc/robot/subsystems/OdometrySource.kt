@@ -0,0 +1,29 @@
+package frc.robot.subsystems
+
+/**
+ * A source of synchronized odometry samples: the [OdometryThread] on the robot, the inputs the
+ * drive already read in simulation, or a recorded log played back by
+ * [frc.robot.replay.LogOdometrySource].
+ */
+interface OdometrySource {
+  /** How far the latest sample had to be projected forward by the compensation, in seconds. */
+  val signalAge: Double
+    get() = 0.0
+
+  /**
+   * Starts taking samples.
+   *
+   * @param modules The inputs the drive reads from each module once per loop, in kinematics
+   *   order.
+   * @param gyro The inputs the drive reads from the gyro once per loop.
+   */
+  fun start(modules: Array<out ModuleInputs>, gyro: GyroInputs) = Unit
+
+  /**
+   * Reads the oldest sample that has not been read yet.
+   *
+   * @param sample Filled with the sample.
+   * @return Whether there was a new sample.
+   */
+  fun poll(sample: OdometrySample): Boolean
+}
@@ -0,0 +1,187 @@
+package frc.robot.subsystems
+
+import com.ctre.phoenix6.BaseStatusSignal
+import com.ctre.phoenix6.StatusSignal
+import edu.wpi.first.wpilibj.Threads
+import edu.wpi.first.wpilibj.Timer
+import frc.robot.utils.GlobalsValues.SwerveGlobalValues
+import frc.robot.utils.StatusSignals
+import java.lang.invoke.VarHandle
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Samples the drive, steer and gyro signals together on a dedicated thread.
+ *
+ * The thread waits on all signals at once with [BaseStatusSignal.waitForAll], so every sample
+ * holds readings from the same CAN frame period instead of whatever the main loop happened to
+ * read. Positions are latency compensated with their velocities, so each sample describes the
+ * robot at the moment it was timestamped. Samples go into a fixed-size ring buffer with one writer
+ * and one reader, so neither side ever blocks or allocates. The main loop drains it with [poll].
+ *
+ * @param moduleSignals The drive position, drive velocity, steer position and steer velocity
+ *   signals of every module, owned by this thread.
+ * @param yaw The gyro yaw signal, owned by this thread.
+ * @param yawRate The gyro yaw rate signal, owned by this thread.
+ */
+class OdometryThread(
+  private val moduleSignals: Array<Array<StatusSignal<Double>>>,
+  private val yaw: StatusSignal<Double>,
+  private val yawRate: StatusSignal<Double>,
+) : Runnable, OdometrySource {
+  private val thread = Thread(this, "Odometry")
+  private val signals: Array<BaseStatusSignal> =
+    arrayOf(*moduleSignals.flatten().toTypedArray(), yaw, yawRate)
+  private val moduleCount = moduleSignals.size
+
+  // Ring buffer, one entry per sample and moduleCount entries per sample for the modules
+  private val timestamps = DoubleArray(CAPACITY)
+  private val yaws = DoubleArray(CAPACITY)
+  private val drives = DoubleArray(CAPACITY * moduleCount)
+  private val steers = DoubleArray(CAPACITY * moduleCount)
+
+  /** Number of samples written, only advanced by the odometry thread. */
+  private val writeIndex = AtomicLong()
+
+  /** Number of samples read, only used by the main loop. */
+  private var readIndex = 0L
+
+  @Volatile private var running = false
+
+  /** Number of times the signals did not all arrive in time. */
+  @Volatile
+  var failedWaits = 0L
+    private set
+
+  /** How far the latest sample had to be projected forward by the compensation, in seconds. */
+  @Volatile
+  override var signalAge = 0.0
+    private set
+
+  /** Number of samples the main loop was too slow to read before they were overwritten. */
+  var droppedSamples = 0L
+    private set
+
+  init {
+    thread.isDaemon = true
+    BaseStatusSignal.setUpdateFrequencyForAll(SwerveGlobalValues.ODOMETRY_FREQUENCY, *signals)
+  }
+
+  /** Starts sampling. The thread reads the signals itself instead of the loop's inputs. */
+  override fun start(modules: Array<out ModuleInputs>, gyro: GyroInputs) {
+    running = true
+    thread.start()
+  }
+
+  /** Stops sampling once the current wait finishes. */
+  fun stop() {
+    running = false
+  }
+
+  /** Runs the sampling loop. */
+  override fun run() {
+    // Run above the main robot thread so samples are taken on time
+    Threads.setCurrentThreadPriority(true, 1)
+
+    while (running) {
+      val status = StatusSignals.waitForAll(WAIT_TIMEOUT, signals)
+      if (!status.isOK) {
+        failedWaits++
+        continue
+      }
+
+      val index = writeIndex.get()
+      val slot = (index and MASK).toInt()
+      timestamps[slot] = Timer.getFPGATimestamp()
+      yaws[slot] = BaseStatusSignal.getLatencyCompensatedValue(yaw, yawRate)
+      for (i in 0 until moduleCount) {
+        val module = moduleSignals[i]
+        val offset = slot * moduleCount + i
+        drives[offset] =
+          BaseStatusSignal.getLatencyCompensatedValue(
+            module[DRIVE_POSITION],
+            module[DRIVE_VELOCITY],
+          )
+        steers[offset] =
+          BaseStatusSignal.getLatencyCompensatedValue(
+            module[STEER_POSITION],
+            module[STEER_VELOCITY],
+          )
+      }
+      signalAge = yaw.timestamp.latency
+
+      // Publish the sample only after it has been fully written
+      writeIndex.lazySet(index + 1)
+    }
+  }
+
+  /**
+   * Reads the oldest sample the main loop has not seen yet.
+   *
+   * @param sample Filled with the sample.
+   * @return Whether there was a new sample.
+   */
+  override fun poll(sample: OdometrySample): Boolean {
+    while (true) {
+      val written = writeIndex.get()
+      if (readIndex == written) {
+        return false
+      }
+
+      // Skip samples that have been, or are being, overwritten
+      if (written - readIndex >= CAPACITY) {
+        droppedSamples += written - readIndex - CAPACITY + 1
+        readIndex = written - CAPACITY + 1
+      }
+
+      val slot = (readIndex and MASK).toInt()
+      sample.timestamp = timestamps[slot]
+      sample.yawDegrees = yaws[slot]
+      for (i in 0 until moduleCount) {
+        sample.drivePositions[i] = drives[slot * moduleCount + i]
+        sample.steerPositions[i] = steers[slot * moduleCount + i]
+      }
+
+      // If the writer lapped us while copying, the copy may be torn
+      VarHandle.loadLoadFence()
+      val sampleIndex = readIndex++
+      if (writeIndex.get() - sampleIndex < CAPACITY) {
+        return true
+      }
+      droppedSamples++
+    }
+  }
+
+  companion object {
+    /** Number of samples the ring buffer holds, must be a power of two. */
+    const val CAPACITY = 64
+    private const val MASK = (CAPACITY - 1).toLong()
+
+    /** How long to wait for the signals before giving up on a sample, two periods. */
+    private const val WAIT_TIMEOUT = 2.0 / SwerveGlobalValues.ODOMETRY_FREQUENCY
+
+    // Order of the signals returned by ModuleIOTalonFX.createOdometrySignals
+    private const val DRIVE_POSITION = 0
+    private const val DRIVE_VELOCITY = 1
+    private const val STEER_POSITION = 2
+    private const val STEER_VELOCITY = 3
+  }
+}
+
+/**
+ * One synchronized odometry sample, reused by the reader.
+ *
+ * @param moduleCount The number of swerve modules.
+ */
+class OdometrySample(moduleCount: Int) {
+  /** FPGA time the sample describes, in seconds. */
+  var timestamp = 0.0
+
+  /** Gyro yaw in degrees. */
+  var yawDegrees = 0.0
+
+  /** Drive rotor positions in rotations. */
+  val drivePositions = DoubleArray(moduleCount)
+
+  /** Steer positions in rotations. */
+  val steerPositions = DoubleArray(moduleCount)
+}
@@ -2,157 +2,204 @@ package frc.robot.subsystems
 
 import edu.wpi.first.apriltag.AprilTagFieldLayout
 import edu.wpi.first.apriltag.AprilTagFields
-import edu.wpi.first.math.geometry.Pose2d
-import edu.wpi.first.math.geometry.Rotation3d
-import edu.wpi.first.math.geometry.Transform3d
-import edu.wpi.first.math.geometry.Translation3d
 import edu.wpi.first.math.util.Units
-import edu.wpi.first.wpilibj2.command.SubsystemBase
+import edu.wpi.first.networktables.DoublePublisher
+import edu.wpi.first.wpilibj.Timer
+import frc.robot.utils.DriveLog
 import frc.robot.utils.GlobalsValues
-import java.util.Optional
-import org.photonvision.EstimatedRobotPose
+import frc.robot.utils.TagObservationTable
+import frc.robot.utils.Telemetry
+import frc.robot.utils.VisionFusion
 import org.photonvision.PhotonCamera
 import org.photonvision.PhotonPoseEstimator
 import org.photonvision.PhotonPoseEstimator.PoseStrategy
-import org.photonvision.PhotonUtils
-import org.photonvision.targeting.PhotonPipelineResult
-import org.photonvision.targeting.PhotonTrackedTarget
 
 /**
  * The PhotonVision subsystem handles vision processing using PhotonVision cameras.
+ *
+ * @param driveLog Records the camera frames for replay, or null to record nothing.
+ * @param cameras The cameras in camera index order, or null for the PhotonVision cameras on the
+ *   robot.
  */
-class PhotonVision : SubsystemBase() {
-  // PhotonVision cameras
-  var camera1: PhotonCamera = PhotonCamera("Camera One")
-  var camera2: PhotonCamera = PhotonCamera("Camera Two")
+class PhotonVision(
+  private val driveLog: DriveLog? = null,
+  cameras: Array<out CameraIO>? = null,
+) : ProfiledSubsystem() {
+  // AprilTag field layout for the 2024 Crescendo field
+  val aprilTagFieldLayout: AprilTagFieldLayout =
+    AprilTagFields.k2024Crescendo.loadAprilTagLayoutField()
 
-  // Tracked targets from the cameras
-  var target1: PhotonTrackedTarget? = null // TODO: Use this and the below to track targets
-  var target2: PhotonTrackedTarget? = null
+  // Tag heights are looked up once so the camera threads never touch the layout
+  private val maxTagId = aprilTagFieldLayout.tags.maxOf { it.ID }
+  private val tagHeights =
+    DoubleArray(maxTagId + 1) { id ->
+      aprilTagFieldLayout.getTagPose(id).map { it.z }.orElse(Double.NaN)
+    }
 
-  // Pose estimator for determining the robot's position on the field
-  var photonPoseEstimator: PhotonPoseEstimator
+  // Cameras producing frames, each processed on its own thread on the robot
+  private val pipelines: Array<out CameraIO> = cameras ?: createCameras()
 
-  // AprilTag field layout for the 2024 Crescendo field
-  var aprilTagFieldLayout: AprilTagFieldLayout? =
-    AprilTagFields.k2024Crescendo.loadAprilTagLayoutField()
+  // Sequence number of the last frame copied into the observation table for each camera
+  private val lastSequences: LongArray
+
+  // Number of frames each camera processed that the main loop never saw
+  private val droppedFrames: LongArray
+
+  // Frame counter publishers, registered once so the loop does not build keys
+  private val newFramesPublishers: Array<DoublePublisher>
+  private val duplicateFramesPublishers: Array<DoublePublisher>
+  private val droppedFramesPublishers: Array<DoublePublisher>
 
-  // Transformation from the robot to the camera
-  var robotToCam: Transform3d =
-    Transform3d(
-      Translation3d(0.5, 0.0, 0.5),
-      Rotation3d(0.0, 0.0, 0.0),
-    ) // Cam mounted facing forward, half a meter forward of center, half a meter up from center.
-
-  // Variables to store target visibility and pose information for camera 1
-  var targetVisible1: Boolean = false
-  var targetYaw1: Double = 0.0
-  var targetPoseAmbiguity1: Double = 0.0
-  var range1: Double = 0.0
-
-  // Variables to store target visibility and pose information for camera 2
-  var targetVisible2: Boolean = false
-  var targetYaw2: Double = 0.0
-  var targetPoseAmbiguity2: Double = 0.0
-  var range2: Double = 0.0
-
-  // Variables to store the selected target's yaw and range
-  var targetYaw: Double = 0.0
-  var rangeToTarget: Double = 0.0
+  // Latest observation of every tag from every camera, indexed by camera and tag ID
+  val observations: TagObservationTable
+
+  // Merges the pose estimates of both cameras taken at the same time
+  private val fusion: VisionFusion
 
   /**
    * Constructs a new PhotonVision subsystem.
    */
   init {
-    photonPoseEstimator =
-      PhotonPoseEstimator(
-        aprilTagFieldLayout,
-        PoseStrategy.MULTI_TAG_PNP_ON_COPROCESSOR,
-        camera1,
-        robotToCam,
+    lastSequences = LongArray(pipelines.size)
+    droppedFrames = LongArray(pipelines.size)
+    newFramesPublishers =
+      Array(pipelines.size) { Telemetry.number("Vision/Camera ${it + 1} new frames") }
+    duplicateFramesPublishers =
+      Array(pipelines.size) { Telemetry.number("Vision/Camera ${it + 1} duplicate frames") }
+    droppedFramesPublishers =
+      Array(pipelines.size) { Telemetry.number("Vision/Camera ${it + 1} dropped frames") }
+    observations = TagObservationTable(maxTagId, pipelines.size)
+    fusion =
+      VisionFusion(
+        pipelines.size,
+        GlobalsValues.PhotonVisionConstants.FUSION_WINDOW,
+        GlobalsValues.PhotonVisionConstants.FUSION_ACTIVE_TIME,
       )
-  }
 
-  /**
-   * This method is called periodically by the scheduler. It updates the tracked targets and
-   * displays relevant information on the SmartDashboard.
-   */
-  override fun periodic() {
-    val result1 = camera1.getLatestResult()
-    val result2 = camera2.getLatestResult()
-
-    processCameraResult(result1, 1)
-    processCameraResult(result2, 2)
-
-    if (targetPoseAmbiguity1 > targetPoseAmbiguity2) {
-      targetYaw = targetYaw1
-      rangeToTarget = range1
-    } else {
-      targetYaw = targetYaw2
-      rangeToTarget = range2
+    for (pipeline in pipelines) {
+      pipeline.start()
     }
   }
 
   /**
-   * Processes the result from a camera and updates the target information.
-   *
-   * @param result The result from the camera's pipeline.
-   * @param cameraIndex The index of the camera (1 or 2).
+   * This method is called periodically by the scheduler. It copies every new frame processed by
+   * the camera threads into the observation table and queues its pose estimate for fusion,
+   * without waiting on either camera. Frames that were already copied are skipped.
    */
-  private fun processCameraResult(result: PhotonPipelineResult, cameraIndex: Int) {
-    if (result.hasTargets()) {
-      for (tag in result.getTargets()) {
-        if (tag.fiducialId == 7) {
-          if (cameraIndex == 1) {
-            targetPoseAmbiguity1 = tag.poseAmbiguity
-            targetYaw1 = tag.yaw
-            targetVisible1 = true
-            range1 = calculateRange(tag, GlobalsValues.PhotonVisionConstants.CAMERA_ONE_HEIGHT, GlobalsValues.PhotonVisionConstants.CAMERA_ONE_ANGLE)
-          } else {
-            targetPoseAmbiguity2 = tag.poseAmbiguity
-            targetYaw2 = tag.yaw
-            targetVisible2 = true
-            range2 = calculateRange(tag, GlobalsValues.PhotonVisionConstants.CAMERA_TWO_HEIGHT, GlobalsValues.PhotonVisionConstants.CAMERA_TWO_ANGLE)
-          }
-        }
+  override fun profiledPeriodic() {
+    val now = Timer.getFPGATimestamp()
+    for (camera in pipelines.indices) {
+      val pipeline = pipelines[camera]
+      newFramesPublishers[camera].set(pipeline.newFrames.toDouble())
+      duplicateFramesPublishers[camera].set(pipeline.duplicateFrames.toDouble())
+      droppedFramesPublishers[camera].set(droppedFrames[camera].toDouble())
+
+      val snapshot = pipeline.getLatest()
+      if (snapshot.sequence == lastSequences[camera]) {
+        continue
       }
-    } else {
-      if (cameraIndex == 1) {
-        targetVisible1 = false
-        targetPoseAmbiguity1 = 1e9
-      } else {
-        targetVisible2 = false
-        targetPoseAmbiguity2 = 1e9
+      // Frames published and replaced between two loops were never seen
+      droppedFrames[camera] += snapshot.sequence - lastSequences[camera] - 1
+      lastSequences[camera] = snapshot.sequence
+      driveLog?.logCameraFrame(camera, now, snapshot)
+
+      observations.beginFrame(camera, snapshot.timestamp)
+      for (i in 0 until snapshot.tagCount) {
+        observations.record(
+          camera,
+          snapshot.tagIds[i],
+          snapshot.yaws[i],
+          snapshot.pitches[i],
+          snapshot.ambiguities[i],
+          snapshot.ranges[i],
+        )
       }
+
+      val estimate = snapshot.estimatedPose ?: continue
+      val pose = estimate.estimatedPose
+      fusion.add(
+        camera,
+        pose.x,
+        pose.y,
+        pose.rotation.z,
+        estimate.timestampSeconds,
+        snapshot.translationStdDev,
+        snapshot.rotationStdDev,
+        now,
+      )
     }
   }
 
   /**
-   * Calculates the range to a target based on the camera height, target height, and camera angle.
+   * Creates the two PhotonVision cameras on the robot, each with a multi-tag pose estimator.
    *
-   * @param tag The tracked target.
-   * @param cameraHeight The height of the camera.
-   * @param cameraAngle The angle of the camera.
-   * @return The calculated range to the target.
+   * @return The camera pipelines in camera index order.
    */
-  private fun calculateRange(tag: PhotonTrackedTarget, cameraHeight: Double, cameraAngle: Double): Double {
-    return PhotonUtils.calculateDistanceToTargetMeters(
-      cameraHeight,
-      1.435, // From 2024 game manual for ID 7 | IMPORTANT TO CHANGE
-      cameraAngle, // Rotation about Y = Pitch | UP IS POSITIVE
-      Units.degreesToRadians(tag.pitch),
+  private fun createCameras(): Array<CameraIO> {
+    val camera1 = PhotonCamera("Camera One")
+    val camera2 = PhotonCamera("Camera Two")
+    return arrayOf(
+      CameraPipeline(
+        camera1,
+        PhotonPoseEstimator(
+          aprilTagFieldLayout,
+          PoseStrategy.MULTI_TAG_PNP_ON_COPROCESSOR,
+          camera1,
+          GlobalsValues.PhotonVisionConstants.ROBOT_TO_CAMERA_ONE,
+        ),
+        GlobalsValues.PhotonVisionConstants.CAMERA_ONE_HEIGHT,
+        Units.degreesToRadians(GlobalsValues.PhotonVisionConstants.CAMERA_ONE_ANGLE),
+        tagHeights,
+      ),
+      CameraPipeline(
+        camera2,
+        PhotonPoseEstimator(
+          aprilTagFieldLayout,
+          PoseStrategy.MULTI_TAG_PNP_ON_COPROCESSOR,
+          camera2,
+          GlobalsValues.PhotonVisionConstants.ROBOT_TO_CAMERA_TWO,
+        ),
+        GlobalsValues.PhotonVisionConstants.CAMERA_TWO_HEIGHT,
+        Units.degreesToRadians(GlobalsValues.PhotonVisionConstants.CAMERA_TWO_ANGLE),
+        tagHeights,
+      ),
     )
   }
 
   /**
-   * Gets the estimated global pose of the robot.
+   * Gets the yaw to a tag from the camera that sees it with the lowest ambiguity.
+   *
+   * @param tagId The fiducial ID of the tag.
+   * @return The yaw to the tag in degrees, or NaN if no camera sees it.
+   */
+  fun getTargetYaw(tagId: Int): Double {
+    val camera = observations.getBestCamera(tagId)
+    return if (camera < 0) Double.NaN else observations.getYaw(camera, tagId)
+  }
+
+  /**
+   * Gets the range to a tag from the camera that sees it with the lowest ambiguity.
+   *
+   * @param tagId The fiducial ID of the tag.
+   * @return The range to the tag in meters, or NaN if no camera sees it.
+   */
+  fun getRangeToTarget(tagId: Int): Double {
+    val camera = observations.getBestCamera(tagId)
+    return if (camera < 0) Double.NaN else observations.getRange(camera, tagId)
+  }
+
+  /**
+   * Takes the next vision measurement, fused from every camera that saw tags at the same time.
+   * Call until it returns false to use every measurement in time order. An estimate waits for up
+   * to one fusion window for the other cameras' frames of the same time, but only while another
+   * camera is still sending estimates.
    *
-   * @param prevEstimatedRobotPose The previous estimated pose of the robot.
-   * @return An Optional containing the estimated robot pose, or empty if no pose could be
-   *   estimated.
+   * @param measurement Filled with x, y, heading, timestamp, position standard deviation and
+   *   heading standard deviation, see [VisionFusion.poll].
+   * @param now The current FPGA time in seconds.
+   * @return Whether there was a new measurement.
    */
-  fun getEstimatedGlobalPose(prevEstimatedRobotPose: Pose2d?): Optional<EstimatedRobotPose?>? {
-    photonPoseEstimator.setReferencePose(prevEstimatedRobotPose)
-    return photonPoseEstimator.update()
+  fun pollVisionMeasurement(measurement: DoubleArray, now: Double): Boolean {
+    return fusion.poll(measurement, now)
   }
-}
\ No newline at end of file
+}
@@ -0,0 +1,24 @@
+package frc.robot.subsystems
+
+import edu.wpi.first.wpilibj2.command.SubsystemBase
+import frc.robot.utils.LoopProfiler
+
+/**
+ * A [SubsystemBase] whose periodic work is timed by the [LoopProfiler].
+ *
+ * Subclasses put their periodic work in [profiledPeriodic] instead of overriding [periodic].
+ */
+abstract class ProfiledSubsystem : SubsystemBase() {
+  /** Profiler section for this subsystem, named the same way as the scheduler's watchdog epochs. */
+  private val periodicSection = LoopProfiler.register("$name.periodic()")
+
+  /** Runs [profiledPeriodic] and records how long it took. */
+  final override fun periodic() {
+    val start = LoopProfiler.start()
+    profiledPeriodic()
+    LoopProfiler.stop(periodicSection, start)
+  }
+
+  /** This method is called periodically by the scheduler and is timed by the [LoopProfiler]. */
+  open fun profiledPeriodic() = Unit
+}
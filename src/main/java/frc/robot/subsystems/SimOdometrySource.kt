@@ -0,0 +1,38 @@
+package frc.robot.subsystems
+
+import edu.wpi.first.wpilibj.Timer
+
+/**
+ * Odometry samples for running the drive without hardware, taken from the inputs the drive already
+ * read from the module and gyro IO this loop, instead of a sampling thread.
+ *
+ * Without CAN frames to wait on there is nothing to synchronize, so one sample is read whenever
+ * the clock has moved since the last one, which is once per robot loop. The IO is not read a
+ * second time.
+ */
+class SimOdometrySource : OdometrySource {
+  private var moduleInputs: Array<out ModuleInputs> = emptyArray()
+  private var gyroInputs = GyroInputs()
+  private var lastTimestamp = Double.NaN
+
+  override fun start(modules: Array<out ModuleInputs>, gyro: GyroInputs) {
+    moduleInputs = modules
+    gyroInputs = gyro
+  }
+
+  override fun poll(sample: OdometrySample): Boolean {
+    val now = Timer.getFPGATimestamp()
+    if (now == lastTimestamp) {
+      return false
+    }
+    lastTimestamp = now
+
+    sample.timestamp = now
+    sample.yawDegrees = gyroInputs.yawDegrees
+    for (i in moduleInputs.indices) {
+      sample.drivePositions[i] = moduleInputs[i].drivePosition
+      sample.steerPositions[i] = moduleInputs[i].steerPosition
+    }
+    return true
+  }
+}
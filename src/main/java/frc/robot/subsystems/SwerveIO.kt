@@ -0,0 +1,81 @@
+package frc.robot.subsystems
+
+import edu.wpi.first.wpilibj.RobotBase
+import frc.robot.utils.GlobalsValues.MotorGlobalValues
+import frc.robot.utils.GlobalsValues.SwerveGlobalValues
+
+/**
+ * Everything [SwerveSubsystem] reads from and writes to: one [ModuleIO] per module in kinematics
+ * order, the [GyroIO] and the source of odometry samples.
+ *
+ * @param modules The modules of the drive, front left, front right, back left and back right.
+ * @param gyro The gyro of the drive.
+ * @param odometry The source of odometry samples, started by [SwerveSubsystem].
+ * @param physics Moves the simulated devices in simulation, or null if nothing needs to.
+ */
+class SwerveIO(
+  val modules: Array<out ModuleIO>,
+  val gyro: GyroIO,
+  val odometry: OdometrySource,
+  val physics: SwerveSim? = null,
+) {
+  companion object {
+    /**
+     * Creates the IO of the real robot: TalonFX modules, the Pigeon 2 and the odometry thread
+     * sampling both. In simulation the devices are moved by a [SwerveSim].
+     *
+     * @return The IO of the real robot.
+     */
+    fun real(): SwerveIO {
+      val modules =
+        arrayOf(
+          ModuleIOTalonFX(
+            MotorGlobalValues.FRONT_LEFT_DRIVE_ID,
+            MotorGlobalValues.FRONT_LEFT_STEER_ID,
+            MotorGlobalValues.FRONT_LEFT_CAN_CODER_ID,
+            SwerveGlobalValues.CANCODER_VALUE9,
+          ),
+          ModuleIOTalonFX(
+            MotorGlobalValues.FRONT_RIGHT_DRIVE_ID,
+            MotorGlobalValues.FRONT_RIGHT_STEER_ID,
+            MotorGlobalValues.FRONT_RIGHT_CAN_CODER_ID,
+            SwerveGlobalValues.CANCODER_VALUE10,
+          ),
+          ModuleIOTalonFX(
+            MotorGlobalValues.BACK_LEFT_DRIVE_ID,
+            MotorGlobalValues.BACK_LEFT_STEER_ID,
+            MotorGlobalValues.BACK_LEFT_CAN_CODER_ID,
+            SwerveGlobalValues.CANCODER_VALUE11,
+          ),
+          ModuleIOTalonFX(
+            MotorGlobalValues.BACK_RIGHT_DRIVE_ID,
+            MotorGlobalValues.BACK_RIGHT_STEER_ID,
+            MotorGlobalValues.BACK_RIGHT_CAN_CODER_ID,
+            SwerveGlobalValues.CANCODER_VALUE12,
+          ),
+        )
+      val gyro = GyroIOPigeon2(MotorGlobalValues.PIDGEY_ID)
+      val odometry =
+        OdometryThread(
+          Array(modules.size) { modules[it].createOdometrySignals() },
+          gyro.yaw.clone(),
+          gyro.yawRate.clone(),
+        )
+      val physics = if (RobotBase.isSimulation()) SwerveSim(modules, gyro) else null
+      return SwerveIO(modules, gyro, odometry, physics)
+    }
+
+    /**
+     * Creates the IO of an ideal simulated drive, which needs no hardware or simulator.
+     *
+     * @param modules The simulated modules, in kinematics order.
+     * @return The simulated IO.
+     */
+    fun sim(
+      modules: Array<ModuleIOSim> = Array(SwerveGlobalValues.MODULE_COUNT) { ModuleIOSim() },
+    ): SwerveIO {
+      val gyro = GyroIOSim(modules)
+      return SwerveIO(modules, gyro, SimOdometrySource())
+    }
+  }
+}
@@ -1,102 +1,49 @@
 package frc.robot.subsystems
 
-import com.ctre.phoenix6.configs.CANcoderConfiguration
-import com.ctre.phoenix6.configs.TalonFXConfiguration
-import com.ctre.phoenix6.controls.PositionVoltage
-import com.ctre.phoenix6.controls.VelocityTorqueCurrentFOC
-import com.ctre.phoenix6.hardware.CANcoder
-import com.ctre.phoenix6.hardware.TalonFX
-import com.ctre.phoenix6.signals.AbsoluteSensorRangeValue
-import com.ctre.phoenix6.signals.FeedbackSensorSourceValue
-import com.ctre.phoenix6.signals.NeutralModeValue
-import com.ctre.phoenix6.signals.SensorDirectionValue
+import com.ctre.phoenix6.BaseStatusSignal
+import edu.wpi.first.math.MathUtil
 import edu.wpi.first.math.geometry.Rotation2d
 import edu.wpi.first.math.kinematics.SwerveModulePosition
 import edu.wpi.first.math.kinematics.SwerveModuleState
-import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard
+import edu.wpi.first.networktables.DoublePublisher
 import frc.robot.utils.GlobalsValues.MotorGlobalValues
-import frc.robot.utils.GlobalsValues.SwerveGlobalValues
-import frc.robot.utils.GlobalsValues.SwerveGlobalValues.BasePIDGlobal
-
-/** The [SwerveModule] class includes all the motors to control the swerve drive. */
-class SwerveModule(
-  driveId: Int,
-  steerId: Int,
-  canCoderID: Int,
-  CANCoderDriveStraightSteerSetPoint: Double,
-) {
-  private val driveMotor: TalonFX
-  private val canCoder: CANcoder
-  private val steerMotor: TalonFX
-
-  private val positionSetter: PositionVoltage
-  private val velocitySetter: VelocityTorqueCurrentFOC
-
-  private val swerveModulePosition: SwerveModulePosition
-  private var state: SwerveModuleState
-
-  private var driveVelocity: Double
-  private var drivePosition: Double
-  private var steerPosition: Double
-  private var steerVelocity: Double
+import frc.robot.utils.Telemetry
+import kotlin.math.abs
+
+/**
+ * The [SwerveModule] class controls one swerve module through its [ModuleIO].
+ *
+ * @param io The hardware of the module.
+ * @param canCoderID The CAN ID of the CANcoder, which names the module's telemetry.
+ */
+class SwerveModule(private val io: ModuleIO, canCoderID: Int) {
+  private val swerveModulePosition: SwerveModulePosition = SwerveModulePosition()
+  private var state: SwerveModuleState = SwerveModuleState(0.0, Rotation2d.fromDegrees(0.0))
+
+  /** Sensor values of the module, filled once per loop by [updateInputs]. */
+  val inputs = ModuleInputs()
+
+  /** Number of input values read since [takeSignalReads] was last called. */
+  private var signalReads = 0
+
+  /** Publisher of the optimized angle, registered once instead of looked up every loop. */
+  private val desiredAnglePublisher: DoublePublisher =
+    Telemetry.number("desired state after optimize " + canCoderID)
+
+  /** Wheel speed in meters per second from the last call to [setState], after optimizing. */
+  var desiredSpeed = 0.0
+    private set
+
+  /** Wheel angle in rotations from the last call to [setState], after optimizing. */
+  var desiredAngle = 0.0
+    private set
 
   /**
-   * Constructs a new SwerveModule.
-   *
-   * @param driveId The CAN ID of the drive motor.
-   * @param steerId The CAN ID of the steer motor.
-   * @param canCoderID The CAN ID of the CANcoder.
-   * @param CANCoderDriveStraightSteerSetPoint The setpoint for the CANcoder when driving straight.
+   * Reads the sensors of the module into [inputs]. Called once per loop, after the signals of
+   * [getSignals] were refreshed.
    */
-  init {
-    driveMotor = TalonFX(driveId)
-    steerMotor = TalonFX(steerId)
-    canCoder = CANcoder(canCoderID)
-
-    positionSetter = PositionVoltage(0.0, 0.0, true, 0.0, 0, true, false, false).withSlot(0)
-    velocitySetter = VelocityTorqueCurrentFOC(0.0)
-
-    swerveModulePosition = SwerveModulePosition()
-    state = SwerveModuleState(0.0, Rotation2d.fromDegrees(0.0))
-
-    val driveConfigs = TalonFXConfiguration()
-    val steerConfigs = TalonFXConfiguration()
-    val canCoderConfiguration = CANcoderConfiguration()
-
-    driveConfigs.Slot0.kP = BasePIDGlobal.DRIVE_PID.p
-    driveConfigs.Slot0.kI = BasePIDGlobal.DRIVE_PID.i
-    driveConfigs.Slot0.kD = BasePIDGlobal.DRIVE_PID.d
-
-    steerConfigs.Slot0.kP = BasePIDGlobal.STEER_PID.p
-    steerConfigs.Slot0.kI = BasePIDGlobal.STEER_PID.i
-    steerConfigs.Slot0.kD = BasePIDGlobal.STEER_PID.d
-
-    driveConfigs.MotorOutput.NeutralMode = NeutralModeValue.Brake
-    steerConfigs.MotorOutput.NeutralMode = NeutralModeValue.Brake
-
-    driveConfigs.MotorOutput.Inverted = SwerveGlobalValues.DRIVE_MOTOR_INVERETED
-    steerConfigs.MotorOutput.Inverted = SwerveGlobalValues.STEER_MOTOR_INVERTED
-
-    steerConfigs.Feedback.FeedbackRemoteSensorID = canCoderID
-    steerConfigs.Feedback.FeedbackSensorSource = FeedbackSensorSourceValue.FusedCANcoder
-    steerConfigs.Feedback.RotorToSensorRatio = MotorGlobalValues.STEER_MOTOR_GEAR_RATIO
-    steerConfigs.ClosedLoopGeneral.ContinuousWrap = true
-
-    canCoderConfiguration.MagnetSensor.AbsoluteSensorRange =
-      AbsoluteSensorRangeValue.Signed_PlusMinusHalf
-    canCoderConfiguration.MagnetSensor.SensorDirection =
-      SensorDirectionValue.CounterClockwise_Positive
-    canCoderConfiguration.MagnetSensor.MagnetOffset =
-      SwerveGlobalValues.ENCODER_OFFSET + CANCoderDriveStraightSteerSetPoint
-
-    driveMotor.configurator.apply(driveConfigs)
-    steerMotor.configurator.apply(steerConfigs)
-    canCoder.configurator.apply(canCoderConfiguration)
-
-    driveVelocity = driveMotor.velocity.valueAsDouble
-    drivePosition = driveMotor.position.valueAsDouble
-    steerVelocity = steerMotor.velocity.valueAsDouble
-    steerPosition = steerMotor.position.valueAsDouble
+  fun updateInputs() {
+    io.updateInputs(inputs)
   }
 
   /**
@@ -105,48 +52,85 @@ class SwerveModule(
    * @return The current position of the swerve module.
    */
   fun getPosition(): SwerveModulePosition {
-    driveVelocity = driveMotor.velocity.valueAsDouble
-    drivePosition = driveMotor.position.valueAsDouble
-    steerVelocity = steerMotor.velocity.valueAsDouble
-    steerPosition = steerMotor.position.valueAsDouble
+    signalReads += 2
 
-    swerveModulePosition.angle = Rotation2d.fromRotations(steerPosition)
+    swerveModulePosition.angle = Rotation2d.fromRotations(inputs.steerPosition)
     swerveModulePosition.distanceMeters =
-      (drivePosition /
+      (inputs.drivePosition /
         (MotorGlobalValues.DRIVE_MOTOR_GEAR_RATIO / MotorGlobalValues.METERS_PER_REVOLUTION))
 
     return swerveModulePosition
   }
 
+  /**
+   * Gets the signals this module reads, so they can be refreshed in one batch.
+   *
+   * @return The signals of the module's IO, empty if it has none.
+   */
+  fun getSignals(): Array<BaseStatusSignal> {
+    return io.getSignals()
+  }
+
+  /**
+   * Gets how stale the latest sensor values are, which is how far the latency compensation had to
+   * project them forward.
+   *
+   * @return The age of the oldest position or velocity value, in seconds.
+   */
+  fun getSignalAge(): Double {
+    return inputs.signalAge
+  }
+
+  /**
+   * Gets how many signal values were read from the cache since the last call, and resets the
+   * count. Each of these would have been a separate device read without the batched refresh.
+   *
+   * @return The number of cached signal reads.
+   */
+  fun takeSignalReads(): Int {
+    val reads = signalReads
+    signalReads = 0
+    return reads
+  }
+
   /**
    * Sets the desired state of the swerve module.
    *
    * @param state The desired state of the swerve module.
-   * @param motor The motor associated with the swerve module.
    */
-  fun setState(state: SwerveModuleState) { // SwerveSubsystem.Motor motor
-    val newPosition = getPosition()
-    // SmartDashboard.putNumber("desired state before optimize " + motor.name(), state.angle.getDegrees());
-    // SmartDashboard.putNumber("voltage " + motor.name(), steerMotor.getMotorVoltage().getValueAsDouble());
-    // SmartDashboard.putNumber("Applied " + motor.name(), steerMotor.getSupplyCurrent().getValueAsDouble());
-    val optimized = SwerveModuleState.optimize(state, newPosition.angle)
-
-    val angleToSet = optimized.angle.rotations
-    SmartDashboard.putNumber(
-      "desired state after optimize " + canCoder.deviceID,
-      optimized.angle.rotations,
-    )
-
-    // SmartDashboard.putNumber("current angle " + motor.name(), steerPosition);
-    // SmartDashboard.putNumber("steer angle " + motor.name(), steerMotor.getPosition().getValueAsDouble());
-    steerMotor.setControl(positionSetter.withPosition(angleToSet))
+  fun setState(state: SwerveModuleState) {
+    setState(state.speedMetersPerSecond, state.angle.rotations)
+  }
+
+  /**
+   * Sets the desired state of the swerve module without allocating.
+   *
+   * The state is optimized the same way as [SwerveModuleState.optimize], so the wheel never turns
+   * more than a quarter rotation and drives backwards instead.
+   *
+   * @param speedMetersPerSecond The desired wheel speed in meters per second.
+   * @param angleRotations The desired wheel angle in rotations.
+   */
+  fun setState(speedMetersPerSecond: Double, angleRotations: Double) {
+    val steerPosition = inputs.steerPosition
+    signalReads++
+
+    var speedToSet = speedMetersPerSecond
+    var angleToSet = angleRotations
+    if (shouldReverse(angleToSet, steerPosition)) {
+      speedToSet = -speedToSet
+      angleToSet = MathUtil.inputModulus(angleToSet + 0.5, -0.5, 0.5)
+    }
+
+    desiredSpeed = speedToSet
+    desiredAngle = angleToSet
+    desiredAnglePublisher.set(angleToSet)
+    io.setSteerPosition(angleToSet)
 
     val velocityToSet =
-      (optimized.speedMetersPerSecond *
+      (speedToSet *
         (MotorGlobalValues.DRIVE_MOTOR_GEAR_RATIO / MotorGlobalValues.METERS_PER_REVOLUTION))
-    driveMotor.setControl(velocitySetter.withVelocity(velocityToSet))
-
-    this.state = state
+    io.setDriveVelocity(velocityToSet)
   }
 
   /**
@@ -155,10 +139,43 @@ class SwerveModule(
    * @return The current state of the swerve module.
    */
   fun getState(): SwerveModuleState {
-    state.angle = Rotation2d.fromRotations(steerMotor.position.valueAsDouble)
-    state.speedMetersPerSecond =
-      (driveMotor.velocity.valueAsDouble *
-        (MotorGlobalValues.DRIVE_MOTOR_GEAR_RATIO / MotorGlobalValues.METERS_PER_REVOLUTION))
+    state.angle = Rotation2d.fromRotations(getAngleRotations())
+    state.speedMetersPerSecond = getSpeed()
     return state
   }
+
+  /**
+   * Gets the current wheel speed without allocating.
+   *
+   * @return The wheel speed in meters per second.
+   */
+  fun getSpeed(): Double {
+    signalReads++
+    return (inputs.driveVelocity /
+      (MotorGlobalValues.DRIVE_MOTOR_GEAR_RATIO / MotorGlobalValues.METERS_PER_REVOLUTION))
+  }
+
+  /**
+   * Gets the current wheel angle without allocating.
+   *
+   * @return The wheel angle in rotations.
+   */
+  fun getAngleRotations(): Double {
+    signalReads++
+    return inputs.steerPosition
+  }
+
+  companion object {
+    /**
+     * Checks whether a module is better off driving backwards to reach an angle, which is when
+     * the angle is more than a quarter rotation away from where the wheel points.
+     *
+     * @param angleRotations The desired wheel angle in rotations.
+     * @param steerPosition The current wheel angle in rotations.
+     * @return Whether to flip the angle by half a rotation and reverse the speed.
+     */
+    fun shouldReverse(angleRotations: Double, steerPosition: Double): Boolean {
+      return abs(MathUtil.inputModulus(angleRotations - steerPosition, -0.5, 0.5)) > 0.25
+    }
+  }
 }
@@ -0,0 +1,137 @@
+package frc.robot.subsystems
+
+import com.ctre.phoenix6.signals.InvertedValue
+import com.ctre.phoenix6.sim.ChassisReference
+import com.ctre.phoenix6.sim.TalonFXSimState
+import edu.wpi.first.math.system.plant.DCMotor
+import edu.wpi.first.math.util.Units
+import edu.wpi.first.wpilibj.RobotController
+import edu.wpi.first.wpilibj.simulation.DCMotorSim
+import frc.robot.utils.GlobalsValues.MotorGlobalValues
+import frc.robot.utils.GlobalsValues.SimulationGlobalValues
+import frc.robot.utils.GlobalsValues.SwerveGlobalValues
+import frc.robot.utils.GlobalsValues.SwerveGlobalValues.moduleKinematics
+
+/**
+ * Simulates the physics of the drive through the Phoenix 6 sim state of its devices.
+ *
+ * Every drive and steer motor is a [DCMotorSim] through its gear ratio, driven by the voltage the
+ * simulated TalonFX applies. The resulting rotor positions and velocities are written back to the
+ * TalonFX and CANcoder sim state, and the yaw rate of the robot, from the forward kinematics of
+ * the simulated modules, to the Pigeon 2. The robot code reads them through the usual signals, so
+ * the closed loops, odometry and autos run unchanged. Stepping never allocates beyond what
+ * [DCMotorSim] does, so many seconds of match are simulated per second.
+ *
+ * @param modules The TalonFX modules of the drive, in kinematics order.
+ * @param gyro The Pigeon 2 of the drive.
+ */
+class SwerveSim(
+  private val modules: Array<ModuleIOTalonFX>,
+  private val gyro: GyroIOPigeon2,
+) {
+  private val driveSims =
+    Array(modules.size) {
+      DCMotorSim(
+        DCMotor.getFalcon500Foc(1),
+        MotorGlobalValues.DRIVE_MOTOR_GEAR_RATIO,
+        SimulationGlobalValues.DRIVE_MOMENT_OF_INERTIA,
+      )
+    }
+  private val steerSims =
+    Array(modules.size) {
+      DCMotorSim(
+        DCMotor.getFalcon500Foc(1),
+        MotorGlobalValues.STEER_MOTOR_GEAR_RATIO,
+        SimulationGlobalValues.STEER_MOMENT_OF_INERTIA,
+      )
+    }
+
+  // Module speeds and angles fed to the forward kinematics, reused every step
+  private val speeds = DoubleArray(modules.size)
+  private val angles = DoubleArray(modules.size)
+  private val chassisSpeeds = DoubleArray(3)
+
+  private var yawDegrees = 0.0
+
+  init {
+    // The sim state is seen from the motor, so it has to match the motor's inversion
+    val driveOrientation = toOrientation(SwerveGlobalValues.DRIVE_MOTOR_INVERETED)
+    val steerOrientation = toOrientation(SwerveGlobalValues.STEER_MOTOR_INVERTED)
+    for (module in modules) {
+      module.driveMotor.simState.Orientation = driveOrientation
+      module.steerMotor.simState.Orientation = steerOrientation
+    }
+  }
+
+  /**
+   * Steps the physics of every module and the gyro.
+   *
+   * @param dt The time since the last step, in seconds.
+   */
+  fun update(dt: Double) {
+    val batteryVoltage = RobotController.getBatteryVoltage()
+
+    for (i in modules.indices) {
+      val module = modules[i]
+      val driveState = module.driveMotor.simState
+      val steerState = module.steerMotor.simState
+      val canCoderState = module.canCoder.simState
+      driveState.setSupplyVoltage(batteryVoltage)
+      steerState.setSupplyVoltage(batteryVoltage)
+      canCoderState.setSupplyVoltage(batteryVoltage)
+
+      val driveSim = driveSims[i]
+      driveSim.setInputVoltage(driveState.motorVoltage)
+      driveSim.update(dt)
+      setRotor(driveState, driveSim, MotorGlobalValues.DRIVE_MOTOR_GEAR_RATIO)
+
+      val steerSim = steerSims[i]
+      steerSim.setInputVoltage(steerState.motorVoltage)
+      steerSim.update(dt)
+      setRotor(steerState, steerSim, MotorGlobalValues.STEER_MOTOR_GEAR_RATIO)
+      // The CANcoder is on the wheel side of the steer gearing
+      canCoderState.setRawPosition(steerSim.angularPositionRotations)
+      canCoderState.setVelocity(Units.radiansToRotations(steerSim.angularVelocityRadPerSec))
+
+      speeds[i] =
+        Units.radiansToRotations(driveSim.angularVelocityRadPerSec) *
+          MotorGlobalValues.METERS_PER_REVOLUTION
+      angles[i] = steerSim.angularPositionRotations
+    }
+
+    moduleKinematics.toChassisSpeeds(speeds, angles, chassisSpeeds)
+    val yawRate = Units.radiansToDegrees(chassisSpeeds[2])
+    yawDegrees += yawRate * dt
+
+    val gyroState = gyro.pigeon.simState
+    gyroState.setSupplyVoltage(batteryVoltage)
+    gyroState.setRawYaw(yawDegrees)
+    gyroState.setAngularVelocityZ(yawRate)
+  }
+
+  /**
+   * Writes the position and velocity of a simulated mechanism to the rotor of its motor.
+   *
+   * @param state The sim state of the motor.
+   * @param sim The simulated mechanism, on the output side of the gearing.
+   * @param gearRatio The rotor rotations per mechanism rotation.
+   */
+  private fun setRotor(state: TalonFXSimState, sim: DCMotorSim, gearRatio: Double) {
+    state.setRawRotorPosition(sim.angularPositionRotations * gearRatio)
+    state.setRotorVelocity(Units.radiansToRotations(sim.angularVelocityRadPerSec) * gearRatio)
+  }
+
+  /**
+   * Gets the sim state orientation matching a motor inversion.
+   *
+   * @param inverted The inversion the motor is configured with.
+   * @return The orientation of its sim state.
+   */
+  private fun toOrientation(inverted: InvertedValue): ChassisReference {
+    return if (inverted == InvertedValue.Clockwise_Positive) {
+      ChassisReference.Clockwise_Positive
+    } else {
+      ChassisReference.CounterClockwise_Positive
+    }
+  }
+}
@@ -1,38 +1,63 @@
 package frc.robot.subsystems
 
-import com.ctre.phoenix6.hardware.Pigeon2
+import com.ctre.phoenix6.BaseStatusSignal
 import com.pathplanner.lib.auto.AutoBuilder
-import edu.wpi.first.math.estimator.SwerveDrivePoseEstimator
 import edu.wpi.first.math.geometry.Pose2d
 import edu.wpi.first.math.geometry.Rotation2d
 import edu.wpi.first.math.kinematics.ChassisSpeeds
-import edu.wpi.first.math.kinematics.SwerveDriveKinematics
 import edu.wpi.first.math.kinematics.SwerveModulePosition
 import edu.wpi.first.math.kinematics.SwerveModuleState
+import edu.wpi.first.math.util.Units
+import edu.wpi.first.networktables.BooleanPublisher
+import edu.wpi.first.networktables.DoubleArrayPublisher
+import edu.wpi.first.networktables.DoublePublisher
+import edu.wpi.first.networktables.RawPublisher
 import edu.wpi.first.wpilibj.DriverStation
 import edu.wpi.first.wpilibj.DriverStation.Alliance
+import edu.wpi.first.wpilibj.Timer
 import edu.wpi.first.wpilibj.smartdashboard.Field2d
 import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard
-import edu.wpi.first.wpilibj2.command.SubsystemBase
+import frc.robot.utils.DriveLog
 import frc.robot.utils.GlobalsValues.MotorGlobalValues
 import frc.robot.utils.GlobalsValues.SwerveGlobalValues
 import frc.robot.utils.GlobalsValues.SwerveGlobalValues.BasePIDGlobal.pathFollower
-import frc.robot.utils.GlobalsValues.SwerveGlobalValues.kinematics
+import frc.robot.utils.GlobalsValues.SwerveGlobalValues.moduleKinematics
+import frc.robot.utils.StatusSignals
+import frc.robot.utils.SwervePoseEstimator
+import frc.robot.utils.Telemetry
+import frc.robot.utils.VisionFusion
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
 import java.util.Arrays
 import java.util.function.BooleanSupplier
 import java.util.function.Consumer
 import java.util.function.Supplier
-
-/** The [SwerveSubsystem] class includes all the motors to drive the robot. */
-class SwerveSubsystem(photonvision: PhotonVision?) : SubsystemBase() {
-  /** Pose estimator for the swerve drive. */
-  private val poseEstimator: SwerveDrivePoseEstimator? = null // TODO: Set the pose estimator
-
-  /** Field representation for the robot. */
-  private val field: Field2d?
-
-  /** Pigeon2 IMU for orientation. */
-  private val pidgey: Pigeon2
+import kotlin.math.cos
+import kotlin.math.sin
+
+/**
+ * The [SwerveSubsystem] class includes all the motors to drive the robot.
+ *
+ * @param photonvision The vision subsystem, or null to drive on odometry alone.
+ * @param driveLog Records the swerve stack to the data log, or null to record nothing.
+ * @param io The modules, gyro and odometry source to drive with, the real hardware by default.
+ */
+class SwerveSubsystem(
+  photonvision: PhotonVision?,
+  private val driveLog: DriveLog? = null,
+  io: SwerveIO = SwerveIO.real(),
+) : ProfiledSubsystem() {
+  /** Pose estimator for the swerve drive, fusing odometry with vision. */
+  private val poseEstimator: SwervePoseEstimator
+
+  /** Field representation for the robot, whose robot pose is published by [publishTelemetry]. */
+  private val field: Field2d
+
+  /** Gyro for orientation, the Pigeon2 IMU on the robot. */
+  private val gyro: GyroIO
+
+  /** Heading of the robot, filled once per loop from the gyro. */
+  private val gyroInputs = GyroInputs()
 
   /** Array of swerve module states. */
   private val states: Array<SwerveModuleState?>
@@ -40,6 +65,9 @@ class SwerveSubsystem(photonvision: PhotonVision?) : SubsystemBase() {
   /** Array of swerve modules. */
   private val modules: Array<SwerveModule>
 
+  /** Inputs of every module, read once per loop and shared with the odometry source. */
+  private val moduleInputs: Array<ModuleInputs>
+
   /** Photonvision instance for vision processing. */
   private val photonvision: PhotonVision?
 
@@ -49,41 +77,115 @@ class SwerveSubsystem(photonvision: PhotonVision?) : SubsystemBase() {
   /** Flag to determine if the robot should invert its controls. */
   private val shouldInvert = false
 
+  /** Every module signal plus the gyro signals, refreshed together once per loop. */
+  private val allSignals: Array<BaseStatusSignal>
+
+  /** Number of yaw values read from the cache since the last refresh. */
+  private var yawReads = 0
+
+  /** Module speeds and angles in rotations, reused by the drive path every loop. */
+  private val moduleSpeeds: DoubleArray
+  private val moduleAngles: DoubleArray
+
+  /** Measured module speeds and angles in rotations, reused for the auto speeds. */
+  private val measuredSpeeds: DoubleArray
+  private val measuredAngles: DoubleArray
+  private val measuredChassisSpeeds: DoubleArray
+
+  /** Source of odometry samples, the thread sampling the module and gyro signals on the robot. */
+  private val odometry: OdometrySource
+
+  /** Physics of the simulated devices, null on the robot. */
+  private val physics: SwerveSim? = io.physics
+
+  /** FPGA time of the last physics step, NaN before the first. */
+  private var lastSimulationTime = Double.NaN
+
+  /** Odometry sample and module distances, reused when draining the odometry thread. */
+  private val odometrySample: OdometrySample
+  private val odometryDistances: DoubleArray
+
+  /** Fused vision measurement, reused when draining PhotonVision. */
+  private val visionMeasurement = DoubleArray(VisionFusion.MEASUREMENT_SIZE)
+
+  /** Telemetry publishers, registered once so publishing never looks up a key. */
+  private val signalReadsSavedPublisher: DoublePublisher =
+    Telemetry.number("Swerve/Signal reads saved")
+  private val moduleSignalAgePublisher: DoublePublisher =
+    Telemetry.number("Swerve/Module signal age ms")
+  private val gyroSignalAgePublisher: DoublePublisher =
+    Telemetry.number("Swerve/Gyro signal age ms")
+  private val odometrySignalAgePublisher: DoublePublisher =
+    Telemetry.number("Swerve/Odometry signal age ms")
+  private val visionUsedPublisher: BooleanPublisher = Telemetry.boolean("Swerve/Vision used")
+  private val forwardSpeedPublisher: DoublePublisher = Telemetry.number("Forward speed")
+  private val leftSpeedPublisher: DoublePublisher = Telemetry.number("Left speed")
+  private val posePublisher: RawPublisher = Telemetry.rawStruct("Swerve/Pose", Pose2d.struct)
+  private val measuredStatesPublisher: RawPublisher =
+    Telemetry.rawStruct("Swerve/Measured states", SwerveModuleState.struct, true)
+  private val desiredStatesPublisher: RawPublisher =
+    Telemetry.rawStruct("Swerve/Desired states", SwerveModuleState.struct, true)
+
+  /** The robot of the [field] widget, x and y in meters and the heading in degrees. */
+  private val fieldRobotPublisher: DoubleArrayPublisher = Telemetry.numberArray("Field/Robot")
+  private val fieldRobotPose = DoubleArray(3)
+
+  /** Estimated pose, x and y in meters and the heading in radians, filled once per loop. */
+  private val poseEstimate = DoubleArray(3)
+
+  /** Struct bytes of the pose and module states, written in place before they are published. */
+  private val poseBuffer: ByteBuffer = structBuffer(Pose2d.struct.size)
+  private val measuredStatesBuffer: ByteBuffer
+  private val desiredStatesBuffer: ByteBuffer
+
+  /** Optimized module setpoints and the last commanded robot relative speeds, for the log. */
+  private val desiredSpeeds: DoubleArray
+  private val desiredAngles: DoubleArray
+  private val commandedChassisSpeeds = DoubleArray(3)
+
   /** Creates a new DriveTrain. */
   init {
-    modules =
-      arrayOf<SwerveModule>(
-        SwerveModule(
-          MotorGlobalValues.FRONT_LEFT_DRIVE_ID,
-          MotorGlobalValues.FRONT_LEFT_STEER_ID,
-          MotorGlobalValues.FRONT_LEFT_CAN_CODER_ID,
-          SwerveGlobalValues.CANCODER_VALUE9,
-        ),
-        SwerveModule(
-          MotorGlobalValues.FRONT_RIGHT_DRIVE_ID,
-          MotorGlobalValues.FRONT_RIGHT_STEER_ID,
-          MotorGlobalValues.FRONT_RIGHT_CAN_CODER_ID,
-          SwerveGlobalValues.CANCODER_VALUE10,
-        ),
-        SwerveModule(
-          MotorGlobalValues.BACK_LEFT_DRIVE_ID,
-          MotorGlobalValues.BACK_LEFT_STEER_ID,
-          MotorGlobalValues.BACK_LEFT_CAN_CODER_ID,
-          SwerveGlobalValues.CANCODER_VALUE11,
-        ),
-        SwerveModule(
-          MotorGlobalValues.BACK_RIGHT_DRIVE_ID,
-          MotorGlobalValues.BACK_RIGHT_STEER_ID,
-          MotorGlobalValues.BACK_RIGHT_CAN_CODER_ID,
-          SwerveGlobalValues.CANCODER_VALUE12,
-        ),
+    val canCoderIds =
+      intArrayOf(
+        MotorGlobalValues.FRONT_LEFT_CAN_CODER_ID,
+        MotorGlobalValues.FRONT_RIGHT_CAN_CODER_ID,
+        MotorGlobalValues.BACK_LEFT_CAN_CODER_ID,
+        MotorGlobalValues.BACK_RIGHT_CAN_CODER_ID,
       )
+    modules = Array(io.modules.size) { SwerveModule(io.modules[it], canCoderIds[it]) }
+    moduleInputs = Array(modules.size) { modules[it].inputs }
 
     field = Field2d()
 
-    pidgey = Pigeon2(MotorGlobalValues.PIDGEY_ID)
-    pidgey.reset()
+    gyro = io.gyro
     states = arrayOfNulls<SwerveModuleState>(4)
+
+    moduleSpeeds = DoubleArray(modules.size)
+    moduleAngles = DoubleArray(modules.size)
+    measuredSpeeds = DoubleArray(modules.size)
+    measuredAngles = DoubleArray(modules.size)
+    measuredChassisSpeeds = DoubleArray(3)
+    measuredStatesBuffer = structBuffer(SwerveModuleState.struct.size * modules.size)
+    desiredStatesBuffer = structBuffer(SwerveModuleState.struct.size * modules.size)
+    desiredSpeeds = DoubleArray(modules.size)
+    desiredAngles = DoubleArray(modules.size)
+
+    allSignals =
+      (modules.flatMap { it.getSignals().asList() } + gyro.getSignals()).toTypedArray()
+
+    poseEstimator =
+      SwervePoseEstimator(
+        moduleKinematics,
+        SwerveGlobalValues.POSE_HISTORY_SECONDS,
+        SwerveGlobalValues.ODOMETRY_FREQUENCY,
+      )
+    odometrySample = OdometrySample(modules.size)
+    odometryDistances = DoubleArray(modules.size)
+    updateInputs(Timer.getFPGATimestamp())
+    resetPose(0.0, 0.0, 0.0)
+    SmartDashboard.putData("Field", field)
+    odometry = io.odometry
+    odometry.start(moduleInputs, gyroInputs)
     this.photonvision = photonvision
 
     AutoBuilder.configureHolonomic(
@@ -111,6 +213,153 @@ class SwerveSubsystem(photonvision: PhotonVision?) : SubsystemBase() {
     )
   }
 
+  /**
+   * This method is called periodically by the scheduler. It reads the module and gyro inputs,
+   * feeds every odometry sample taken since the last loop into the pose estimator and then adds
+   * the latest vision estimate at the time its frame was captured.
+   */
+  override fun profiledPeriodic() {
+    val now = Timer.getFPGATimestamp()
+    updateInputs(now)
+
+    var signalReads = yawReads
+    for (module in modules) {
+      signalReads += module.takeSignalReads()
+    }
+    yawReads = 0
+    signalReadsSavedPublisher.set(maxOf(signalReads - 1, 0).toDouble())
+
+    // Show how far the latency compensation is projecting each reading
+    var moduleSignalAge = 0.0
+    for (module in modules) {
+      moduleSignalAge = maxOf(moduleSignalAge, module.getSignalAge())
+    }
+    moduleSignalAgePublisher.set(moduleSignalAge * 1000.0)
+    gyroSignalAgePublisher.set(gyroInputs.signalAge * 1000.0)
+    odometrySignalAgePublisher.set(odometry.signalAge * 1000.0)
+
+    while (odometry.poll(odometrySample)) {
+      for (i in odometryDistances.indices) {
+        odometryDistances[i] = toMeters(odometrySample.drivePositions[i])
+      }
+      val yaw = Units.degreesToRadians(odometrySample.yawDegrees)
+      poseEstimator.updateWithTime(
+        odometrySample.timestamp,
+        yaw,
+        odometryDistances,
+        odometrySample.steerPositions,
+      )
+      driveLog?.logOdometry(
+        odometrySample.timestamp,
+        odometrySample.yawDegrees,
+        odometrySample.drivePositions,
+        odometrySample.steerPositions,
+      )
+    }
+
+    if (photonvision != null) {
+      addVisionMeasurements(photonvision, now)
+    }
+
+    poseEstimator.getEstimate(poseEstimate)
+    publishTelemetry(now)
+  }
+
+  /**
+   * This method is called periodically by the scheduler in simulation, after [periodic]. It
+   * steps the physics of the simulated devices by the time since the last call.
+   */
+  override fun simulationPeriodic() {
+    val sim = physics ?: return
+    val now = Timer.getFPGATimestamp()
+    if (!lastSimulationTime.isNaN() && now > lastSimulationTime) {
+      sim.update(now - lastSimulationTime)
+    }
+    lastSimulationTime = now
+  }
+
+  /**
+   * Refreshes every module and gyro signal in one call, instead of one call per read, reads them
+   * into the module and gyro inputs and records the inputs for replay.
+   *
+   * @param now The FPGA time of this loop in seconds.
+   * @return void
+   */
+  private fun updateInputs(now: Double) {
+    if (allSignals.isNotEmpty()) {
+      StatusSignals.refreshAll(allSignals)
+    }
+    for (module in modules) {
+      module.updateInputs()
+    }
+    gyro.updateInputs(gyroInputs)
+    driveLog?.logInputs(now, gyroInputs, moduleInputs)
+  }
+
+  /**
+   * Publishes the estimated pose and the measured and desired module states as structs, and
+   * records them with the commanded and measured chassis speeds to the data log. The structs are
+   * written from the primitive values in place, so publishing them does not allocate.
+   *
+   * @param now The FPGA time of this loop in seconds.
+   * @return void
+   */
+  private fun publishTelemetry(now: Double) {
+    for (i in modules.indices) {
+      val module = modules[i]
+      measuredSpeeds[i] = module.getSpeed()
+      measuredAngles[i] = module.getAngleRotations()
+      desiredSpeeds[i] = module.desiredSpeed
+      desiredAngles[i] = module.desiredAngle
+    }
+
+    // Pose2d struct: translation x and y in meters, then the rotation in radians
+    for (i in poseEstimate.indices) {
+      poseBuffer.putDouble(i * Double.SIZE_BYTES, poseEstimate[i])
+    }
+    posePublisher.set(poseBuffer)
+    putModuleStates(measuredStatesBuffer, measuredSpeeds, measuredAngles)
+    measuredStatesPublisher.set(measuredStatesBuffer)
+    putModuleStates(desiredStatesBuffer, desiredSpeeds, desiredAngles)
+    desiredStatesPublisher.set(desiredStatesBuffer)
+
+    fieldRobotPose[0] = poseEstimate[0]
+    fieldRobotPose[1] = poseEstimate[1]
+    fieldRobotPose[2] = Units.radiansToDegrees(poseEstimate[2])
+    fieldRobotPublisher.set(fieldRobotPose)
+
+    val log = driveLog ?: return
+    moduleKinematics.toChassisSpeeds(measuredSpeeds, measuredAngles, measuredChassisSpeeds)
+    log.logModuleStates(now, measuredSpeeds, measuredAngles, desiredSpeeds, desiredAngles)
+    log.logChassisSpeeds(now, commandedChassisSpeeds, measuredChassisSpeeds)
+    log.logPose(now, poseEstimate[0], poseEstimate[1], poseEstimate[2])
+  }
+
+  /**
+   * Adds every new fused PhotonVision measurement to the pose estimator, each with the standard
+   * deviations of the cameras that produced it.
+   *
+   * @param photonvision The PhotonVision subsystem to read the measurements from.
+   * @param now The FPGA time of this loop in seconds, also the time the pose is logged at.
+   * @return void
+   */
+  private fun addVisionMeasurements(photonvision: PhotonVision, now: Double) {
+    while (photonvision.pollVisionMeasurement(visionMeasurement, now)) {
+      val used =
+        poseEstimator.addVisionMeasurement(
+          visionMeasurement[0],
+          visionMeasurement[1],
+          visionMeasurement[2],
+          visionMeasurement[3],
+          visionMeasurement[4],
+          visionMeasurement[4],
+          visionMeasurement[5],
+        )
+      visionUsedPublisher.set(used)
+      driveLog?.logVision(visionMeasurement, used)
+    }
+  }
+
   /**
    * Sets the desired module states.
    *
@@ -123,6 +372,19 @@ class SwerveSubsystem(photonvision: PhotonVision?) : SubsystemBase() {
     }
   }
 
+  /**
+   * Sets the desired module states from primitive arrays, without allocating.
+   *
+   * @param speeds The wheel speeds in meters per second.
+   * @param angles The wheel angles in rotations.
+   * @return void
+   */
+  fun setModuleStates(speeds: DoubleArray, angles: DoubleArray) {
+    for (i in modules.indices) {
+      modules[i].setState(speeds[i], angles[i])
+    }
+  }
+
   /**
    * Gets the module states.
    *
@@ -151,27 +413,43 @@ class SwerveSubsystem(photonvision: PhotonVision?) : SubsystemBase() {
     turnSpeed: Double,
     isFieldOriented: Boolean,
   ) {
-    var turnSpeed = turnSpeed
-
-    SmartDashboard.putNumber("Forward speed", forwardSpeed)
-    SmartDashboard.putNumber("Left speed", leftSpeed)
-
-    turnSpeed = turnSpeed * MotorGlobalValues.TURN_CONSTANT
-
-    var speeds = if (isFieldOriented) {
-      ChassisSpeeds.fromFieldRelativeSpeeds(
-        forwardSpeed,
-        leftSpeed,
-        turnSpeed,
-        getPidgeyRotation(),
+    forwardSpeedPublisher.set(forwardSpeed)
+    leftSpeedPublisher.set(leftSpeed)
+
+    val rotationSpeed = turnSpeed * MotorGlobalValues.TURN_CONSTANT
+
+    if (isFieldOriented) {
+      // Same as ChassisSpeeds.fromFieldRelativeSpeeds, rotate the speeds into the robot frame
+      val heading = Units.degreesToRadians(getYawDegrees())
+      val cos = cos(heading)
+      val sin = sin(heading)
+      toModuleStates(
+        forwardSpeed * cos + leftSpeed * sin,
+        -forwardSpeed * sin + leftSpeed * cos,
+        rotationSpeed,
       )
     } else {
-      ChassisSpeeds(forwardSpeed, leftSpeed, turnSpeed)
+      toModuleStates(forwardSpeed, leftSpeed, rotationSpeed)
     }
 
-    val states = kinematics.toSwerveModuleStates(speeds)
-    SwerveDriveKinematics.desaturateWheelSpeeds(states, MotorGlobalValues.MAX_SPEED)
-    setModuleStates(states)
+    moduleKinematics.desaturateWheelSpeeds(moduleSpeeds, MotorGlobalValues.MAX_SPEED)
+    setModuleStates(moduleSpeeds, moduleAngles)
+  }
+
+  /**
+   * Converts robot relative speeds into the module speeds and angles, keeping the speeds as the
+   * commanded chassis speeds for the log.
+   *
+   * @param vx The forward speed in meters per second.
+   * @param vy The left speed in meters per second.
+   * @param omega The angular speed in radians per second.
+   * @return void
+   */
+  private fun toModuleStates(vx: Double, vy: Double, omega: Double) {
+    commandedChassisSpeeds[0] = vx
+    commandedChassisSpeeds[1] = vy
+    commandedChassisSpeeds[2] = omega
+    moduleKinematics.toSwerveModuleStates(vx, vy, omega, moduleSpeeds, moduleAngles)
   }
 
   /**
@@ -180,7 +458,7 @@ class SwerveSubsystem(photonvision: PhotonVision?) : SubsystemBase() {
    * @return Rotation2d
    */
   fun getPidgeyRotation(): Rotation2d? {
-    return pidgey.rotation2d
+    return Rotation2d.fromDegrees(getYawDegrees())
   }
 
   /**
@@ -189,7 +467,18 @@ class SwerveSubsystem(photonvision: PhotonVision?) : SubsystemBase() {
    * @return double
    */
   fun getHeading(): Double {
-    return pidgey.angle
+    // Same as Pigeon2.getAngle, clockwise positive
+    return -getYawDegrees()
+  }
+
+  /**
+   * Gets the pidgey yaw read this loop, projected forward by its age.
+   *
+   * @return double
+   */
+  private fun getYawDegrees(): Double {
+    yawReads++
+    return gyroInputs.yawDegrees
   }
 
   /**
@@ -197,8 +486,8 @@ class SwerveSubsystem(photonvision: PhotonVision?) : SubsystemBase() {
    *
    * @return Pose2d
    */
-  fun getPose(): Pose2d? {
-    return poseEstimator!!.estimatedPosition
+  fun getPose(): Pose2d {
+    return poseEstimator.getEstimatedPosition()
   }
 
   /**
@@ -207,11 +496,7 @@ class SwerveSubsystem(photonvision: PhotonVision?) : SubsystemBase() {
    * @return void
    */
   fun zeroPose() {
-    poseEstimator!!.resetPosition(
-      Rotation2d.fromDegrees(getHeading()),
-      getModulePositions(),
-      Pose2d(0.0, 0.0, Rotation2d.fromDegrees(0.0)),
-    )
+    resetPose(0.0, 0.0, 0.0)
   }
 
   /**
@@ -221,7 +506,27 @@ class SwerveSubsystem(photonvision: PhotonVision?) : SubsystemBase() {
    * @return void
    */
   fun newPose(pose: Pose2d?) {
-    poseEstimator!!.resetPosition(pidgey.rotation2d, getModulePositions(), pose)
+    if (pose == null) {
+      return
+    }
+    resetPose(pose.x, pose.y, pose.rotation.radians)
+  }
+
+  /**
+   * Resets the pose estimator to a pose, using the current module distances and gyro angle.
+   *
+   * @param x The x position in meters.
+   * @param y The y position in meters.
+   * @param theta The heading in radians.
+   * @return void
+   */
+  private fun resetPose(x: Double, y: Double, theta: Double) {
+    for (i in modules.indices) {
+      odometryDistances[i] = modules[i].getPosition().distanceMeters
+    }
+    val gyro = Units.degreesToRadians(getYawDegrees())
+    poseEstimator.resetPosition(gyro, odometryDistances, x, y, theta)
+    driveLog?.logReset(Timer.getFPGATimestamp(), gyro, odometryDistances, x, y, theta)
   }
 
   /**
@@ -230,8 +535,16 @@ class SwerveSubsystem(photonvision: PhotonVision?) : SubsystemBase() {
    * @return void
    */
   fun getAutoSpeeds(): ChassisSpeeds? {
-    val speeds = kinematics.toChassisSpeeds(*getModuleStates())
-    return speeds
+    for (i in modules.indices) {
+      measuredSpeeds[i] = modules[i].getSpeed()
+      measuredAngles[i] = modules[i].getAngleRotations()
+    }
+    moduleKinematics.toChassisSpeeds(measuredSpeeds, measuredAngles, measuredChassisSpeeds)
+    return ChassisSpeeds(
+      measuredChassisSpeeds[0],
+      measuredChassisSpeeds[1],
+      measuredChassisSpeeds[2],
+    )
   }
 
   // TODO: Look at this code later
@@ -241,7 +554,7 @@ class SwerveSubsystem(photonvision: PhotonVision?) : SubsystemBase() {
    * @return Rotation2d
    */
   fun getRotationPidggy(): Rotation2d {
-    rot = -pidgey.rotation2d.degrees
+    rot = -getYawDegrees()
     return Rotation2d.fromDegrees(rot)
   }
 
@@ -252,10 +565,17 @@ class SwerveSubsystem(photonvision: PhotonVision?) : SubsystemBase() {
    * @return void
    */
   fun chassisSpeedsDrive(chassisSpeeds: ChassisSpeeds) {
-    val speeds = ChassisSpeeds.fromRobotRelativeSpeeds(chassisSpeeds, getRotationPidggy())
-    val states = kinematics.toSwerveModuleStates(speeds)
-    SwerveDriveKinematics.desaturateWheelSpeeds(states, MotorGlobalValues.MAX_SPEED)
-    setModuleStates(states)
+    // Same as ChassisSpeeds.fromRobotRelativeSpeeds(chassisSpeeds, getRotationPidggy())
+    val angle = getRotationPidggy().radians
+    val cos = cos(angle)
+    val sin = sin(angle)
+    toModuleStates(
+      chassisSpeeds.vxMetersPerSecond * cos - chassisSpeeds.vyMetersPerSecond * sin,
+      chassisSpeeds.vxMetersPerSecond * sin + chassisSpeeds.vyMetersPerSecond * cos,
+      chassisSpeeds.omegaRadiansPerSecond,
+    )
+    moduleKinematics.desaturateWheelSpeeds(moduleSpeeds, MotorGlobalValues.MAX_SPEED)
+    setModuleStates(moduleSpeeds, moduleAngles)
   }
 
   /**
@@ -292,4 +612,44 @@ class SwerveSubsystem(photonvision: PhotonVision?) : SubsystemBase() {
 
     return positions
   }
+
+  companion object {
+    /**
+     * Writes module states into the bytes of a SwerveModuleState struct array: for every module
+     * the speed in meters per second, then the angle in radians. The position of the buffer is
+     * left at 0, so the whole array is published.
+     *
+     * @param buffer The struct array buffer, one SwerveModuleState struct per module.
+     * @param speeds The module speeds in meters per second.
+     * @param angles The module angles in rotations.
+     */
+    private fun putModuleStates(buffer: ByteBuffer, speeds: DoubleArray, angles: DoubleArray) {
+      val size = SwerveModuleState.struct.size
+      for (i in speeds.indices) {
+        buffer.putDouble(i * size, speeds[i])
+        buffer.putDouble(i * size + Double.SIZE_BYTES, Units.rotationsToRadians(angles[i]))
+      }
+    }
+
+    /**
+     * Creates the buffer of a raw struct signal, little endian as the struct format requires.
+     *
+     * @param size The size of the struct, or of the whole struct array, in bytes.
+     * @return The buffer.
+     */
+    private fun structBuffer(size: Int): ByteBuffer {
+      return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN)
+    }
+
+    /**
+     * Converts a drive motor position into the distance the wheel has travelled.
+     *
+     * @param rotations The drive motor position in rotations.
+     * @return double
+     */
+    fun toMeters(rotations: Double): Double {
+      return rotations /
+        (MotorGlobalValues.DRIVE_MOTOR_GEAR_RATIO / MotorGlobalValues.METERS_PER_REVOLUTION)
+    }
+  }
 }
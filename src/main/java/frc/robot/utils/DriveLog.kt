@@ -0,0 +1,510 @@
+package frc.robot.utils
+
+import edu.wpi.first.math.geometry.Pose2d
+import edu.wpi.first.math.geometry.Rotation2d
+import edu.wpi.first.math.kinematics.ChassisSpeeds
+import edu.wpi.first.math.kinematics.SwerveModuleState
+import edu.wpi.first.util.datalog.BooleanLogEntry
+import edu.wpi.first.util.datalog.DataLog
+import edu.wpi.first.util.datalog.DoubleArrayLogEntry
+import edu.wpi.first.util.datalog.DoubleLogEntry
+import edu.wpi.first.util.datalog.StructArrayLogEntry
+import edu.wpi.first.util.datalog.StructLogEntry
+import frc.robot.subsystems.CameraSnapshot
+import frc.robot.subsystems.GyroInputs
+import frc.robot.subsystems.ModuleInputs
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.locks.LockSupport
+import kotlin.math.min
+
+/**
+ * Records the swerve stack into a WPILib [DataLog] from a background thread.
+ *
+ * The robot loop only copies primitives into a fixed-size ring buffer with one writer and one
+ * reader. It never allocates, encodes, or waits on the log. The writer thread drains the buffer,
+ * builds the WPILib geometry objects and appends them as struct-encoded entries, so the struct
+ * encoding and the log's own disk thread never touch the control loop. If the writer falls behind
+ * and the buffer fills up, new records are dropped and counted instead of blocking the loop.
+ *
+ * Timestamps are FPGA seconds, the same clock the log uses. Everything the drive and vision
+ * subsystems read, the module and gyro inputs, the odometry samples and the camera frames, and
+ * the pose resets are also recorded as exact doubles under Replay/, so both subsystems can be
+ * replayed from the log, see [frc.robot.replay.DriveReplay].
+ *
+ * @param log The log to write to, usually DataLogManager.getLog().
+ * @param moduleCount The number of swerve modules.
+ */
+class DriveLog(log: DataLog, private val moduleCount: Int) : Runnable {
+  private val thread = Thread(this, "Drive log")
+
+  // Ring buffer, one type, timestamp and payload per record
+  private val payloadSize =
+    maxOf(
+      moduleCount * 4,
+      moduleCount + RESET_SIZE,
+      VISION_SIZE,
+      INPUTS_SIZE + moduleCount * INPUTS_MODULE_SIZE,
+      FRAME_SIZE + MAX_FRAME_TAGS * FRAME_TAG_SIZE,
+    )
+  private val types = IntArray(CAPACITY)
+  private val timestamps = DoubleArray(CAPACITY)
+  private val payloads = DoubleArray(CAPACITY * payloadSize)
+
+  /** Number of records written, only advanced by the robot loop. */
+  private val writeIndex = AtomicLong()
+
+  /** Number of records appended to the log, only advanced by the writer thread. */
+  private val readIndex = AtomicLong()
+
+  @Volatile private var running = false
+
+  /** Number of records dropped because the buffer was full. */
+  @Volatile
+  var overflows = 0L
+    private set
+
+  // Log entries and the objects they are built from, only used by the writer thread
+  private val measuredStatesEntry =
+    StructArrayLogEntry.create(log, "Drive/Measured states", SwerveModuleState.struct)
+  private val desiredStatesEntry =
+    StructArrayLogEntry.create(log, "Drive/Desired states", SwerveModuleState.struct)
+  private val commandedSpeedsEntry =
+    StructLogEntry.create(log, "Drive/Commanded speeds", ChassisSpeeds.struct)
+  private val measuredSpeedsEntry =
+    StructLogEntry.create(log, "Drive/Measured speeds", ChassisSpeeds.struct)
+  private val gyroEntry = DoubleLogEntry(log, "Drive/Gyro yaw rad")
+  private val poseEntry = StructLogEntry.create(log, POSE_ENTRY, Pose2d.struct)
+  private val visionPoseEntry = StructLogEntry.create(log, "Vision/Pose", Pose2d.struct)
+  private val visionStdDevsEntry = DoubleArrayLogEntry(log, "Vision/Std devs")
+  private val visionUsedEntry = BooleanLogEntry(log, "Vision/Used")
+  private val odometryEntry = DoubleArrayLogEntry(log, ODOMETRY_ENTRY)
+  private val inputsEntry = DoubleArrayLogEntry(log, INPUTS_ENTRY)
+  private val cameraFrameEntry = DoubleArrayLogEntry(log, CAMERA_FRAME_ENTRY)
+  private val resetEntry = DoubleArrayLogEntry(log, RESET_ENTRY)
+  private val odometryValues = DoubleArray(2 + 2 * moduleCount)
+  private val inputsValues = DoubleArray(1 + INPUTS_SIZE + moduleCount * INPUTS_MODULE_SIZE)
+  private val cameraFrameValues =
+    Array(MAX_FRAME_TAGS + 1) { DoubleArray(1 + FRAME_SIZE + it * FRAME_TAG_SIZE) }
+  private val resetValues = DoubleArray(RESET_SIZE + moduleCount)
+  private val measuredStates = Array(moduleCount) { SwerveModuleState() }
+  private val desiredStates = Array(moduleCount) { SwerveModuleState() }
+  private val visionStdDevs = DoubleArray(2)
+
+  init {
+    thread.isDaemon = true
+  }
+
+  /** Starts writing. */
+  fun start() {
+    running = true
+    thread.start()
+  }
+
+  /** Stops writing once the buffer is drained, and waits until it is. */
+  fun stop() {
+    running = false
+    if (thread.isAlive) {
+      thread.join()
+    }
+  }
+
+  /**
+   * Records the measured and desired state of every module.
+   *
+   * @param timestamp The time of the states in FPGA seconds.
+   * @param speeds The measured wheel speeds in meters per second.
+   * @param angles The measured wheel angles in rotations.
+   * @param desiredSpeeds The desired wheel speeds in meters per second.
+   * @param desiredAngles The desired wheel angles in rotations.
+   */
+  fun logModuleStates(
+    timestamp: Double,
+    speeds: DoubleArray,
+    angles: DoubleArray,
+    desiredSpeeds: DoubleArray,
+    desiredAngles: DoubleArray,
+  ) {
+    val offset = claim(MODULE_STATES, timestamp)
+    if (offset < 0) {
+      return
+    }
+    for (i in 0 until moduleCount) {
+      payloads[offset + i] = speeds[i]
+      payloads[offset + moduleCount + i] = angles[i]
+      payloads[offset + 2 * moduleCount + i] = desiredSpeeds[i]
+      payloads[offset + 3 * moduleCount + i] = desiredAngles[i]
+    }
+    publish()
+  }
+
+  /**
+   * Records the commanded and measured robot relative chassis speeds.
+   *
+   * @param timestamp The time of the speeds in FPGA seconds.
+   * @param commanded The commanded x, y and angular speed.
+   * @param measured The measured x, y and angular speed.
+   */
+  fun logChassisSpeeds(timestamp: Double, commanded: DoubleArray, measured: DoubleArray) {
+    val offset = claim(CHASSIS_SPEEDS, timestamp)
+    if (offset < 0) {
+      return
+    }
+    for (i in 0 until 3) {
+      payloads[offset + i] = commanded[i]
+      payloads[offset + 3 + i] = measured[i]
+    }
+    publish()
+  }
+
+  /**
+   * Records the estimated pose.
+   *
+   * @param timestamp The time of the estimate in FPGA seconds.
+   * @param x The x position in meters.
+   * @param y The y position in meters.
+   * @param theta The heading in radians.
+   */
+  fun logPose(timestamp: Double, x: Double, y: Double, theta: Double) {
+    val offset = claim(POSE, timestamp)
+    if (offset < 0) {
+      return
+    }
+    payloads[offset] = x
+    payloads[offset + 1] = y
+    payloads[offset + 2] = theta
+    publish()
+  }
+
+  /**
+   * Records a vision measurement and whether the pose estimator used it.
+   *
+   * @param measurement The measurement, see [VisionFusion.poll]. Its timestamp is used.
+   * @param used Whether the pose estimator used it.
+   */
+  fun logVision(measurement: DoubleArray, used: Boolean) {
+    val offset = claim(VISION, measurement[3])
+    if (offset < 0) {
+      return
+    }
+    payloads[offset] = measurement[0]
+    payloads[offset + 1] = measurement[1]
+    payloads[offset + 2] = measurement[2]
+    payloads[offset + 3] = measurement[4]
+    payloads[offset + 4] = measurement[5]
+    payloads[offset + 5] = if (used) 1.0 else 0.0
+    publish()
+  }
+
+  /**
+   * Records an odometry sample fed to the pose estimator, which also logs the gyro heading.
+   *
+   * @param timestamp The time of the sample in FPGA seconds.
+   * @param yawDegrees The gyro yaw in degrees.
+   * @param drivePositions The drive rotor positions in rotations.
+   * @param steerPositions The steer positions in rotations.
+   */
+  fun logOdometry(
+    timestamp: Double,
+    yawDegrees: Double,
+    drivePositions: DoubleArray,
+    steerPositions: DoubleArray,
+  ) {
+    val offset = claim(ODOMETRY, timestamp)
+    if (offset < 0) {
+      return
+    }
+    payloads[offset] = yawDegrees
+    for (i in 0 until moduleCount) {
+      payloads[offset + 1 + i] = drivePositions[i]
+      payloads[offset + 1 + moduleCount + i] = steerPositions[i]
+    }
+    publish()
+  }
+
+  /**
+   * Records the inputs the drive read from its gyro and modules this loop.
+   *
+   * @param timestamp The time of the loop in FPGA seconds.
+   * @param gyro The gyro inputs.
+   * @param modules The inputs of every module, in kinematics order.
+   */
+  fun logInputs(timestamp: Double, gyro: GyroInputs, modules: Array<out ModuleInputs>) {
+    val offset = claim(INPUTS, timestamp)
+    if (offset < 0) {
+      return
+    }
+    payloads[offset] = gyro.yawDegrees
+    payloads[offset + 1] = gyro.yawRate
+    payloads[offset + 2] = gyro.signalAge
+    for (i in 0 until moduleCount) {
+      val module = offset + INPUTS_SIZE + i * INPUTS_MODULE_SIZE
+      payloads[module] = modules[i].drivePosition
+      payloads[module + 1] = modules[i].driveVelocity
+      payloads[module + 2] = modules[i].steerPosition
+      payloads[module + 3] = modules[i].steerVelocity
+      payloads[module + 4] = modules[i].signalAge
+    }
+    publish()
+  }
+
+  /**
+   * Records a new frame of one camera, as the vision subsystem received it. Only the first
+   * [MAX_FRAME_TAGS] tags of the frame are recorded.
+   *
+   * @param camera The index of the camera.
+   * @param receivedTime The time the robot loop received the frame in FPGA seconds.
+   * @param snapshot The frame.
+   */
+  fun logCameraFrame(camera: Int, receivedTime: Double, snapshot: CameraSnapshot) {
+    val offset = claim(CAMERA_FRAME, receivedTime)
+    if (offset < 0) {
+      return
+    }
+    payloads[offset] = camera.toDouble()
+    payloads[offset + 1] = snapshot.sequence.toDouble()
+    payloads[offset + 2] = snapshot.timestamp
+    val estimate = snapshot.estimatedPose
+    if (estimate != null) {
+      val pose = estimate.estimatedPose
+      val rotation = pose.rotation.quaternion
+      payloads[offset + 3] = estimate.timestampSeconds
+      payloads[offset + 4] = pose.x
+      payloads[offset + 5] = pose.y
+      payloads[offset + 6] = pose.z
+      payloads[offset + 7] = rotation.w
+      payloads[offset + 8] = rotation.x
+      payloads[offset + 9] = rotation.y
+      payloads[offset + 10] = rotation.z
+    } else {
+      payloads.fill(Double.NaN, offset + 3, offset + 11)
+    }
+    payloads[offset + 11] = snapshot.translationStdDev
+    payloads[offset + 12] = snapshot.rotationStdDev
+    val tagCount = min(snapshot.tagCount, MAX_FRAME_TAGS)
+    payloads[offset + 13] = tagCount.toDouble()
+    for (i in 0 until tagCount) {
+      val tag = offset + FRAME_SIZE + i * FRAME_TAG_SIZE
+      payloads[tag] = snapshot.tagIds[i].toDouble()
+      payloads[tag + 1] = snapshot.yaws[i]
+      payloads[tag + 2] = snapshot.pitches[i]
+      payloads[tag + 3] = snapshot.ambiguities[i]
+      payloads[tag + 4] = snapshot.ranges[i]
+    }
+    publish()
+  }
+
+  /**
+   * Records a reset of the pose estimator.
+   *
+   * @param timestamp The time of the reset in FPGA seconds.
+   * @param gyroRadians The gyro angle in radians.
+   * @param distances The distance each module has driven in meters.
+   * @param x The x position in meters.
+   * @param y The y position in meters.
+   * @param theta The heading in radians.
+   */
+  fun logReset(
+    timestamp: Double,
+    gyroRadians: Double,
+    distances: DoubleArray,
+    x: Double,
+    y: Double,
+    theta: Double,
+  ) {
+    val offset = claim(RESET, timestamp)
+    if (offset < 0) {
+      return
+    }
+    payloads[offset] = gyroRadians
+    payloads[offset + 1] = x
+    payloads[offset + 2] = y
+    payloads[offset + 3] = theta
+    for (i in 0 until moduleCount) {
+      payloads[offset + RESET_SIZE + i] = distances[i]
+    }
+    publish()
+  }
+
+  /** Runs the writer loop. */
+  override fun run() {
+    while (running || readIndex.get() != writeIndex.get()) {
+      if (!drain()) {
+        LockSupport.parkNanos(WRITER_PERIOD_NANOS)
+      }
+    }
+  }
+
+  /**
+   * Starts a record in the next free slot.
+   *
+   * @param type The type of the record.
+   * @param timestamp The time of the record in FPGA seconds.
+   * @return The offset of the payload of the slot, or -1 if the buffer is full.
+   */
+  private fun claim(type: Int, timestamp: Double): Int {
+    val index = writeIndex.get()
+    if (index - readIndex.get() >= CAPACITY) {
+      overflows++
+      return -1
+    }
+    val slot = (index and MASK).toInt()
+    types[slot] = type
+    timestamps[slot] = timestamp
+    return slot * payloadSize
+  }
+
+  /** Hands the claimed record to the writer, only after it has been fully written. */
+  private fun publish() {
+    writeIndex.lazySet(writeIndex.get() + 1)
+  }
+
+  /**
+   * Appends every record in the buffer to the log.
+   *
+   * @return Whether there was any record.
+   */
+  private fun drain(): Boolean {
+    val written = writeIndex.get()
+    var index = readIndex.get()
+    if (index == written) {
+      return false
+    }
+    while (index < written) {
+      val slot = (index and MASK).toInt()
+      // Rounded, as truncating would put an FPGA time like 0.29 s a microsecond early
+      append(slot, Math.round(timestamps[slot] * 1e6))
+      // Free the slot only after it has been read
+      readIndex.lazySet(++index)
+    }
+    return true
+  }
+
+  /**
+   * Appends one record to the log.
+   *
+   * @param slot The slot of the record.
+   * @param timestamp The time of the record in microseconds.
+   */
+  private fun append(slot: Int, timestamp: Long) {
+    val offset = slot * payloadSize
+    when (types[slot]) {
+      MODULE_STATES -> {
+        for (i in 0 until moduleCount) {
+          measuredStates[i].speedMetersPerSecond = payloads[offset + i]
+          measuredStates[i].angle = Rotation2d.fromRotations(payloads[offset + moduleCount + i])
+          desiredStates[i].speedMetersPerSecond = payloads[offset + 2 * moduleCount + i]
+          desiredStates[i].angle =
+            Rotation2d.fromRotations(payloads[offset + 3 * moduleCount + i])
+        }
+        measuredStatesEntry.append(measuredStates, timestamp)
+        desiredStatesEntry.append(desiredStates, timestamp)
+      }
+      CHASSIS_SPEEDS -> {
+        commandedSpeedsEntry.append(
+          ChassisSpeeds(payloads[offset], payloads[offset + 1], payloads[offset + 2]),
+          timestamp,
+        )
+        measuredSpeedsEntry.append(
+          ChassisSpeeds(payloads[offset + 3], payloads[offset + 4], payloads[offset + 5]),
+          timestamp,
+        )
+      }
+      POSE -> poseEntry.append(toPose(offset), timestamp)
+      VISION -> {
+        visionPoseEntry.append(toPose(offset), timestamp)
+        visionStdDevs[0] = payloads[offset + 3]
+        visionStdDevs[1] = payloads[offset + 4]
+        visionStdDevsEntry.append(visionStdDevs, timestamp)
+        visionUsedEntry.append(payloads[offset + 5] != 0.0, timestamp)
+      }
+      ODOMETRY -> {
+        odometryValues[0] = timestamps[slot]
+        System.arraycopy(payloads, offset, odometryValues, 1, odometryValues.size - 1)
+        odometryEntry.append(odometryValues, timestamp)
+        gyroEntry.append(Math.toRadians(payloads[offset]), timestamp)
+      }
+      INPUTS -> {
+        inputsValues[0] = timestamps[slot]
+        System.arraycopy(payloads, offset, inputsValues, 1, inputsValues.size - 1)
+        inputsEntry.append(inputsValues, timestamp)
+      }
+      CAMERA_FRAME -> {
+        val values = cameraFrameValues[payloads[offset + FRAME_SIZE - 1].toInt()]
+        values[0] = timestamps[slot]
+        System.arraycopy(payloads, offset, values, 1, values.size - 1)
+        cameraFrameEntry.append(values, timestamp)
+      }
+      RESET -> {
+        resetValues[0] = timestamps[slot]
+        System.arraycopy(payloads, offset, resetValues, 1, resetValues.size - 1)
+        resetEntry.append(resetValues, timestamp)
+      }
+    }
+  }
+
+  /**
+   * Builds a pose from the x, y and heading at the start of a payload.
+   *
+   * @param offset The offset of the payload.
+   * @return The pose.
+   */
+  private fun toPose(offset: Int): Pose2d {
+    return Pose2d(payloads[offset], payloads[offset + 1], Rotation2d(payloads[offset + 2]))
+  }
+
+  companion object {
+    /** Number of records the ring buffer holds, must be a power of two. */
+    const val CAPACITY = 512
+    private const val MASK = (CAPACITY - 1).toLong()
+
+    /** How long the writer sleeps when the buffer is empty. */
+    private const val WRITER_PERIOD_NANOS = 10_000_000L
+
+    // Record types
+    private const val MODULE_STATES = 0
+    private const val CHASSIS_SPEEDS = 1
+    private const val POSE = 2
+    private const val VISION = 3
+    private const val ODOMETRY = 4
+    private const val INPUTS = 5
+    private const val CAMERA_FRAME = 6
+    private const val RESET = 7
+
+    /** Payload size of a vision record: x, y, heading, two standard deviations and used. */
+    private const val VISION_SIZE = 6
+
+    /** Payload size of a reset record before the module distances: gyro, x, y and heading. */
+    private const val RESET_SIZE = 4
+
+    /** Replay entry of the odometry samples: time, yaw in degrees, drive and steer positions. */
+    const val ODOMETRY_ENTRY = "Replay/Odometry"
+
+    /**
+     * Replay entry of the inputs of every loop: time, gyro yaw in degrees, yaw rate and signal
+     * age, then for every module the drive position, drive velocity, steer position, steer
+     * velocity and signal age.
+     */
+    const val INPUTS_ENTRY = "Replay/Inputs"
+    private const val INPUTS_SIZE = 3
+    private const val INPUTS_MODULE_SIZE = 5
+
+    /**
+     * Replay entry of the camera frames: the time the robot loop received the frame, camera,
+     * sequence number, frame time, estimate time, estimated x, y and z, rotation quaternion w, x,
+     * y and z, std devs and tag count, then for every tag its ID, yaw, pitch, ambiguity and range.
+     * The estimate values are NaN for a frame without an estimate.
+     */
+    const val CAMERA_FRAME_ENTRY = "Replay/Camera frames"
+    private const val FRAME_SIZE = 14
+    private const val FRAME_TAG_SIZE = 5
+
+    /** Most tags recorded per camera frame, which bounds the size of the ring buffer. */
+    const val MAX_FRAME_TAGS = 8
+
+    /** Replay entry of the pose resets: time, gyro, x, y, heading and module distances. */
+    const val RESET_ENTRY = "Replay/Reset"
+
+    /** Entry of the estimated pose, logged once at the end of every robot loop. */
+    const val POSE_ENTRY = "Drive/Pose"
+  }
+}
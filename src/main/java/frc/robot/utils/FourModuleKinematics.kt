@@ -0,0 +1,187 @@
+package frc.robot.utils
+
+import edu.wpi.first.math.geometry.Translation2d
+import edu.wpi.first.math.util.Units
+import kotlin.math.abs
+import kotlin.math.atan2
+import kotlin.math.cos
+import kotlin.math.hypot
+import kotlin.math.sin
+
+/**
+ * Swerve kinematics for a chassis with exactly four modules, working on primitive arrays.
+ *
+ * Gives the same results as [edu.wpi.first.math.kinematics.SwerveDriveKinematics], but the module
+ * offsets are baked into precomputed coefficients when it is constructed, so no matrices or state
+ * objects are created per call. Modules are always ordered front left, front right, back left,
+ * back right, and module angles are in rotations to match the Phoenix 6 signals.
+ *
+ * @param frontLeft The location of the front left module relative to the robot center.
+ * @param frontRight The location of the front right module relative to the robot center.
+ * @param backLeft The location of the back left module relative to the robot center.
+ * @param backRight The location of the back right module relative to the robot center.
+ */
+class FourModuleKinematics(
+  frontLeft: Translation2d,
+  frontRight: Translation2d,
+  backLeft: Translation2d,
+  backRight: Translation2d,
+) {
+  private val moduleX = doubleArrayOf(frontLeft.x, frontRight.x, backLeft.x, backRight.x)
+  private val moduleY = doubleArrayOf(frontLeft.y, frontRight.y, backLeft.y, backRight.y)
+
+  /**
+   * Rows of the pseudo-inverse of the inverse kinematics matrix. Entry 2i multiplies the x
+   * velocity of module i and entry 2i + 1 its y velocity.
+   */
+  private val forwardVx = DoubleArray(2 * MODULE_COUNT)
+  private val forwardVy = DoubleArray(2 * MODULE_COUNT)
+  private val forwardOmega = DoubleArray(2 * MODULE_COUNT)
+
+  init {
+    // The inverse kinematics matrix A has the rows [1, 0, -y] and [0, 1, x] for every module, so
+    // the pseudo-inverse (A^T A)^-1 A^T only depends on these sums
+    var sumX = 0.0
+    var sumY = 0.0
+    var sumSquares = 0.0
+    for (i in 0 until MODULE_COUNT) {
+      sumX += moduleX[i]
+      sumY += moduleY[i]
+      sumSquares += moduleX[i] * moduleX[i] + moduleY[i] * moduleY[i]
+    }
+
+    val n = MODULE_COUNT.toDouble()
+    val normal =
+      arrayOf(
+        doubleArrayOf(n, 0.0, -sumY),
+        doubleArrayOf(0.0, n, sumX),
+        doubleArrayOf(-sumY, sumX, sumSquares),
+      )
+    val inverse = invert3x3(normal)
+
+    val rows = arrayOf(forwardVx, forwardVy, forwardOmega)
+    for (row in rows.indices) {
+      for (i in 0 until MODULE_COUNT) {
+        rows[row][2 * i] = inverse[row][0] - inverse[row][2] * moduleY[i]
+        rows[row][2 * i + 1] = inverse[row][1] + inverse[row][2] * moduleX[i]
+      }
+    }
+  }
+
+  /**
+   * Converts robot relative chassis speeds into module speeds and angles.
+   *
+   * When all chassis speeds are zero the speeds are set to zero and the angles are left untouched,
+   * so the wheels keep pointing where they were, like the WPILib kinematics.
+   *
+   * @param vxMetersPerSecond The forward speed of the robot.
+   * @param vyMetersPerSecond The leftward speed of the robot.
+   * @param omegaRadiansPerSecond The counterclockwise rotation speed of the robot.
+   * @param speeds Filled with the module speeds in meters per second.
+   * @param angles Filled with the module angles in rotations.
+   */
+  fun toSwerveModuleStates(
+    vxMetersPerSecond: Double,
+    vyMetersPerSecond: Double,
+    omegaRadiansPerSecond: Double,
+    speeds: DoubleArray,
+    angles: DoubleArray,
+  ) {
+    if (vxMetersPerSecond == 0.0 && vyMetersPerSecond == 0.0 && omegaRadiansPerSecond == 0.0) {
+      speeds.fill(0.0, 0, MODULE_COUNT)
+      return
+    }
+
+    for (i in 0 until MODULE_COUNT) {
+      val vx = vxMetersPerSecond - omegaRadiansPerSecond * moduleY[i]
+      val vy = vyMetersPerSecond + omegaRadiansPerSecond * moduleX[i]
+      speeds[i] = hypot(vx, vy)
+      angles[i] = Units.radiansToRotations(atan2(vy, vx))
+    }
+  }
+
+  /**
+   * Scales the module speeds down so none of them go faster than the max speed, keeping the ratio
+   * between them.
+   *
+   * @param speeds The module speeds in meters per second, changed in place.
+   * @param maxSpeedMetersPerSecond The fastest any module can go.
+   */
+  fun desaturateWheelSpeeds(speeds: DoubleArray, maxSpeedMetersPerSecond: Double) {
+    var fastest = 0.0
+    for (i in 0 until MODULE_COUNT) {
+      fastest = maxOf(fastest, abs(speeds[i]))
+    }
+
+    if (fastest > maxSpeedMetersPerSecond) {
+      val scale = maxSpeedMetersPerSecond / fastest
+      for (i in 0 until MODULE_COUNT) {
+        speeds[i] *= scale
+      }
+    }
+  }
+
+  /**
+   * Converts module speeds and angles into robot relative chassis speeds, using the least squares
+   * solution like the WPILib kinematics.
+   *
+   * @param speeds The module speeds in meters per second.
+   * @param angles The module angles in rotations.
+   * @param chassisSpeeds Filled with the forward speed, leftward speed and rotation speed.
+   */
+  fun toChassisSpeeds(speeds: DoubleArray, angles: DoubleArray, chassisSpeeds: DoubleArray) {
+    var vx = 0.0
+    var vy = 0.0
+    var omega = 0.0
+    for (i in 0 until MODULE_COUNT) {
+      val angle = Units.rotationsToRadians(angles[i])
+      val moduleVx = speeds[i] * cos(angle)
+      val moduleVy = speeds[i] * sin(angle)
+
+      vx += forwardVx[2 * i] * moduleVx + forwardVx[2 * i + 1] * moduleVy
+      vy += forwardVy[2 * i] * moduleVx + forwardVy[2 * i + 1] * moduleVy
+      omega += forwardOmega[2 * i] * moduleVx + forwardOmega[2 * i + 1] * moduleVy
+    }
+
+    chassisSpeeds[0] = vx
+    chassisSpeeds[1] = vy
+    chassisSpeeds[2] = omega
+  }
+
+  companion object {
+    /** Number of modules this kinematics works with. */
+    const val MODULE_COUNT = 4
+
+    /**
+     * Inverts a 3x3 matrix using its cofactors.
+     *
+     * @param m The matrix to invert.
+     * @return The inverse of the matrix.
+     */
+    private fun invert3x3(m: Array<DoubleArray>): Array<DoubleArray> {
+      val c00 = m[1][1] * m[2][2] - m[1][2] * m[2][1]
+      val c01 = m[1][2] * m[2][0] - m[1][0] * m[2][2]
+      val c02 = m[1][0] * m[2][1] - m[1][1] * m[2][0]
+      val determinant = m[0][0] * c00 + m[0][1] * c01 + m[0][2] * c02
+      require(determinant != 0.0) { "Module locations must not all be in a line" }
+
+      return arrayOf(
+        doubleArrayOf(
+          c00 / determinant,
+          (m[0][2] * m[2][1] - m[0][1] * m[2][2]) / determinant,
+          (m[0][1] * m[1][2] - m[0][2] * m[1][1]) / determinant,
+        ),
+        doubleArrayOf(
+          c01 / determinant,
+          (m[0][0] * m[2][2] - m[0][2] * m[2][0]) / determinant,
+          (m[0][2] * m[1][0] - m[0][0] * m[1][2]) / determinant,
+        ),
+        doubleArrayOf(
+          c02 / determinant,
+          (m[0][1] * m[2][0] - m[0][0] * m[2][1]) / determinant,
+          (m[0][0] * m[1][1] - m[0][1] * m[1][0]) / determinant,
+        ),
+      )
+    }
+  }
+}
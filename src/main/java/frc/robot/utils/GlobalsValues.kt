@@ -6,8 +6,12 @@ import com.ctre.phoenix6.signals.InvertedValue
 import com.pathplanner.lib.util.HolonomicPathFollowerConfig
 import com.pathplanner.lib.util.PIDConstants
 import com.pathplanner.lib.util.ReplanningConfig
+import edu.wpi.first.math.geometry.Rotation3d
+import edu.wpi.first.math.geometry.Transform3d
 import edu.wpi.first.math.geometry.Translation2d
+import edu.wpi.first.math.geometry.Translation3d
 import edu.wpi.first.math.kinematics.SwerveDriveKinematics
+import edu.wpi.first.math.util.Units
 
 /**
  * Singleton object containing global values for the robot.
@@ -86,9 +90,21 @@ object GlobalsValues {
     val BACK_RIGHT: Translation2d = Translation2d(-0.3048, 0.3048)
     val kinematics: SwerveDriveKinematics =
       SwerveDriveKinematics(FRONT_LEFT, FRONT_RIGHT, BACK_LEFT, BACK_RIGHT)
+    val moduleKinematics: FourModuleKinematics =
+      FourModuleKinematics(FRONT_LEFT, FRONT_RIGHT, BACK_LEFT, BACK_RIGHT)
+    const val MODULE_COUNT = 4
 
     const val STATE_SPEED_THRESHOLD = 0.05
 
+    // How often the odometry thread samples the drive, steer and gyro signals, in Hz
+    const val ODOMETRY_FREQUENCY = 250.0
+
+    // How far back vision measurements can be fused into the pose estimate, in seconds
+    const val POSE_HISTORY_SECONDS = 1.5
+
+    // Whether the swerve stack is recorded to the on-robot data log
+    const val DRIVE_LOG_ENABLED: Boolean = true
+
     // The values of the can coders when the wheels are straight according to Mr. Wright
     const val CANCODER_VALUE9 = -0.419189
     const val CANCODER_VALUE10 = -0.825928 - 0.5
@@ -102,6 +118,7 @@ object GlobalsValues {
     // The deadband of the joystick to combat drift
     const val JOYSTICK_DEADBAND = 0.05
 
+    // Whether the drive fuses the vision estimates into its pose, see RobotContainer
     const val USING_VISION: Boolean = false
     const val FIELD_ORIENTATED: Boolean = false
 
@@ -160,6 +177,15 @@ object GlobalsValues {
     var hasTarget: Boolean = false
 
     var distance = 0.0
+
+    // Most assembled frames kept waiting when listening for frames
+    const val FRAME_QUEUE_CAPACITY = 16
+
+    // HTTP requests to the Limelights, timeouts in milliseconds
+    const val HTTP_THREADS = 1
+    const val HTTP_QUEUE_CAPACITY = 8
+    const val HTTP_CONNECT_TIMEOUT = 500
+    const val HTTP_READ_TIMEOUT = 2000
   }
 
   /**
@@ -173,9 +199,66 @@ object GlobalsValues {
     var tv = 0.0
     // Camera One
     const val CAMERA_ONE_HEIGHT = 0.61
-    const val CAMERA_ONE_ANGLE = 7.5 // up is positive
+    const val CAMERA_ONE_ANGLE = 7.5 // degrees, up is positive
     // Camera Two
     const val CAMERA_TWO_HEIGHT = 0.61
-    const val CAMERA_TWO_ANGLE = 7.5 // up is positive
+    const val CAMERA_TWO_ANGLE = 7.5 // degrees, up is positive
+
+    // Transformation from the robot to each camera, pitch is negative for a camera tilted up
+    val ROBOT_TO_CAMERA_ONE: Transform3d =
+      Transform3d(
+        Translation3d(0.5, 0.0, CAMERA_ONE_HEIGHT),
+        Rotation3d(0.0, -Units.degreesToRadians(CAMERA_ONE_ANGLE), 0.0),
+      ) // Cam mounted facing forward, half a meter forward of center
+    val ROBOT_TO_CAMERA_TWO: Transform3d =
+      Transform3d(
+        Translation3d(-0.5, 0.0, CAMERA_TWO_HEIGHT),
+        Rotation3d(0.0, -Units.degreesToRadians(CAMERA_TWO_ANGLE), Math.PI),
+      ) // Cam mounted facing backward, half a meter behind center | IMPORTANT TO MEASURE
+
+    // How often each camera thread checks for a new result, in seconds
+    const val POLL_PERIOD = 0.005
+
+    // Number of cameras PhotonVision processes
+    const val CAMERA_COUNT = 2
+
+    // Estimates from different cameras captured this close together are fused, in seconds
+    const val FUSION_WINDOW = 0.02
+
+    // A camera that sent an estimate this recently is waited for by the others, in seconds
+    const val FUSION_ACTIVE_TIME = 0.1
+
+    // Standard deviations of a single tag estimate at zero distance, in meters and radians
+    const val TRANSLATION_STD_DEV = 0.9
+    const val ROTATION_STD_DEV = 0.9
+
+    // The standard deviations grow by distance squared over this, in square meters
+    const val STD_DEV_DISTANCE_SCALE = 30.0
+
+    // Single tag estimates more ambiguous than this are thrown away
+    const val MAX_AMBIGUITY = 0.2
+  }
+
+  /**
+   * Object containing global values related to the loop profiler.
+   */
+  object ProfilerGlobalValues {
+    // Whether subsystems and commands are timed by the LoopProfiler
+    const val ENABLED: Boolean = false
+
+    // How often the top offenders are reported, in seconds
+    const val REPORT_PERIOD = 1.0
+
+    // How many of the slowest sections are reported
+    const val TOP_COUNT = 5
+  }
+
+  /**
+   * Object containing global values related to the physics simulation of the drive.
+   */
+  object SimulationGlobalValues {
+    // Moment of inertia of a wheel and of a module turning about its steer axis, in kg m^2
+    const val DRIVE_MOMENT_OF_INERTIA = 0.025
+    const val STEER_MOMENT_OF_INERTIA = 0.004
   }
 }
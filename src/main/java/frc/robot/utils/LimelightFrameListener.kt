@@ -0,0 +1,196 @@
+package frc.robot.utils
+
+import edu.wpi.first.networktables.NetworkTable
+import edu.wpi.first.networktables.NetworkTableEvent
+import edu.wpi.first.networktables.NetworkTableInstance
+import edu.wpi.first.networktables.PubSubOption
+import edu.wpi.first.networktables.Subscriber
+import java.util.EnumSet
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.function.Consumer
+import kotlin.math.abs
+
+/**
+ * Assembles the values a Limelight publishes for each frame into [LimelightFrame]s, as they
+ * arrive.
+ *
+ * Instead of polling the latest value of each entry once per loop, this listens to every value
+ * change of tx, botpose_wpiblue, tl, cl and json. Every change is delivered, even if the robot
+ * loop is slower than the camera. The Limelight publishes the values of one frame together, with
+ * NetworkTables timestamps at most a few microseconds apart, so values within
+ * [FRAME_TOLERANCE_MICROS] of the first value of a frame are grouped into it. A frame is finished
+ * as soon as each entry has changed, or else when a value from a later time or a second value of
+ * the same entry arrives, with the previous values of the entries that did not change.
+ * NetworkTables does not resend unchanged values, so those values still hold. Every value
+ * therefore ends up in exactly one frame.
+ *
+ * Frames are assembled on the NetworkTables listener thread and handed over through a bounded
+ * queue. When the consumer falls behind, the oldest frame is dropped and counted.
+ *
+ * @param table The NetworkTables table of the Limelight.
+ * @param capacity The most frames kept waiting for the consumer.
+ */
+class LimelightFrameListener(table: NetworkTable, capacity: Int) : AutoCloseable {
+  private val instance = table.instance
+  private val queue = ArrayBlockingQueue<LimelightFrame>(capacity)
+
+  private val subscribers: Array<Subscriber> =
+    arrayOf(
+      table.getDoubleTopic("tx").subscribe(0.0, *OPTIONS),
+      table.getDoubleArrayTopic("botpose_wpiblue").subscribe(DoubleArray(0), *OPTIONS),
+      table.getDoubleTopic("tl").subscribe(0.0, *OPTIONS),
+      table.getDoubleTopic("cl").subscribe(0.0, *OPTIONS),
+      table.getStringTopic("json").subscribe("", *OPTIONS),
+    )
+  private val listeners: IntArray
+
+  // Frame being assembled, only touched by the listener thread
+  private var changed = 0
+  private var frameTime = 0L
+  private var tx = 0.0
+  private var botpose = DoubleArray(0)
+  private var tl = 0.0
+  private var cl = 0.0
+  private var json = ""
+
+  /** Number of frames assembled. */
+  @Volatile
+  var assembledFrames = 0L
+    private set
+
+  /** Number of frames in which not every entry changed. */
+  @Volatile
+  var partialFrames = 0L
+    private set
+
+  /** Number of frames dropped because the consumer fell behind. */
+  @Volatile
+  var droppedFrames = 0L
+    private set
+
+  init {
+    listeners =
+      IntArray(subscribers.size) { index ->
+        instance.addListener(
+          subscribers[index],
+          EnumSet.of(NetworkTableEvent.Kind.kValueAll),
+          Consumer { event -> onValue(index, event) },
+        )
+      }
+  }
+
+  /**
+   * Takes the oldest complete frame. Never blocks.
+   *
+   * @return The oldest frame, or null if there is none.
+   */
+  fun poll(): LimelightFrame? {
+    return queue.poll()
+  }
+
+  /**
+   * Gets the number of frames waiting for the consumer.
+   *
+   * @return The number of frames in the queue.
+   */
+  fun size(): Int {
+    return queue.size
+  }
+
+  /** Stops listening and releases the subscribers. */
+  override fun close() {
+    for (listener in listeners) {
+      instance.removeListener(listener)
+    }
+    for (subscriber in subscribers) {
+      subscriber.close()
+    }
+  }
+
+  /**
+   * Adds one value change to the frame being assembled.
+   *
+   * @param index The index of the entry in [subscribers].
+   * @param event The value change.
+   */
+  private fun onValue(index: Int, event: NetworkTableEvent) {
+    val value = event.valueData?.value ?: return
+    val bit = 1 shl index
+
+    // A later time, or an entry changing twice, means the Limelight started its next frame
+    if (
+      changed != 0 &&
+        (abs(value.time - frameTime) > FRAME_TOLERANCE_MICROS || (changed and bit) != 0)
+    ) {
+      partialFrames++
+      finishFrame()
+    }
+    if (changed == 0) {
+      frameTime = value.time
+    }
+
+    when (index) {
+      TX -> tx = value.double
+      BOTPOSE -> botpose = value.doubleArray
+      TL -> tl = value.double
+      CL -> cl = value.double
+      JSON -> json = value.string
+    }
+    changed = changed or bit
+
+    if (changed == ALL_CHANGED) {
+      finishFrame()
+    }
+  }
+
+  /** Hands the frame being assembled to the consumer and starts the next one. */
+  private fun finishFrame() {
+    // NetworkTables time is in microseconds on the same clock as the FPGA timestamp
+    val frame = LimelightFrame(frameTime / 1e6 - (tl + cl) / 1000.0, tx, botpose, tl, cl, json)
+    while (!queue.offer(frame)) {
+      if (queue.poll() != null) {
+        droppedFrames++
+      }
+    }
+    assembledFrames++
+    changed = 0
+  }
+
+  companion object {
+    // Indexes of the entries in subscribers
+    private const val TX = 0
+    private const val BOTPOSE = 1
+    private const val TL = 2
+    private const val CL = 3
+    private const val JSON = 4
+    private const val ALL_CHANGED = (1 shl 5) - 1
+
+    /**
+     * How far apart the NetworkTables timestamps of one frame's values can be, in microseconds.
+     * Far shorter than the time between two Limelight frames.
+     */
+    const val FRAME_TOLERANCE_MICROS = 1000L
+
+    /** Deliver every value change, not just the latest one. */
+    private val OPTIONS = arrayOf(PubSubOption.sendAll(true), PubSubOption.keepDuplicates(true))
+  }
+}
+
+/**
+ * The values a Limelight published for one frame. The botpose array must not be changed.
+ *
+ * @param timestamp The time the frame was captured, in FPGA seconds.
+ * @param tx The horizontal offset to the target in degrees.
+ * @param botpose The robot pose in the blue alliance field frame.
+ * @param tl The pipeline latency in milliseconds.
+ * @param cl The capture latency in milliseconds.
+ * @param json The JSON results dump.
+ */
+class LimelightFrame(
+  val timestamp: Double,
+  val tx: Double,
+  val botpose: DoubleArray,
+  val tl: Double,
+  val cl: Double,
+  val json: String,
+)
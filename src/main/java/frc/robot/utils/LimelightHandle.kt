@@ -0,0 +1,224 @@
+package frc.robot.utils
+
+import edu.wpi.first.networktables.DoubleArrayPublisher
+import edu.wpi.first.networktables.DoubleArraySubscriber
+import edu.wpi.first.networktables.DoublePublisher
+import edu.wpi.first.networktables.DoubleSubscriber
+import edu.wpi.first.networktables.NetworkTable
+import edu.wpi.first.networktables.NetworkTableInstance
+import edu.wpi.first.networktables.StringSubscriber
+import frc.robot.utils.LimelightHelpers.LimelightResults
+
+/**
+ * Typed NetworkTables access to one Limelight.
+ *
+ * Every subscriber and publisher is created once when the handle is created, so reading a value
+ * is a field read and a native call instead of a table lookup and an entry lookup by name. The
+ * static [LimelightHelpers] API keeps one handle per Limelight and delegates to it.
+ *
+ * @param name The sanitized name of the Limelight, which is also its table name.
+ */
+class LimelightHandle(val name: String) {
+  /** The NetworkTables table of the Limelight. */
+  val table: NetworkTable = NetworkTableInstance.getDefault().getTable(name)
+
+  private val tx: DoubleSubscriber = table.getDoubleTopic("tx").subscribe(0.0)
+  private val ty: DoubleSubscriber = table.getDoubleTopic("ty").subscribe(0.0)
+  private val ta: DoubleSubscriber = table.getDoubleTopic("ta").subscribe(0.0)
+  private val tv: DoubleSubscriber = table.getDoubleTopic("tv").subscribe(0.0)
+  private val tl: DoubleSubscriber = table.getDoubleTopic("tl").subscribe(0.0)
+  private val cl: DoubleSubscriber = table.getDoubleTopic("cl").subscribe(0.0)
+  private val getpipe: DoubleSubscriber = table.getDoubleTopic("getpipe").subscribe(0.0)
+  private val tid: DoubleSubscriber = table.getDoubleTopic("tid").subscribe(0.0)
+  private val tclass: DoubleSubscriber = table.getDoubleTopic("tclass").subscribe(0.0)
+
+  private val botpose: DoubleArraySubscriber = subscribeArray("botpose")
+  private val botposeWpiRed: DoubleArraySubscriber = subscribeArray("botpose_wpired")
+  private val botposeWpiBlue: DoubleArraySubscriber = subscribeArray("botpose_wpiblue")
+  private val botposeTargetSpace: DoubleArraySubscriber = subscribeArray("botpose_targetspace")
+  private val cameraposeTargetSpace: DoubleArraySubscriber =
+    subscribeArray("camerapose_targetspace")
+  private val targetposeCameraSpace: DoubleArraySubscriber =
+    subscribeArray("targetpose_cameraspace")
+  private val targetposeRobotSpace: DoubleArraySubscriber = subscribeArray("targetpose_robotspace")
+  private val cameraposeRobotSpace: DoubleArraySubscriber = subscribeArray("camerapose_robotspace")
+  private val tc: DoubleArraySubscriber = subscribeArray("tc")
+  private val llpython: DoubleArraySubscriber = subscribeArray("llpython")
+
+  private val json: StringSubscriber = table.getStringTopic("json").subscribe("")
+
+  private val pipeline: DoublePublisher = table.getDoubleTopic("pipeline").publish()
+  private val ledMode: DoublePublisher = table.getDoubleTopic("ledMode").publish()
+  private val stream: DoublePublisher = table.getDoubleTopic("stream").publish()
+  private val camMode: DoublePublisher = table.getDoubleTopic("camMode").publish()
+  private val crop: DoubleArrayPublisher = table.getDoubleArrayTopic("crop").publish()
+  private val cameraposeRobotSpaceSet: DoubleArrayPublisher =
+    table.getDoubleArrayTopic("camerapose_robotspace_set").publish()
+  private val llrobot: DoubleArrayPublisher = table.getDoubleArrayTopic("llrobot").publish()
+
+  /** Parsed JSON results, filled in place by [getLatestResults] whenever the JSON changes. */
+  val results = LimelightResults()
+
+  private val jsonParser = LimelightJsonParser()
+  private var jsonLastChange = -1L
+
+  fun getTX(): Double = tx.get()
+
+  fun getTY(): Double = ty.get()
+
+  fun getTA(): Double = ta.get()
+
+  fun getTV(): Boolean = tv.get() == 1.0
+
+  fun getLatency_Pipeline(): Double = tl.get()
+
+  fun getLatency_Capture(): Double = cl.get()
+
+  fun getCurrentPipelineIndex(): Double = getpipe.get()
+
+  fun getFiducialID(): Double = tid.get()
+
+  fun getNeuralClassID(): Double = tclass.get()
+
+  fun getBotPose(): DoubleArray = botpose.get()
+
+  fun getBotPose_wpiRed(): DoubleArray = botposeWpiRed.get()
+
+  fun getBotPose_wpiBlue(): DoubleArray = botposeWpiBlue.get()
+
+  fun getBotPose_TargetSpace(): DoubleArray = botposeTargetSpace.get()
+
+  fun getCameraPose_TargetSpace(): DoubleArray = cameraposeTargetSpace.get()
+
+  fun getTargetPose_CameraSpace(): DoubleArray = targetposeCameraSpace.get()
+
+  fun getTargetPose_RobotSpace(): DoubleArray = targetposeRobotSpace.get()
+
+  fun getCameraPose_RobotSpace(): DoubleArray = cameraposeRobotSpace.get()
+
+  fun getTargetColor(): DoubleArray = tc.get()
+
+  fun getPythonScriptData(): DoubleArray = llpython.get()
+
+  fun getJSONDump(): String = json.get()
+
+  /*
+   * The pose getters below fill a caller-owned pose in place. They only read and decode the array
+   * when it changed since the pose was last filled, and return whether they did. Use one pose per
+   * entry, or every call after switching entries counts as a change.
+   */
+
+  fun getBotPose(pose: LimelightPose): Boolean = decodePose(botpose, pose)
+
+  fun getBotPose_wpiRed(pose: LimelightPose): Boolean = decodePose(botposeWpiRed, pose)
+
+  fun getBotPose_wpiBlue(pose: LimelightPose): Boolean = decodePose(botposeWpiBlue, pose)
+
+  fun getBotPose_TargetSpace(pose: LimelightPose): Boolean = decodePose(botposeTargetSpace, pose)
+
+  fun getCameraPose_TargetSpace(pose: LimelightPose): Boolean =
+    decodePose(cameraposeTargetSpace, pose)
+
+  fun getTargetPose_CameraSpace(pose: LimelightPose): Boolean =
+    decodePose(targetposeCameraSpace, pose)
+
+  fun getTargetPose_RobotSpace(pose: LimelightPose): Boolean =
+    decodePose(targetposeRobotSpace, pose)
+
+  fun getCameraPose_RobotSpace(pose: LimelightPose): Boolean =
+    decodePose(cameraposeRobotSpace, pose)
+
+  fun setPipelineIndex(pipelineIndex: Int) = pipeline.set(pipelineIndex.toDouble())
+
+  fun setLEDMode(mode: Double) = ledMode.set(mode)
+
+  fun setStreamMode(mode: Double) = stream.set(mode)
+
+  fun setCameraMode(mode: Double) = camMode.set(mode)
+
+  fun setCropWindow(window: DoubleArray) = crop.set(window)
+
+  fun setCameraPose_RobotSpace(pose: DoubleArray) = cameraposeRobotSpaceSet.set(pose)
+
+  fun setPythonScriptData(data: DoubleArray) = llrobot.set(data)
+
+  /**
+   * Gets the parsed JSON results dump. The JSON is only parsed when it changed since the last
+   * successful parse, and the same results object is filled in place every time. If the JSON is
+   * malformed, the results are marked invalid, since they may be partly overwritten, and the same
+   * JSON is parsed again on the next call.
+   *
+   * @return The latest results.
+   * @throws IllegalArgumentException If the JSON is malformed.
+   * @throws IndexOutOfBoundsException If the JSON ends early.
+   */
+  fun getLatestResults(): LimelightResults {
+    val change = json.lastChange
+    if (change == jsonLastChange) {
+      return results
+    }
+
+    val start = System.nanoTime()
+    try {
+      jsonParser.parse(json.get(), results)
+    } catch (e: RuntimeException) {
+      results.targetingResults.valid = false
+      throw e
+    } finally {
+      results.targetingResults.latency_jsonParse = (System.nanoTime() - start) * .000001
+    }
+    jsonLastChange = change
+    return results
+  }
+
+  /**
+   * Starts listening for the frames of the Limelight. Close the listener when done with it.
+   *
+   * @param capacity The most frames kept waiting for the consumer.
+   * @return The listener, assembling frames until it is closed.
+   */
+  fun listenForFrames(
+    capacity: Int = GlobalsValues.LimelightGlobalValues.FRAME_QUEUE_CAPACITY,
+  ): LimelightFrameListener {
+    return LimelightFrameListener(table, capacity)
+  }
+
+  /**
+   * Decodes a pose entry into a caller-owned pose if it changed since the pose was last filled.
+   * The array is read together with its timestamp, so the two always belong to the same frame.
+   *
+   * @param subscriber The pose entry.
+   * @param pose The pose to fill.
+   * @return Whether a new, well formed pose was decoded.
+   */
+  private fun decodePose(subscriber: DoubleArraySubscriber, pose: LimelightPose): Boolean {
+    val change = subscriber.lastChange
+    if (change == pose.lastChange) {
+      return false
+    }
+    pose.lastChange = change
+    if (change == 0L) {
+      // Nothing published yet
+      pose.valid = false
+      return false
+    }
+
+    val value = subscriber.getAtomic(EMPTY)
+    // NetworkTables time is in microseconds on the same clock as the FPGA timestamp
+    return pose.decode(value.value, value.timestamp / 1e6)
+  }
+
+  /**
+   * Subscribes to a double array entry of the Limelight.
+   *
+   * @param topic The name of the entry.
+   * @return The subscriber, returning an empty array when there is no value.
+   */
+  private fun subscribeArray(topic: String): DoubleArraySubscriber {
+    return table.getDoubleArrayTopic(topic).subscribe(EMPTY)
+  }
+
+  companion object {
+    private val EMPTY = DoubleArray(0)
+  }
+}
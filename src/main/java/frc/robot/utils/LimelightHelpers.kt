@@ -3,9 +3,6 @@ package frc.robot.utils
 
 import com.fasterxml.jackson.annotation.JsonFormat
 import com.fasterxml.jackson.annotation.JsonProperty
-import com.fasterxml.jackson.core.JsonProcessingException
-import com.fasterxml.jackson.databind.DeserializationFeature
-import com.fasterxml.jackson.databind.ObjectMapper
 import edu.wpi.first.math.geometry.Pose2d
 import edu.wpi.first.math.geometry.Pose3d
 import edu.wpi.first.math.geometry.Rotation2d
@@ -23,24 +20,22 @@ import frc.robot.utils.LimelightHelpers.LimelightTarget_Classifier
 import frc.robot.utils.LimelightHelpers.LimelightTarget_Detector
 import frc.robot.utils.LimelightHelpers.LimelightTarget_Fiducial
 import frc.robot.utils.LimelightHelpers.Results
-import java.io.IOException
-import java.net.HttpURLConnection
 import java.net.MalformedURLException
 import java.net.URL
+import java.util.concurrent.ConcurrentHashMap
 import java.util.concurrent.CompletableFuture
-import java.util.function.Supplier
 
 class LimelightHelpers {
   class LimelightTargetRetro {
-    @JsonProperty("t6c_ts") private val cameraPose_TargetSpace: DoubleArray
+    @JsonProperty("t6c_ts") @JvmField internal var cameraPose_TargetSpace: DoubleArray
 
-    @JsonProperty("t6r_fs") private val robotPose_FieldSpace: DoubleArray
+    @JsonProperty("t6r_fs") @JvmField internal var robotPose_FieldSpace: DoubleArray
 
-    @JsonProperty("t6r_ts") private val robotPose_TargetSpace: DoubleArray
+    @JsonProperty("t6r_ts") @JvmField internal var robotPose_TargetSpace: DoubleArray
 
-    @JsonProperty("t6t_cs") private val targetPose_CameraSpace: DoubleArray
+    @JsonProperty("t6t_cs") @JvmField internal var targetPose_CameraSpace: DoubleArray
 
-    @JsonProperty("t6t_rs") private val targetPose_RobotSpace: DoubleArray
+    @JsonProperty("t6t_rs") @JvmField internal var targetPose_RobotSpace: DoubleArray
 
     fun getCameraPose_TargetSpace(): Pose3d {
       return toPose3D(cameraPose_TargetSpace)
@@ -108,15 +103,15 @@ class LimelightHelpers {
 
     @JsonProperty("fam") var fiducialFamily: String? = null
 
-    @JsonProperty("t6c_ts") private val cameraPose_TargetSpace: DoubleArray
+    @JsonProperty("t6c_ts") @JvmField internal var cameraPose_TargetSpace: DoubleArray
 
-    @JsonProperty("t6r_fs") private val robotPose_FieldSpace: DoubleArray
+    @JsonProperty("t6r_fs") @JvmField internal var robotPose_FieldSpace: DoubleArray
 
-    @JsonProperty("t6r_ts") private val robotPose_TargetSpace: DoubleArray
+    @JsonProperty("t6r_ts") @JvmField internal var robotPose_TargetSpace: DoubleArray
 
-    @JsonProperty("t6t_cs") private val targetPose_CameraSpace: DoubleArray
+    @JsonProperty("t6t_cs") @JvmField internal var targetPose_CameraSpace: DoubleArray
 
-    @JsonProperty("t6t_rs") private val targetPose_RobotSpace: DoubleArray
+    @JsonProperty("t6t_rs") @JvmField internal var targetPose_RobotSpace: DoubleArray
 
     fun getCameraPose_TargetSpace(): Pose3d {
       return toPose3D(cameraPose_TargetSpace)
@@ -306,21 +301,45 @@ class LimelightHelpers {
   }
 
   companion object {
-    private var mapper: ObjectMapper? = null
+    private val handles = ConcurrentHashMap<String, LimelightHandle>()
 
     /** Print JSON Parse time to the console in milliseconds */
     var profileJSON: Boolean = false
 
     fun sanitizeName(name: String?): String {
-      if (name === "" || name == null) {
+      if (name.isNullOrEmpty()) {
         return "limelight"
       }
       return name
     }
 
+    /**
+     * Gets the handle of a Limelight, creating its subscribers the first time it is used.
+     *
+     * @param limelightName The name of the Limelight, "limelight" if null or empty.
+     * @return The handle of the Limelight.
+     */
+    fun getHandle(limelightName: String?): LimelightHandle {
+      return handles.computeIfAbsent(sanitizeName(limelightName)) { LimelightHandle(it) }
+    }
+
+    /**
+     * Starts listening for complete frames of a Limelight instead of polling its latest values.
+     *
+     * @param limelightName The name of the Limelight, "limelight" if null or empty.
+     * @return The listener, assembling frames until it is closed.
+     */
+    fun listenForFrames(limelightName: String?): LimelightFrameListener {
+      return getHandle(limelightName).listenForFrames()
+    }
+
+    private val badPose3d = ThrottledWarning("Bad LL 3D Pose Data!")
+    private val badPose2d = ThrottledWarning("Bad LL 2D Pose Data!")
+    private val badJson = ThrottledWarning("lljson error")
+
     private fun toPose3D(inData: DoubleArray): Pose3d {
       if (inData.size < 6) {
-        System.err.println("Bad LL 3D Pose Data!")
+        badPose3d.report()
         return Pose3d()
       }
       return Pose3d(
@@ -335,7 +354,7 @@ class LimelightHelpers {
 
     private fun toPose2D(inData: DoubleArray): Pose2d {
       if (inData.size < 6) {
-        System.err.println("Bad LL 2D Pose Data!")
+        badPose2d.report()
         return Pose2d()
       }
       val tran2d = Translation2d(inData[0], inData[1])
@@ -386,31 +405,31 @@ class LimelightHelpers {
     /////
     /////
     fun getTX(limelightName: String?): Double {
-      return getLimelightNTDouble(limelightName, "tx")
+      return getHandle(limelightName).getTX()
     }
 
     fun getTY(limelightName: String?): Double {
-      return getLimelightNTDouble(limelightName, "ty")
+      return getHandle(limelightName).getTY()
     }
 
     fun getTA(limelightName: String?): Double {
-      return getLimelightNTDouble(limelightName, "ta")
+      return getHandle(limelightName).getTA()
     }
 
     fun getLatency_Pipeline(limelightName: String?): Double {
-      return getLimelightNTDouble(limelightName, "tl")
+      return getHandle(limelightName).getLatency_Pipeline()
     }
 
     fun getLatency_Capture(limelightName: String?): Double {
-      return getLimelightNTDouble(limelightName, "cl")
+      return getHandle(limelightName).getLatency_Capture()
     }
 
     fun getCurrentPipelineIndex(limelightName: String?): Double {
-      return getLimelightNTDouble(limelightName, "getpipe")
+      return getHandle(limelightName).getCurrentPipelineIndex()
     }
 
     fun getJSONDump(limelightName: String?): String? {
-      return getLimelightNTString(limelightName, "json")
+      return getHandle(limelightName).getJSONDump()
     }
 
     /**
@@ -421,7 +440,7 @@ class LimelightHelpers {
      */
     @Deprecated("")
     fun getBotpose(limelightName: String?): DoubleArray {
-      return getLimelightNTDoubleArray(limelightName, "botpose")
+      return getHandle(limelightName).getBotPose()
     }
 
     /**
@@ -432,7 +451,7 @@ class LimelightHelpers {
      */
     @Deprecated("")
     fun getBotpose_wpiRed(limelightName: String?): DoubleArray {
-      return getLimelightNTDoubleArray(limelightName, "botpose_wpired")
+      return getHandle(limelightName).getBotPose_wpiRed()
     }
 
     /**
@@ -443,88 +462,88 @@ class LimelightHelpers {
      */
     @Deprecated("")
     fun getBotpose_wpiBlue(limelightName: String?): DoubleArray {
-      return getLimelightNTDoubleArray(limelightName, "botpose_wpiblue")
+      return getHandle(limelightName).getBotPose_wpiBlue()
     }
 
     fun getBotPose(limelightName: String?): DoubleArray {
-      return getLimelightNTDoubleArray(limelightName, "botpose")
+      return getHandle(limelightName).getBotPose()
     }
 
     fun getBotPose_wpiRed(limelightName: String?): DoubleArray {
-      return getLimelightNTDoubleArray(limelightName, "botpose_wpired")
+      return getHandle(limelightName).getBotPose_wpiRed()
     }
 
     fun getBotPose_wpiBlue(limelightName: String?): DoubleArray {
-      return getLimelightNTDoubleArray(limelightName, "botpose_wpiblue")
+      return getHandle(limelightName).getBotPose_wpiBlue()
     }
 
     fun getBotPose_TargetSpace(limelightName: String?): DoubleArray {
-      return getLimelightNTDoubleArray(limelightName, "botpose_targetspace")
+      return getHandle(limelightName).getBotPose_TargetSpace()
     }
 
     fun getCameraPose_TargetSpace(limelightName: String?): DoubleArray {
-      return getLimelightNTDoubleArray(limelightName, "camerapose_targetspace")
+      return getHandle(limelightName).getCameraPose_TargetSpace()
     }
 
     fun getTargetPose_CameraSpace(limelightName: String?): DoubleArray {
-      return getLimelightNTDoubleArray(limelightName, "targetpose_cameraspace")
+      return getHandle(limelightName).getTargetPose_CameraSpace()
     }
 
     fun getTargetPose_RobotSpace(limelightName: String?): DoubleArray {
-      return getLimelightNTDoubleArray(limelightName, "targetpose_robotspace")
+      return getHandle(limelightName).getTargetPose_RobotSpace()
     }
 
     fun getTargetColor(limelightName: String?): DoubleArray {
-      return getLimelightNTDoubleArray(limelightName, "tc")
+      return getHandle(limelightName).getTargetColor()
     }
 
     fun getFiducialID(limelightName: String?): Double {
-      return getLimelightNTDouble(limelightName, "tid")
+      return getHandle(limelightName).getFiducialID()
     }
 
     fun getNeuralClassID(limelightName: String?): Double {
-      return getLimelightNTDouble(limelightName, "tclass")
+      return getHandle(limelightName).getNeuralClassID()
     }
 
     /////
     /////
     fun getBotPose3d(limelightName: String?): Pose3d {
-      val poseArray = getLimelightNTDoubleArray(limelightName, "botpose")
+      val poseArray = getHandle(limelightName).getBotPose()
       return toPose3D(poseArray)
     }
 
     fun getBotPose3d_wpiRed(limelightName: String?): Pose3d {
-      val poseArray = getLimelightNTDoubleArray(limelightName, "botpose_wpired")
+      val poseArray = getHandle(limelightName).getBotPose_wpiRed()
       return toPose3D(poseArray)
     }
 
     fun getBotPose3d_wpiBlue(limelightName: String?): Pose3d {
-      val poseArray = getLimelightNTDoubleArray(limelightName, "botpose_wpiblue")
+      val poseArray = getHandle(limelightName).getBotPose_wpiBlue()
       return toPose3D(poseArray)
     }
 
     fun getBotPose3d_TargetSpace(limelightName: String?): Pose3d {
-      val poseArray = getLimelightNTDoubleArray(limelightName, "botpose_targetspace")
+      val poseArray = getHandle(limelightName).getBotPose_TargetSpace()
       return toPose3D(poseArray)
     }
 
     fun getCameraPose3d_TargetSpace(limelightName: String?): Pose3d {
-      val poseArray = getLimelightNTDoubleArray(limelightName, "camerapose_targetspace")
+      val poseArray = getHandle(limelightName).getCameraPose_TargetSpace()
       return toPose3D(poseArray)
     }
 
     fun getTargetPose3d_CameraSpace(limelightName: String?): Pose3d {
-      val poseArray = getLimelightNTDoubleArray(limelightName, "targetpose_cameraspace")
+      val poseArray = getHandle(limelightName).getTargetPose_CameraSpace()
       return toPose3D(poseArray)
     }
 
     fun getTargetPose3d_RobotSpace(limelightName: String?): Pose3d {
-      val poseArray = getLimelightNTDoubleArray(limelightName, "targetpose_robotspace")
+      val poseArray = getHandle(limelightName).getTargetPose_RobotSpace()
       return toPose3D(poseArray)
     }
 
     fun getCameraPose3d_RobotSpace(limelightName: String?): Pose3d {
-      val poseArray = getLimelightNTDoubleArray(limelightName, "camerapose_robotspace")
+      val poseArray = getHandle(limelightName).getCameraPose_RobotSpace()
       return toPose3D(poseArray)
     }
 
@@ -539,6 +558,18 @@ class LimelightHelpers {
       return toPose2D(result)
     }
 
+    /**
+     * Fills a caller-owned pose with the robot pose in the blue alliance field frame, without
+     * allocating when the pose has not changed. Prefer this over [getBotPose2d_wpiBlue] in loops.
+     *
+     * @param limelightName The name of the Limelight, "limelight" if null or empty.
+     * @param pose The pose to fill, use one per Limelight.
+     * @return Whether a new, well formed pose was decoded.
+     */
+    fun getBotPose_wpiBlue(limelightName: String?, pose: LimelightPose): Boolean {
+      return getHandle(limelightName).getBotPose_wpiBlue(pose)
+    }
+
     /**
      * Gets the Pose2d for easy use with Odometry vision pose estimator (addVisionMeasurement)
      *
@@ -550,6 +581,18 @@ class LimelightHelpers {
       return toPose2D(result)
     }
 
+    /**
+     * Fills a caller-owned pose with the robot pose in the red alliance field frame, without
+     * allocating when the pose has not changed. Prefer this over [getBotPose2d_wpiRed] in loops.
+     *
+     * @param limelightName The name of the Limelight, "limelight" if null or empty.
+     * @param pose The pose to fill, use one per Limelight.
+     * @return Whether a new, well formed pose was decoded.
+     */
+    fun getBotPose_wpiRed(limelightName: String?, pose: LimelightPose): Boolean {
+      return getHandle(limelightName).getBotPose_wpiRed(pose)
+    }
+
     /**
      * Gets the Pose2d for easy use with Odometry vision pose estimator (addVisionMeasurement)
      *
@@ -561,51 +604,63 @@ class LimelightHelpers {
       return toPose2D(result)
     }
 
+    /**
+     * Fills a caller-owned pose with the robot pose in the field frame, without allocating when
+     * the pose has not changed. Prefer this over [getBotPose2d] in loops.
+     *
+     * @param limelightName The name of the Limelight, "limelight" if null or empty.
+     * @param pose The pose to fill, use one per Limelight.
+     * @return Whether a new, well formed pose was decoded.
+     */
+    fun getBotPose(limelightName: String?, pose: LimelightPose): Boolean {
+      return getHandle(limelightName).getBotPose(pose)
+    }
+
     fun getTV(limelightName: String?): Boolean {
-      return 1.0 == getLimelightNTDouble(limelightName, "tv")
+      return getHandle(limelightName).getTV()
     }
 
     /////
     /////
     fun setPipelineIndex(limelightName: String?, pipelineIndex: Int) {
-      setLimelightNTDouble(limelightName, "pipeline", pipelineIndex.toDouble())
+      getHandle(limelightName).setPipelineIndex(pipelineIndex)
     }
 
     /** The LEDs will be controlled by Limelight pipeline settings, and not by robot code. */
     fun setLEDMode_PipelineControl(limelightName: String?) {
-      setLimelightNTDouble(limelightName, "ledMode", 0.0)
+      getHandle(limelightName).setLEDMode(0.0)
     }
 
     fun setLEDMode_ForceOff(limelightName: String?) {
-      setLimelightNTDouble(limelightName, "ledMode", 1.0)
+      getHandle(limelightName).setLEDMode(1.0)
     }
 
     fun setLEDMode_ForceBlink(limelightName: String?) {
-      setLimelightNTDouble(limelightName, "ledMode", 2.0)
+      getHandle(limelightName).setLEDMode(2.0)
     }
 
     fun setLEDMode_ForceOn(limelightName: String?) {
-      setLimelightNTDouble(limelightName, "ledMode", 3.0)
+      getHandle(limelightName).setLEDMode(3.0)
     }
 
     fun setStreamMode_Standard(limelightName: String?) {
-      setLimelightNTDouble(limelightName, "stream", 0.0)
+      getHandle(limelightName).setStreamMode(0.0)
     }
 
     fun setStreamMode_PiPMain(limelightName: String?) {
-      setLimelightNTDouble(limelightName, "stream", 1.0)
+      getHandle(limelightName).setStreamMode(1.0)
     }
 
     fun setStreamMode_PiPSecondary(limelightName: String?) {
-      setLimelightNTDouble(limelightName, "stream", 2.0)
+      getHandle(limelightName).setStreamMode(2.0)
     }
 
     fun setCameraMode_Processor(limelightName: String?) {
-      setLimelightNTDouble(limelightName, "camMode", 0.0)
+      getHandle(limelightName).setCameraMode(0.0)
     }
 
     fun setCameraMode_Driver(limelightName: String?) {
-      setLimelightNTDouble(limelightName, "camMode", 1.0)
+      getHandle(limelightName).setCameraMode(1.0)
     }
 
     /**
@@ -624,7 +679,7 @@ class LimelightHelpers {
       entries[1] = cropXMax
       entries[2] = cropYMin
       entries[3] = cropYMax
-      setLimelightNTDoubleArray(limelightName, "crop", entries)
+      getHandle(limelightName).setCropWindow(entries)
     }
 
     fun setCameraPose_RobotSpace(
@@ -643,75 +698,53 @@ class LimelightHelpers {
       entries[3] = roll
       entries[4] = pitch
       entries[5] = yaw
-      setLimelightNTDoubleArray(limelightName, "camerapose_robotspace_set", entries)
+      getHandle(limelightName).setCameraPose_RobotSpace(entries)
     }
 
     /////
     /////
     fun setPythonScriptData(limelightName: String?, outgoingPythonData: DoubleArray?) {
-      setLimelightNTDoubleArray(limelightName, "llrobot", outgoingPythonData)
+      if (outgoingPythonData != null) {
+        getHandle(limelightName).setPythonScriptData(outgoingPythonData)
+      }
     }
 
     fun getPythonScriptData(limelightName: String?): DoubleArray {
-      return getLimelightNTDoubleArray(limelightName, "llpython")
+      return getHandle(limelightName).getPythonScriptData()
     }
 
     /////
     /////
-    /** Asynchronously take snapshot. */
-    fun takeSnapshot(tableName: String?, snapshotName: String?): CompletableFuture<Boolean?> {
-      return CompletableFuture.supplyAsync<Boolean?>(
-        Supplier { SYNCH_TAKESNAPSHOT(tableName, snapshotName) }
-      )
-    }
+    /** Sends the HTTP requests of every Limelight, off the robot loop and the common pool. */
+    val httpClient = LimelightHttpClient()
 
-    private fun SYNCH_TAKESNAPSHOT(tableName: String?, snapshotName: String?): Boolean {
-      val url = getLimelightURLString(tableName, "capturesnapshot")
-      try {
-        val connection = url!!.openConnection() as HttpURLConnection
-        connection.setRequestMethod("GET")
-        if (snapshotName != null && snapshotName !== "") {
-          connection.setRequestProperty("snapname", snapshotName)
-        }
-
-        val responseCode = connection.getResponseCode()
-        if (responseCode == 200) {
-          return true
-        } else {
-          System.err.println("Bad LL Request")
-        }
-      } catch (e: IOException) {
-        System.err.println(e.message)
-      }
-      return false
+    /**
+     * Asynchronously take snapshot. A snapshot with the same name that is still being taken is
+     * not requested again.
+     */
+    fun takeSnapshot(tableName: String?, snapshotName: String?): CompletableFuture<Boolean> {
+      return httpClient.get(sanitizeName(tableName), "capturesnapshot", "snapname", snapshotName)
     }
 
-    /** Parses Limelight's JSON results dump into a LimelightResults Object */
+    /**
+     * Parses Limelight's JSON results dump into a LimelightResults Object. The JSON is only parsed
+     * when it changed since the last call, and the same results object is filled in place every
+     * time, so keep a copy of any value that must not change.
+     */
     fun getLatestResults(limelightName: String?): LimelightResults {
-      val start = System.nanoTime()
-      var results = LimelightResults()
-      if (mapper == null) {
-        mapper = ObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
-      }
-
+      val handle = getHandle(limelightName)
       try {
-        results =
-          mapper!!.readValue<LimelightResults>(
-            getJSONDump(limelightName),
-            LimelightResults::class.java,
-          )
-      } catch (e: JsonProcessingException) {
-        System.err.println("lljson error: " + e.message)
+        handle.getLatestResults()
+      } catch (e: IllegalArgumentException) {
+        badJson.report(e.message)
+      } catch (e: IndexOutOfBoundsException) {
+        badJson.report(e.message)
       }
 
-      val end = System.nanoTime()
-      val millis = (end - start) * .000001
-      results.targetingResults.latency_jsonParse = millis
       if (profileJSON) {
-        System.out.printf("lljson: %.2f\r\n", millis)
+        System.out.printf("lljson: %.2f\r\n", handle.results.targetingResults.latency_jsonParse)
       }
-
-      return results
+      return handle.results
     }
   }
 }
@@ -0,0 +1,195 @@
+package frc.robot.utils
+
+import java.io.IOException
+import java.io.InputStream
+import java.net.HttpURLConnection
+import java.net.URL
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Sends HTTP requests to Limelights on its own bounded pool of daemon threads, so a camera that
+ * stops answering can only hold up other Limelight requests, never the common pool or the robot
+ * loop.
+ *
+ * - Every request has a connect timeout and a read timeout.
+ * - Responses are read to the end and closed without disconnecting, so the JVM keeps the
+ *   connection alive and reuses it for the next request to the same camera.
+ * - A request identical to one still queued or running gets the same future instead of being
+ *   sent again.
+ * - When the queue is full the request is refused with a failed future instead of blocking.
+ *
+ * @param baseUrl Gets the base URL of a Limelight from its sanitized name. Point it at a local
+ *   server to stand in for the camera.
+ * @param threads The number of threads sending requests.
+ * @param queueCapacity The most requests waiting for a thread.
+ * @param connectTimeoutMillis How long to wait for the connection.
+ * @param readTimeoutMillis How long to wait for the response.
+ */
+class LimelightHttpClient(
+  private val baseUrl: (String) -> String = { name -> "http://$name.local:5807/" },
+  threads: Int = GlobalsValues.LimelightGlobalValues.HTTP_THREADS,
+  queueCapacity: Int = GlobalsValues.LimelightGlobalValues.HTTP_QUEUE_CAPACITY,
+  private val connectTimeoutMillis: Int = GlobalsValues.LimelightGlobalValues.HTTP_CONNECT_TIMEOUT,
+  private val readTimeoutMillis: Int = GlobalsValues.LimelightGlobalValues.HTTP_READ_TIMEOUT,
+) : AutoCloseable {
+  private val threadCount = AtomicInteger()
+  private val executor =
+    ThreadPoolExecutor(
+      threads,
+      threads,
+      0L,
+      TimeUnit.MILLISECONDS,
+      ArrayBlockingQueue(queueCapacity),
+    ) { runnable ->
+      Thread(runnable, "Limelight HTTP ${threadCount.incrementAndGet()}").apply { isDaemon = true }
+    }
+
+  /** Requests queued or running, by method, URL and header. */
+  private val inFlight = ConcurrentHashMap<String, CompletableFuture<Boolean>>()
+
+  private val skipBuffer = ThreadLocal.withInitial { ByteArray(SKIP_BUFFER_SIZE) }
+
+  private val sentCount = AtomicLong()
+  private val failedCount = AtomicLong()
+  private val coalescedCount = AtomicLong()
+  private val rejectedCount = AtomicLong()
+
+  /** Number of requests sent, successful or not. */
+  val sent: Long
+    get() = sentCount.get()
+
+  /** Number of requests that timed out, failed to connect or got a status other than 200. */
+  val failed: Long
+    get() = failedCount.get()
+
+  /** Number of requests answered by a request already in flight. */
+  val coalesced: Long
+    get() = coalescedCount.get()
+
+  /** Number of requests refused because the queue was full. */
+  val rejected: Long
+    get() = rejectedCount.get()
+
+  /** Number of requests waiting for a thread. */
+  val queueDepth: Int
+    get() = executor.queue.size
+
+  /** Time the last request took, in milliseconds. */
+  @Volatile
+  var lastLatency = 0.0
+    private set
+
+  /**
+   * Sends a GET request to a Limelight.
+   *
+   * @param limelightName The sanitized name of the Limelight.
+   * @param path The path of the request, such as "capturesnapshot".
+   * @param headerName A header to send, or null.
+   * @param headerValue The value of the header.
+   * @return Completes with whether the Limelight answered with status 200. Completes
+   *   exceptionally with [RejectedExecutionException] if the queue was full.
+   */
+  fun get(
+    limelightName: String,
+    path: String,
+    headerName: String? = null,
+    headerValue: String? = null,
+  ): CompletableFuture<Boolean> {
+    val url = baseUrl(limelightName) + path
+    val key = if (headerName == null) url else "$url\n$headerName: $headerValue"
+
+    val future = CompletableFuture<Boolean>()
+    val existing = inFlight.putIfAbsent(key, future)
+    if (existing != null) {
+      coalescedCount.incrementAndGet()
+      return existing
+    }
+
+    try {
+      executor.execute {
+        // The request leaves the in flight map before its future completes, so a request made
+        // from a completion callback, or right after, is sent again instead of getting this answer
+        try {
+          val ok = send(url, headerName, headerValue)
+          inFlight.remove(key, future)
+          future.complete(ok)
+        } catch (e: Throwable) {
+          inFlight.remove(key, future)
+          future.completeExceptionally(e)
+        }
+      }
+    } catch (e: RejectedExecutionException) {
+      rejectedCount.incrementAndGet()
+      inFlight.remove(key, future)
+      future.completeExceptionally(e)
+    }
+    return future
+  }
+
+  /** Stops the threads. Requests still queued are never sent. */
+  override fun close() {
+    executor.shutdownNow()
+  }
+
+  /**
+   * Sends one request on the calling thread.
+   *
+   * @return Whether the Limelight answered with status 200.
+   */
+  private fun send(url: String, headerName: String?, headerValue: String?): Boolean {
+    sentCount.incrementAndGet()
+    val start = System.nanoTime()
+    try {
+      val connection = URL(url).openConnection() as HttpURLConnection
+      connection.connectTimeout = connectTimeoutMillis
+      connection.readTimeout = readTimeoutMillis
+      connection.requestMethod = "GET"
+      if (headerName != null && !headerValue.isNullOrEmpty()) {
+        connection.setRequestProperty(headerName, headerValue)
+      }
+
+      val ok = connection.responseCode == 200
+      // Reading the body to the end lets the connection go back to the keep-alive cache
+      drain(if (ok) connection.inputStream else connection.errorStream)
+      if (!ok) {
+        failedCount.incrementAndGet()
+        BAD_REQUEST.report()
+      }
+      return ok
+    } catch (e: IOException) {
+      failedCount.incrementAndGet()
+      REQUEST_ERROR.report(e.message)
+      return false
+    } finally {
+      lastLatency = (System.nanoTime() - start) * .000001
+    }
+  }
+
+  /**
+   * Reads a response body to the end and closes it.
+   *
+   * @param stream The body, or null if there is none.
+   */
+  private fun drain(stream: InputStream?) {
+    stream?.use {
+      val buffer = skipBuffer.get()
+      while (it.read(buffer) >= 0) {
+        // Discard
+      }
+    }
+  }
+
+  companion object {
+    private const val SKIP_BUFFER_SIZE = 4096
+
+    private val BAD_REQUEST = ThrottledWarning("Bad LL Request")
+    private val REQUEST_ERROR = ThrottledWarning("LL request failed")
+  }
+}
@@ -0,0 +1,615 @@
+package frc.robot.utils
+
+import frc.robot.utils.LimelightHelpers.LimelightResults
+import frc.robot.utils.LimelightHelpers.LimelightTargetRetro
+import frc.robot.utils.LimelightHelpers.LimelightTarget_Barcode
+import frc.robot.utils.LimelightHelpers.LimelightTarget_Classifier
+import frc.robot.utils.LimelightHelpers.LimelightTarget_Detector
+import frc.robot.utils.LimelightHelpers.LimelightTarget_Fiducial
+import frc.robot.utils.LimelightHelpers.Results
+
+/**
+ * Parses the Limelight JSON results dump straight into a reusable [LimelightResults].
+ *
+ * This reads the JSON one character at a time instead of building a tree or using reflection like
+ * Jackson does. Keys are compared in place, numbers are parsed without creating strings, and
+ * target objects come from pools that only grow, so parsing a frame with the same number of
+ * targets as before allocates nothing. Unknown keys are skipped, like Jackson with
+ * FAIL_ON_UNKNOWN_PROPERTIES turned off.
+ *
+ * A parser and the results it fills are not thread safe.
+ */
+class LimelightJsonParser {
+  private var json = ""
+  private var position = 0
+
+  // Bounds of the last key read
+  private var keyStart = 0
+  private var keyEnd = 0
+
+  // Target pools and, for every target count seen so far, an array holding that many of them
+  private val retroPool = TargetPool(LimelightTargetRetro::class.java) { LimelightTargetRetro() }
+  private val fiducialPool =
+    TargetPool(LimelightTarget_Fiducial::class.java) { LimelightTarget_Fiducial() }
+  private val classifierPool =
+    TargetPool(LimelightTarget_Classifier::class.java) { LimelightTarget_Classifier() }
+  private val detectorPool =
+    TargetPool(LimelightTarget_Detector::class.java) { LimelightTarget_Detector() }
+  private val barcodePool =
+    TargetPool(LimelightTarget_Barcode::class.java) { LimelightTarget_Barcode() }
+
+  /**
+   * Parses a results dump into existing results. Every field present in the JSON is overwritten,
+   * fields that are missing keep their previous values.
+   *
+   * @param json The JSON results dump.
+   * @param results The results to fill.
+   * @throws IllegalArgumentException If the JSON is malformed.
+   */
+  fun parse(json: String, results: LimelightResults) {
+    this.json = json
+    position = 0
+
+    expect('{')
+    while (nextKey()) {
+      readKey()
+      if (isKey("Results")) {
+        parseResults(results.targetingResults)
+      } else {
+        skipValue()
+      }
+    }
+  }
+
+  /** Parses the Results object. */
+  private fun parseResults(results: Results) {
+    expect('{')
+    while (nextKey()) {
+      readKey()
+      when {
+        isKey("pID") -> results.pipelineID = readDouble()
+        isKey("tl") -> results.latency_pipeline = readDouble()
+        isKey("cl") -> results.latency_capture = readDouble()
+        isKey("ts") -> results.timestamp_LIMELIGHT_publish = readDouble()
+        isKey("ts_rio") -> results.timestamp_RIOFPGA_capture = readDouble()
+        isKey("v") -> results.valid = readDouble() != 0.0
+        isKey("botpose") -> results.botpose = readDoubles(results.botpose)
+        isKey("botpose_wpired") ->
+          results.botpose_wpired = readDoubles(results.botpose_wpired)
+        isKey("botpose_wpiblue") ->
+          results.botpose_wpiblue = readDoubles(results.botpose_wpiblue)
+        isKey("t6c_rs") ->
+          results.camerapose_robotspace = readDoubles(results.camerapose_robotspace)
+        isKey("Retro") ->
+          results.targets_Retro = readTargets(retroPool) { parseRetro(it) }
+        isKey("Fiducial") ->
+          results.targets_Fiducials = readTargets(fiducialPool) { parseFiducial(it) }
+        isKey("Classifier") ->
+          results.targets_Classifier = readTargets(classifierPool) { parseClassifier(it) }
+        isKey("Detector") ->
+          results.targets_Detector = readTargets(detectorPool) { parseDetector(it) }
+        isKey("Barcode") ->
+          results.targets_Barcode = readTargets(barcodePool) { skipValue() }
+        else -> skipValue()
+      }
+    }
+  }
+
+  /** Parses a retroreflective target object. */
+  private fun parseRetro(target: LimelightTargetRetro) {
+    expect('{')
+    while (nextKey()) {
+      readKey()
+      when {
+        isKey("t6c_ts") ->
+          target.cameraPose_TargetSpace = readDoubles(target.cameraPose_TargetSpace)
+        isKey("t6r_fs") ->
+          target.robotPose_FieldSpace = readDoubles(target.robotPose_FieldSpace)
+        isKey("t6r_ts") ->
+          target.robotPose_TargetSpace = readDoubles(target.robotPose_TargetSpace)
+        isKey("t6t_cs") ->
+          target.targetPose_CameraSpace = readDoubles(target.targetPose_CameraSpace)
+        isKey("t6t_rs") ->
+          target.targetPose_RobotSpace = readDoubles(target.targetPose_RobotSpace)
+        isKey("ta") -> target.ta = readDouble()
+        isKey("tx") -> target.tx = readDouble()
+        isKey("txp") -> target.tx_pixels = readDouble()
+        isKey("ty") -> target.ty = readDouble()
+        isKey("typ") -> target.ty_pixels = readDouble()
+        isKey("ts") -> target.ts = readDouble()
+        else -> skipValue()
+      }
+    }
+  }
+
+  /** Parses a fiducial target object. */
+  private fun parseFiducial(target: LimelightTarget_Fiducial) {
+    expect('{')
+    while (nextKey()) {
+      readKey()
+      when {
+        isKey("fID") -> target.fiducialID = readDouble()
+        isKey("fam") -> target.fiducialFamily = readString(target.fiducialFamily)
+        isKey("t6c_ts") ->
+          target.cameraPose_TargetSpace = readDoubles(target.cameraPose_TargetSpace)
+        isKey("t6r_fs") ->
+          target.robotPose_FieldSpace = readDoubles(target.robotPose_FieldSpace)
+        isKey("t6r_ts") ->
+          target.robotPose_TargetSpace = readDoubles(target.robotPose_TargetSpace)
+        isKey("t6t_cs") ->
+          target.targetPose_CameraSpace = readDoubles(target.targetPose_CameraSpace)
+        isKey("t6t_rs") ->
+          target.targetPose_RobotSpace = readDoubles(target.targetPose_RobotSpace)
+        isKey("ta") -> target.ta = readDouble()
+        isKey("tx") -> target.tx = readDouble()
+        isKey("txp") -> target.tx_pixels = readDouble()
+        isKey("ty") -> target.ty = readDouble()
+        isKey("typ") -> target.ty_pixels = readDouble()
+        isKey("ts") -> target.ts = readDouble()
+        else -> skipValue()
+      }
+    }
+  }
+
+  /** Parses a classifier result object. */
+  private fun parseClassifier(target: LimelightTarget_Classifier) {
+    expect('{')
+    while (nextKey()) {
+      readKey()
+      when {
+        isKey("class") -> target.className = readString(target.className)
+        isKey("classID") -> target.classID = readDouble()
+        isKey("conf") -> target.confidence = readDouble()
+        isKey("zone") -> target.zone = readDouble()
+        isKey("tx") -> target.tx = readDouble()
+        isKey("txp") -> target.tx_pixels = readDouble()
+        isKey("ty") -> target.ty = readDouble()
+        isKey("typ") -> target.ty_pixels = readDouble()
+        else -> skipValue()
+      }
+    }
+  }
+
+  /** Parses a detector result object. */
+  private fun parseDetector(target: LimelightTarget_Detector) {
+    expect('{')
+    while (nextKey()) {
+      readKey()
+      when {
+        isKey("class") -> target.className = readString(target.className)
+        isKey("classID") -> target.classID = readDouble()
+        isKey("conf") -> target.confidence = readDouble()
+        isKey("ta") -> target.ta = readDouble()
+        isKey("tx") -> target.tx = readDouble()
+        isKey("txp") -> target.tx_pixels = readDouble()
+        isKey("ty") -> target.ty = readDouble()
+        isKey("typ") -> target.ty_pixels = readDouble()
+        else -> skipValue()
+      }
+    }
+  }
+
+  /**
+   * Reads an array of target objects into pooled targets.
+   *
+   * @param pool The pool to take targets from.
+   * @param parseTarget Parses one target object into a pooled target.
+   * @return An array holding exactly the targets that were read.
+   */
+  private inline fun <T> readTargets(pool: TargetPool<T>, parseTarget: (T) -> Unit): Array<T?> {
+    skipWhitespace()
+    if (peek() == 'n') {
+      expectLiteral("null")
+      return pool.arrayOf(0)
+    }
+
+    expect('[')
+    var count = 0
+    while (nextElement(']')) {
+      parseTarget(pool.get(count))
+      count++
+    }
+    return pool.arrayOf(count)
+  }
+
+  /**
+   * Reads an array of numbers into an existing array, only allocating when the length changes.
+   *
+   * @param previous The array to reuse, or null.
+   * @return The array holding the numbers that were read.
+   */
+  private fun readDoubles(previous: DoubleArray?): DoubleArray {
+    skipWhitespace()
+    if (peek() == 'n') {
+      expectLiteral("null")
+      return EMPTY_DOUBLES
+    }
+    expect('[')
+
+    // Count the elements first so the array only changes when the length does
+    val start = position
+    var count = 0
+    if (nextElement(']')) {
+      count++
+      skipNumber()
+      while (nextElement(']')) {
+        count++
+        skipNumber()
+      }
+    }
+
+    val values = if (previous != null && previous.size == count) previous else DoubleArray(count)
+    position = start
+    var index = 0
+    while (nextElement(']')) {
+      values[index++] = readDouble()
+    }
+    return values
+  }
+
+  /**
+   * Reads a string, reusing the previous string when the characters are the same.
+   *
+   * @param previous The string to reuse, or null.
+   * @return The string that was read, or null for a JSON null.
+   */
+  private fun readString(previous: String?): String? {
+    skipWhitespace()
+    if (peek() == 'n') {
+      expectLiteral("null")
+      return null
+    }
+
+    expect('"')
+    val start = position
+    var escaped = false
+    while (json[position] != '"') {
+      if (json[position] == '\\') {
+        escaped = true
+        position++
+      }
+      position++
+    }
+    val end = position++
+
+    if (escaped) {
+      return unescape(start, end)
+    }
+    if (previous != null && regionEquals(start, end, previous)) {
+      return previous
+    }
+    return json.substring(start, end)
+  }
+
+  /**
+   * Reads a number, or a boolean as 0 or 1 like Jackson does for the valid flag.
+   *
+   * @return The number that was read.
+   */
+  private fun readDouble(): Double {
+    skipWhitespace()
+    when (peek()) {
+      't' -> {
+        expectLiteral("true")
+        return 1.0
+      }
+      'f' -> {
+        expectLiteral("false")
+        return 0.0
+      }
+      'n' -> {
+        expectLiteral("null")
+        return 0.0
+      }
+    }
+
+    val start = position
+    var negative = false
+    if (json[position] == '-') {
+      negative = true
+      position++
+    }
+
+    var mantissa = 0L
+    var digits = 0
+    var exponent = 0
+    while (position < json.length && json[position].isAsciiDigit()) {
+      if (digits < MAX_EXACT_DIGITS) {
+        mantissa = mantissa * 10 + (json[position] - '0')
+        // Leading zeros do not count towards the precision
+        if (mantissa != 0L) {
+          digits++
+        }
+      } else {
+        exponent++
+        digits++
+      }
+      position++
+    }
+    if (position < json.length && json[position] == '.') {
+      position++
+      while (position < json.length && json[position].isAsciiDigit()) {
+        if (digits < MAX_EXACT_DIGITS) {
+          mantissa = mantissa * 10 + (json[position] - '0')
+          if (mantissa != 0L) {
+            digits++
+          }
+          exponent--
+        } else {
+          digits++
+        }
+        position++
+      }
+    }
+    if (position < json.length && (json[position] == 'e' || json[position] == 'E')) {
+      position++
+      var exponentNegative = false
+      if (peek() == '+' || peek() == '-') {
+        exponentNegative = peek() == '-'
+        position++
+      }
+      var explicitExponent = 0
+      while (position < json.length && json[position].isAsciiDigit()) {
+        explicitExponent = minOf(explicitExponent * 10 + (json[position] - '0'), 10_000)
+        position++
+      }
+      exponent += if (exponentNegative) -explicitExponent else explicitExponent
+    }
+    require(position > start) { "Expected a number at $start" }
+
+    // The mantissa and the power of ten are both exact, so one operation rounds correctly
+    if (digits <= MAX_EXACT_DIGITS && exponent in -MAX_EXACT_POWER..MAX_EXACT_POWER) {
+      val value =
+        if (exponent >= 0) {
+          mantissa * POWERS_OF_TEN[exponent]
+        } else {
+          mantissa / POWERS_OF_TEN[-exponent]
+        }
+      return if (negative) -value else value
+    }
+    return json.substring(start, position).toDouble()
+  }
+
+  /** Skips over a number without parsing it. */
+  private fun skipNumber() {
+    skipWhitespace()
+    val start = position
+    while (position < json.length && json[position] !in ",]} \t\r\n") {
+      position++
+    }
+    require(position > start) { "Expected a number at $start" }
+  }
+
+  /** Skips over any value, including nested objects and arrays. */
+  private fun skipValue() {
+    skipWhitespace()
+    when (peek()) {
+      '{' -> {
+        position++
+        while (nextKey()) {
+          readKey()
+          skipValue()
+        }
+      }
+      '[' -> {
+        position++
+        while (nextElement(']')) {
+          skipValue()
+        }
+      }
+      '"' -> {
+        position++
+        while (json[position] != '"') {
+          if (json[position] == '\\') {
+            position++
+          }
+          position++
+        }
+        position++
+      }
+      else -> skipNumber()
+    }
+  }
+
+  /**
+   * Moves to the next key of an object, consuming the comma or the closing brace.
+   *
+   * @return Whether there is another key, positioned at its opening quote.
+   */
+  private fun nextKey(): Boolean {
+    if (!nextElement('}')) {
+      return false
+    }
+    skipWhitespace()
+    require(peek() == '"') { "Expected a key at $position" }
+    return true
+  }
+
+  /**
+   * Moves to the next element of an array or object, consuming the comma or the closing bracket.
+   *
+   * @param close The closing bracket of the array or object.
+   * @return Whether there is another element.
+   */
+  private fun nextElement(close: Char): Boolean {
+    skipWhitespace()
+    val c = peek()
+    if (c == close) {
+      position++
+      return false
+    }
+    if (c == ',') {
+      position++
+      skipWhitespace()
+    }
+    return true
+  }
+
+  /** Reads a key and the colon after it. The key starts at the current position. */
+  private fun readKey() {
+    expect('"')
+    keyStart = position
+    while (json[position] != '"') {
+      position++
+    }
+    keyEnd = position
+    position++
+    expect(':')
+  }
+
+  /**
+   * Compares the last key read with a name, without creating a string.
+   *
+   * @param name The name to compare with.
+   * @return Whether the key is the name.
+   */
+  private fun isKey(name: String): Boolean {
+    return regionEquals(keyStart, keyEnd, name)
+  }
+
+  /**
+   * Compares part of the JSON with a string, without creating a substring.
+   *
+   * @param start The index of the first character.
+   * @param end The index just past the last character.
+   * @param name The string to compare with.
+   * @return Whether the characters match.
+   */
+  private fun regionEquals(start: Int, end: Int, name: String): Boolean {
+    return end - start == name.length && json.regionMatches(start, name, 0, name.length)
+  }
+
+  /**
+   * Creates a string from a part of the JSON that contains escapes.
+   *
+   * @param start The index of the first character.
+   * @param end The index just past the last character.
+   * @return The unescaped string.
+   */
+  private fun unescape(start: Int, end: Int): String {
+    val builder = StringBuilder(end - start)
+    var i = start
+    while (i < end) {
+      val c = json[i++]
+      if (c != '\\') {
+        builder.append(c)
+        continue
+      }
+      when (val escape = json[i++]) {
+        'n' -> builder.append('\n')
+        't' -> builder.append('\t')
+        'r' -> builder.append('\r')
+        'b' -> builder.append('\b')
+        'f' -> builder.append('\u000C')
+        'u' -> {
+          builder.append(json.substring(i, i + 4).toInt(16).toChar())
+          i += 4
+        }
+        else -> builder.append(escape)
+      }
+    }
+    return builder.toString()
+  }
+
+  /** Skips spaces, tabs and line breaks. */
+  private fun skipWhitespace() {
+    while (position < json.length) {
+      val c = json[position]
+      if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+        return
+      }
+      position++
+    }
+  }
+
+  /**
+   * Gets the current character.
+   *
+   * @return The current character.
+   * @throws IllegalArgumentException If the end of the JSON was reached.
+   */
+  private fun peek(): Char {
+    require(position < json.length) { "Unexpected end of JSON" }
+    return json[position]
+  }
+
+  /**
+   * Consumes a character, skipping whitespace before it.
+   *
+   * @param c The expected character.
+   * @throws IllegalArgumentException If a different character was found.
+   */
+  private fun expect(c: Char) {
+    skipWhitespace()
+    require(peek() == c) { "Expected '$c' at $position" }
+    position++
+  }
+
+  /**
+   * Consumes a literal such as null.
+   *
+   * @param literal The expected literal.
+   * @throws IllegalArgumentException If a different literal was found.
+   */
+  private fun expectLiteral(literal: String) {
+    require(json.startsWith(literal, position)) { "Expected $literal at $position" }
+    position += literal.length
+  }
+
+  /**
+   * Pooled targets of one type. Targets are handed out by index and reused on the next parse.
+   *
+   * @param type The class of the targets, used to create the arrays.
+   * @param create Creates a new target when the pool needs to grow.
+   */
+  private class TargetPool<T>(private val type: Class<T>, private val create: () -> T) {
+    private val targets = ArrayList<T>()
+    private val arrays = ArrayList<Array<T?>>()
+
+    /**
+     * Gets the target at an index, creating it the first time.
+     *
+     * @param index The index of the target.
+     * @return The pooled target.
+     */
+    fun get(index: Int): T {
+      while (targets.size <= index) {
+        targets.add(create())
+      }
+      return targets[index]
+    }
+
+    /**
+     * Gets an array holding the first targets of the pool, created once per count.
+     *
+     * @param count The number of targets.
+     * @return The array of targets.
+     */
+    @Suppress("UNCHECKED_CAST")
+    fun arrayOf(count: Int): Array<T?> {
+      while (arrays.size <= count) {
+        val size = arrays.size
+        val array = java.lang.reflect.Array.newInstance(type, size) as Array<T?>
+        for (i in 0 until size) {
+          array[i] = get(i)
+        }
+        arrays.add(array)
+      }
+      return arrays[count]
+    }
+  }
+
+  companion object {
+    /** Most digits a long mantissa holds that a double still represents exactly. */
+    private const val MAX_EXACT_DIGITS = 15
+
+    /** Largest power of ten a double represents exactly. */
+    private const val MAX_EXACT_POWER = 22
+
+    private val EMPTY_DOUBLES = DoubleArray(0)
+
+    private val POWERS_OF_TEN = DoubleArray(MAX_EXACT_POWER + 1) { Math.pow(10.0, it.toDouble()) }
+
+    private fun Char.isAsciiDigit(): Boolean = this in '0'..'9'
+  }
+}
@@ -0,0 +1,76 @@
+package frc.robot.utils
+
+import edu.wpi.first.math.geometry.Pose2d
+import edu.wpi.first.math.geometry.Rotation2d
+
+/**
+ * A mutable pose decoded from a Limelight pose array, filled in place so that polling vision at
+ * a high rate does not allocate. Angles are in radians, unlike the degrees in the array.
+ */
+class LimelightPose {
+  var x = 0.0
+  var y = 0.0
+  var z = 0.0
+  var roll = 0.0
+  var pitch = 0.0
+  var yaw = 0.0
+
+  /** Total latency of the frame in milliseconds, 0 if the array does not include it. */
+  var latency = 0.0
+
+  /** Number of tags the pose was computed from, 0 if the array does not include it. */
+  var tagCount = 0
+
+  /** The time the frame was captured, in FPGA seconds. */
+  var timestamp = 0.0
+
+  /** Whether the last decode found a well formed pose. */
+  var valid = false
+
+  /** The NetworkTables change time of the array last decoded, used to skip unchanged arrays. */
+  internal var lastChange = -1L
+
+  /**
+   * Decodes a Limelight pose array of x, y, z, roll, pitch and yaw in degrees, optionally followed
+   * by the latency and the tag count.
+   *
+   * @param data The pose array.
+   * @param publishedTime The time the array was published, in FPGA seconds.
+   * @return Whether the array was well formed. If not, the pose is marked invalid and kept.
+   */
+  fun decode(data: DoubleArray, publishedTime: Double): Boolean {
+    if (data.size < POSE_SIZE) {
+      valid = false
+      BAD_POSE.report()
+      return false
+    }
+    x = data[0]
+    y = data[1]
+    z = data[2]
+    roll = Math.toRadians(data[3])
+    pitch = Math.toRadians(data[4])
+    yaw = Math.toRadians(data[5])
+    latency = if (data.size > LATENCY) data[LATENCY] else 0.0
+    tagCount = if (data.size > TAG_COUNT) data[TAG_COUNT].toInt() else 0
+    timestamp = publishedTime - latency / 1000.0
+    valid = true
+    return true
+  }
+
+  /**
+   * Copies the pose into a new Pose2d, for code that needs one. Allocates.
+   *
+   * @return The pose on the field plane.
+   */
+  fun toPose2d(): Pose2d {
+    return Pose2d(x, y, Rotation2d(yaw))
+  }
+
+  companion object {
+    private const val POSE_SIZE = 6
+    private const val LATENCY = 6
+    private const val TAG_COUNT = 7
+
+    private val BAD_POSE = ThrottledWarning("Bad LL pose data")
+  }
+}
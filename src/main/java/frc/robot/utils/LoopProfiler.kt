@@ -0,0 +1,161 @@
+package frc.robot.utils
+
+import edu.wpi.first.networktables.StringPublisher
+import frc.robot.utils.GlobalsValues.ProfilerGlobalValues
+
+/**
+ * Times named sections of the robot loop, such as subsystem periodics and command callbacks.
+ *
+ * Sections are registered once and then identified by an index, so timing a section is a couple
+ * of array writes with no allocation. Once per report period the slowest sections are published
+ * to the SmartDashboard and the window is reset.
+ */
+object LoopProfiler {
+  /** Maximum number of sections that can be registered. */
+  const val MAX_SECTIONS = 64
+
+  /** Weight of the newest sample in the moving average of each section. */
+  private const val AVERAGE_WEIGHT = 0.05
+
+  /** Whether sections are currently being timed. */
+  var enabled: Boolean = ProfilerGlobalValues.ENABLED
+
+  private val names = arrayOfNulls<String>(MAX_SECTIONS)
+  private var sectionCount = 0
+
+  private val windowNanos = LongArray(MAX_SECTIONS)
+  private val windowCalls = LongArray(MAX_SECTIONS)
+  private val windowMaxNanos = LongArray(MAX_SECTIONS)
+  private val averageNanos = DoubleArray(MAX_SECTIONS)
+
+  private val topSections = IntArray(ProfilerGlobalValues.TOP_COUNT)
+  private val topPublishers: Array<StringPublisher> =
+    Array(ProfilerGlobalValues.TOP_COUNT) { Telemetry.string("Profiler/Top ${it + 1}") }
+  private val reportPeriodNanos = (ProfilerGlobalValues.REPORT_PERIOD * 1e9).toLong()
+  private var lastReportNanos = System.nanoTime()
+
+  /**
+   * Registers a section, or looks up an existing section with the same name.
+   *
+   * @param name The name reported for the section.
+   * @return The index of the section, or -1 if there is no room left.
+   */
+  @Synchronized
+  fun register(name: String): Int {
+    for (i in 0 until sectionCount) {
+      if (names[i] == name) {
+        return i
+      }
+    }
+    if (sectionCount == MAX_SECTIONS) {
+      return -1
+    }
+    names[sectionCount] = name
+    return sectionCount++
+  }
+
+  /**
+   * Marks the start of a section.
+   *
+   * @return The start time to pass to [stop], or 0 when profiling is disabled.
+   */
+  fun start(): Long {
+    return if (enabled) System.nanoTime() else 0L
+  }
+
+  /**
+   * Marks the end of a section and records how long it took.
+   *
+   * @param section The index returned by [register].
+   * @param startNanos The time returned by [start].
+   */
+  fun stop(section: Int, startNanos: Long) {
+    if (section < 0 || startNanos == 0L) {
+      return
+    }
+    val elapsed = System.nanoTime() - startNanos
+
+    windowNanos[section] += elapsed
+    windowCalls[section]++
+    if (elapsed > windowMaxNanos[section]) {
+      windowMaxNanos[section] = elapsed
+    }
+    averageNanos[section] += AVERAGE_WEIGHT * (elapsed - averageNanos[section])
+  }
+
+  /**
+   * Publishes the slowest sections of the last window, at most once per report period. Call this
+   * once per robot loop.
+   */
+  fun report() {
+    if (!enabled) {
+      return
+    }
+    val now = System.nanoTime()
+    if (now - lastReportNanos < reportPeriodNanos) {
+      return
+    }
+    val windowSeconds = (now - lastReportNanos) / 1e9
+    lastReportNanos = now
+
+    val found = selectTopSections()
+    for (rank in topSections.indices) {
+      val text =
+        if (rank < found) {
+          val section = topSections[rank]
+          String.format(
+            "%s: %.2f ms/s, avg %.3f ms, max %.3f ms",
+            names[section],
+            windowNanos[section] / 1e6 / windowSeconds,
+            averageNanos[section] / 1e6,
+            windowMaxNanos[section] / 1e6,
+          )
+        } else {
+          ""
+        }
+      topPublishers[rank].set(text)
+    }
+
+    windowNanos.fill(0L)
+    windowCalls.fill(0L)
+    windowMaxNanos.fill(0L)
+  }
+
+  /**
+   * Gets the mean time spent in a section per call, averaged over recent calls.
+   *
+   * @param section The index returned by [register].
+   * @return The average time per call in milliseconds.
+   */
+  fun getAverageMillis(section: Int): Double {
+    return if (section < 0) 0.0 else averageNanos[section] / 1e6
+  }
+
+  /**
+   * Fills [topSections] with the sections that used the most time in the current window, slowest
+   * first.
+   *
+   * @return How many sections were found.
+   */
+  private fun selectTopSections(): Int {
+    var found = 0
+    for (section in 0 until sectionCount) {
+      if (windowCalls[section] == 0L) {
+        continue
+      }
+
+      // Insertion into the small sorted top list
+      var position = if (found < topSections.size) found++ else topSections.size
+      while (position > 0 && windowNanos[topSections[position - 1]] < windowNanos[section]) {
+        if (position < topSections.size) {
+          topSections[position] = topSections[position - 1]
+        }
+        position--
+      }
+      if (position < topSections.size) {
+        topSections[position] = section
+      }
+    }
+    return found
+  }
+}
@@ -0,0 +1,257 @@
+package frc.robot.utils
+
+import edu.wpi.first.networktables.DoublePublisher
+import edu.wpi.first.wpilibj.TimedRobot
+import java.lang.management.ManagementFactory
+import kotlin.math.abs
+import kotlin.math.ceil
+import kotlin.math.min
+
+/**
+ * Records the wall-clock duration of every robot loop into a fixed-size histogram.
+ *
+ * Each bucket is [BUCKET_WIDTH_NANOS] wide, so recording a cycle is a single array increment and
+ * never allocates. Percentiles are read back from the histogram and are accurate to one bucket.
+ * The statistics cover one publish window and are reset every time they are published.
+ *
+ * When the JVM supports it, the bytes allocated by the robot thread during each loop are recorded
+ * too, which shows whether the hot path is producing garbage.
+ *
+ * @param periodSeconds The nominal loop period, used for overrun and jitter accounting.
+ * @param publishPeriodSeconds How often the statistics are published to the SmartDashboard.
+ */
+class LoopTimer(
+  periodSeconds: Double = TimedRobot.kDefaultPeriod,
+  publishPeriodSeconds: Double = 1.0,
+) {
+  private val periodNanos = (periodSeconds * 1e9).toLong()
+  private val publishPeriodNanos = (publishPeriodSeconds * 1e9).toLong()
+
+  /** Histogram of loop durations, the last bucket also holds every longer loop. */
+  private val buckets = LongArray(BUCKET_COUNT)
+
+  private var cycleStartNanos = 0L
+  private var lastCycleStartNanos = 0L
+  private var lastPublishNanos = System.nanoTime()
+
+  private var jitterSumNanos = 0L
+  private var jitterSamples = 0L
+
+  /** Thread bean used to read allocated bytes, or null if the JVM cannot measure them. */
+  private val threadBean =
+    (ManagementFactory.getThreadMXBean() as? com.sun.management.ThreadMXBean)?.takeIf {
+      it.isThreadAllocatedMemorySupported && it.isThreadAllocatedMemoryEnabled
+    }
+  private var cycleStartAllocatedBytes = 0L
+  private var allocatedBytesSum = 0L
+
+  // Statistics publishers, registered once instead of looked up every publish
+  private val countPublisher: DoublePublisher = Telemetry.number("Loop/Count")
+  private val p50Publisher: DoublePublisher = Telemetry.number("Loop/p50 ms")
+  private val p90Publisher: DoublePublisher = Telemetry.number("Loop/p90 ms")
+  private val p99Publisher: DoublePublisher = Telemetry.number("Loop/p99 ms")
+  private val maxPublisher: DoublePublisher = Telemetry.number("Loop/Max ms")
+  private val overrunsPublisher: DoublePublisher = Telemetry.number("Loop/Overruns")
+  private val totalOverrunsPublisher: DoublePublisher = Telemetry.number("Loop/Total overruns")
+  private val meanJitterPublisher: DoublePublisher = Telemetry.number("Loop/Mean jitter ms")
+  private val maxJitterPublisher: DoublePublisher = Telemetry.number("Loop/Max jitter ms")
+  private val meanAllocPublisher: DoublePublisher = Telemetry.number("Loop/Mean alloc bytes")
+  private val maxAllocPublisher: DoublePublisher = Telemetry.number("Loop/Max alloc bytes")
+
+  /** Number of loops recorded in the current window. */
+  var count = 0L
+    private set
+
+  /** Longest loop in the current window, in nanoseconds. */
+  var maxNanos = 0L
+    private set
+
+  /** Number of loops in the current window that took longer than the nominal period. */
+  var overruns = 0L
+    private set
+
+  /** Number of loops since startup that took longer than the nominal period. */
+  var totalOverruns = 0L
+    private set
+
+  /** Largest deviation of the loop period from the nominal period in the current window. */
+  var maxJitterNanos = 0L
+    private set
+
+  /** Bytes allocated by the robot thread during the last loop, or -1 if unsupported. */
+  var lastAllocatedBytes = -1L
+    private set
+
+  /** Most bytes allocated by the robot thread during a single loop in the current window. */
+  var maxAllocatedBytes = 0L
+    private set
+
+  /** Marks the start of a loop. Call this right before running the scheduler. */
+  fun start() {
+    val now = System.nanoTime()
+    if (lastCycleStartNanos != 0L) {
+      recordPeriod(now - lastCycleStartNanos)
+    }
+    lastCycleStartNanos = now
+    cycleStartNanos = now
+
+    if (threadBean != null) {
+      cycleStartAllocatedBytes = threadBean.currentThreadAllocatedBytes
+    }
+  }
+
+  /** Marks the end of a loop started with [start] and records its duration. */
+  fun stop() {
+    record(System.nanoTime() - cycleStartNanos)
+
+    if (threadBean != null) {
+      recordAllocation(threadBean.currentThreadAllocatedBytes - cycleStartAllocatedBytes)
+    }
+  }
+
+  /**
+   * Records the duration of a single loop.
+   *
+   * @param durationNanos How long the loop took, in nanoseconds.
+   */
+  fun record(durationNanos: Long) {
+    val bucket = min(durationNanos / BUCKET_WIDTH_NANOS, (BUCKET_COUNT - 1).toLong()).toInt()
+    buckets[if (bucket < 0) 0 else bucket]++
+    count++
+
+    if (durationNanos > maxNanos) {
+      maxNanos = durationNanos
+    }
+    if (durationNanos > periodNanos) {
+      overruns++
+      totalOverruns++
+    }
+  }
+
+  /**
+   * Records the time between the starts of two consecutive loops.
+   *
+   * @param loopPeriodNanos The measured loop period, in nanoseconds.
+   */
+  fun recordPeriod(loopPeriodNanos: Long) {
+    val jitter = abs(loopPeriodNanos - periodNanos)
+    jitterSumNanos += jitter
+    jitterSamples++
+    if (jitter > maxJitterNanos) {
+      maxJitterNanos = jitter
+    }
+  }
+
+  /**
+   * Records the bytes allocated during a single loop.
+   *
+   * @param bytes How many bytes the loop allocated.
+   */
+  fun recordAllocation(bytes: Long) {
+    lastAllocatedBytes = bytes
+    allocatedBytesSum += bytes
+    if (bytes > maxAllocatedBytes) {
+      maxAllocatedBytes = bytes
+    }
+  }
+
+  /**
+   * Gets a percentile of the loop durations in the current window.
+   *
+   * @param percentile The percentile to look up, between 0 and 100.
+   * @return The loop duration at that percentile in milliseconds, or 0 if nothing was recorded.
+   */
+  fun percentileMillis(percentile: Double): Double {
+    if (count == 0L) {
+      return 0.0
+    }
+
+    val rank = ceil(percentile / 100.0 * count).toLong().coerceIn(1L, count)
+    var seen = 0L
+    for (i in buckets.indices) {
+      seen += buckets[i]
+      if (seen >= rank) {
+        // Report the upper edge of the bucket, but never more than the longest loop seen
+        return min((i + 1) * BUCKET_WIDTH_NANOS, maxNanos) / 1e6
+      }
+    }
+    return getMaxMillis()
+  }
+
+  /**
+   * Gets the longest loop in the current window.
+   *
+   * @return The longest loop duration in milliseconds.
+   */
+  fun getMaxMillis(): Double {
+    return maxNanos / 1e6
+  }
+
+  /**
+   * Gets the mean deviation of the loop period from the nominal period in the current window.
+   *
+   * @return The mean jitter in milliseconds.
+   */
+  fun getMeanJitterMillis(): Double {
+    return if (jitterSamples == 0L) 0.0 else jitterSumNanos.toDouble() / jitterSamples / 1e6
+  }
+
+  /**
+   * Gets the mean number of bytes allocated per loop in the current window.
+   *
+   * @return The mean allocation per loop in bytes.
+   */
+  fun getMeanAllocatedBytes(): Double {
+    return if (count == 0L) 0.0 else allocatedBytesSum.toDouble() / count
+  }
+
+  /**
+   * Publishes the statistics for the current window and starts a new one, at most once per
+   * publish period.
+   *
+   * @return Whether the statistics were published.
+   */
+  fun publish(): Boolean {
+    val now = System.nanoTime()
+    if (now - lastPublishNanos < publishPeriodNanos) {
+      return false
+    }
+    lastPublishNanos = now
+
+    countPublisher.set(count.toDouble())
+    p50Publisher.set(percentileMillis(50.0))
+    p90Publisher.set(percentileMillis(90.0))
+    p99Publisher.set(percentileMillis(99.0))
+    maxPublisher.set(getMaxMillis())
+    overrunsPublisher.set(overruns.toDouble())
+    totalOverrunsPublisher.set(totalOverruns.toDouble())
+    meanJitterPublisher.set(getMeanJitterMillis())
+    maxJitterPublisher.set(maxJitterNanos / 1e6)
+    meanAllocPublisher.set(getMeanAllocatedBytes())
+    maxAllocPublisher.set(maxAllocatedBytes.toDouble())
+
+    reset()
+    return true
+  }
+
+  /** Clears the current window. The total overrun count is kept. */
+  fun reset() {
+    buckets.fill(0L)
+    count = 0L
+    maxNanos = 0L
+    overruns = 0L
+    jitterSumNanos = 0L
+    jitterSamples = 0L
+    maxJitterNanos = 0L
+    allocatedBytesSum = 0L
+    maxAllocatedBytes = 0L
+  }
+
+  companion object {
+    /** Width of one histogram bucket, 0.1 ms. */
+    const val BUCKET_WIDTH_NANOS = 100_000L
+
+    /** Number of histogram buckets, covering loops up to 100 ms. */
+    const val BUCKET_COUNT = 1000
+  }
+}
@@ -0,0 +1,138 @@
+package frc.robot.utils
+
+import edu.wpi.first.math.MathUtil
+
+/**
+ * A fixed-capacity history of timestamped poses, stored in primitive arrays.
+ *
+ * Once full, the oldest pose is overwritten, so memory use never grows and adding a pose never
+ * allocates. Poses between two samples are linearly interpolated, which is accurate for the few
+ * milliseconds between odometry samples.
+ *
+ * @param capacity The maximum number of poses kept.
+ */
+class PoseHistory(private val capacity: Int) {
+  private val timestamps = DoubleArray(capacity)
+  private val xs = DoubleArray(capacity)
+  private val ys = DoubleArray(capacity)
+  private val thetas = DoubleArray(capacity)
+
+  /** Index the next pose is written to. */
+  private var head = 0
+
+  /** Number of poses currently kept. */
+  var size = 0
+    private set
+
+  /**
+   * Adds a pose. Poses must be added in time order, poses that are not newer than the latest one
+   * are ignored.
+   *
+   * @param timestamp The time of the pose in seconds.
+   * @param x The x position in meters.
+   * @param y The y position in meters.
+   * @param theta The heading in radians.
+   */
+  fun add(timestamp: Double, x: Double, y: Double, theta: Double) {
+    if (size > 0 && timestamp <= getLatestTimestamp()) {
+      return
+    }
+
+    timestamps[head] = timestamp
+    xs[head] = x
+    ys[head] = y
+    thetas[head] = theta
+    head = (head + 1) % capacity
+    if (size < capacity) {
+      size++
+    }
+  }
+
+  /** Removes every pose. */
+  fun clear() {
+    head = 0
+    size = 0
+  }
+
+  /**
+   * Gets the time of the oldest pose.
+   *
+   * @return The oldest timestamp in seconds, or NaN if the history is empty.
+   */
+  fun getOldestTimestamp(): Double {
+    return if (size == 0) Double.NaN else timestamps[physicalIndex(0)]
+  }
+
+  /**
+   * Gets the time of the newest pose.
+   *
+   * @return The newest timestamp in seconds, or NaN if the history is empty.
+   */
+  fun getLatestTimestamp(): Double {
+    return if (size == 0) Double.NaN else timestamps[physicalIndex(size - 1)]
+  }
+
+  /**
+   * Looks up the pose at a time, interpolating between the two closest poses. Times outside the
+   * history are clamped to the oldest or newest pose.
+   *
+   * @param timestamp The time to look up in seconds.
+   * @param pose Filled with the x, y and heading of the pose.
+   * @return Whether a pose was found, false if the history is empty.
+   */
+  fun sample(timestamp: Double, pose: DoubleArray): Boolean {
+    if (size == 0) {
+      return false
+    }
+    if (timestamp <= getOldestTimestamp()) {
+      copy(physicalIndex(0), pose)
+      return true
+    }
+    if (timestamp >= getLatestTimestamp()) {
+      copy(physicalIndex(size - 1), pose)
+      return true
+    }
+
+    // Binary search for the first pose newer than the timestamp
+    var low = 0
+    var high = size - 1
+    while (low < high) {
+      val middle = (low + high) ushr 1
+      if (timestamps[physicalIndex(middle)] <= timestamp) {
+        low = middle + 1
+      } else {
+        high = middle
+      }
+    }
+
+    val before = physicalIndex(low - 1)
+    val after = physicalIndex(low)
+    val t = (timestamp - timestamps[before]) / (timestamps[after] - timestamps[before])
+    pose[0] = MathUtil.interpolate(xs[before], xs[after], t)
+    pose[1] = MathUtil.interpolate(ys[before], ys[after], t)
+    pose[2] = thetas[before] + MathUtil.angleModulus(thetas[after] - thetas[before]) * t
+    return true
+  }
+
+  /**
+   * Converts an index counted from the oldest pose into an index in the arrays.
+   *
+   * @param index The index counted from the oldest pose.
+   * @return The index in the arrays.
+   */
+  private fun physicalIndex(index: Int): Int {
+    return (head - size + index + capacity) % capacity
+  }
+
+  /**
+   * Copies a stored pose.
+   *
+   * @param index The index in the arrays.
+   * @param pose Filled with the x, y and heading of the pose.
+   */
+  private fun copy(index: Int, pose: DoubleArray) {
+    pose[0] = xs[index]
+    pose[1] = ys[index]
+    pose[2] = thetas[index]
+  }
+}
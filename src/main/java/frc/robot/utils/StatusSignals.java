@@ -0,0 +1,35 @@
+package frc.robot.utils;
+
+import com.ctre.phoenix6.BaseStatusSignal;
+import com.ctre.phoenix6.StatusCode;
+
+/**
+ * Calls the varargs signal functions of {@link BaseStatusSignal} with an existing array.
+ *
+ * <p>Kotlin copies an array passed with the spread operator on every call, so calling these every
+ * loop from Kotlin would allocate. Java passes the array itself.
+ */
+public final class StatusSignals {
+  private StatusSignals() {}
+
+  /**
+   * Refreshes every signal in one call, see {@link BaseStatusSignal#refreshAll}.
+   *
+   * @param signals The signals to refresh, not copied.
+   * @return The status of the refresh.
+   */
+  public static StatusCode refreshAll(BaseStatusSignal[] signals) {
+    return BaseStatusSignal.refreshAll(signals);
+  }
+
+  /**
+   * Waits for every signal to get a new value, see {@link BaseStatusSignal#waitForAll}.
+   *
+   * @param timeoutSeconds How long to wait for the signals, in seconds.
+   * @param signals The signals to wait for, not copied.
+   * @return The status of the wait.
+   */
+  public static StatusCode waitForAll(double timeoutSeconds, BaseStatusSignal[] signals) {
+    return BaseStatusSignal.waitForAll(timeoutSeconds, signals);
+  }
+}
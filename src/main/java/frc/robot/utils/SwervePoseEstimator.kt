@@ -0,0 +1,438 @@
+package frc.robot.utils
+
+import edu.wpi.first.math.MathUtil
+import edu.wpi.first.math.geometry.Pose2d
+import edu.wpi.first.math.geometry.Rotation2d
+import kotlin.math.abs
+import kotlin.math.cos
+import kotlin.math.sin
+import kotlin.math.sqrt
+
+/**
+ * Fuses swerve wheel odometry with vision measurements taken in the past.
+ *
+ * It works on primitives and keeps a fixed-size [PoseHistory] of odometry poses instead of a
+ * growing map of objects. A vision measurement is applied at the time the frame was captured: the
+ * estimate at that time is corrected towards the measurement, and the odometry since then is
+ * carried on top of the corrected pose.
+ *
+ * The last [CORRECTION_COUNT] corrections are kept in time order. A measurement that arrives
+ * after a newer one is applied at its own time and the newer ones are applied again on top of it,
+ * so the estimate is the same as if the measurements had arrived in time order.
+ *
+ * @param kinematics The kinematics used to turn module movement into robot movement.
+ * @param historySeconds How far back vision measurements can be applied.
+ * @param sampleFrequency How often odometry is updated, in Hz, used to size the history.
+ */
+class SwervePoseEstimator(
+  private val kinematics: FourModuleKinematics,
+  historySeconds: Double,
+  sampleFrequency: Double,
+) {
+  private val history = PoseHistory((historySeconds * sampleFrequency).toInt() + 1)
+
+  // Odometry pose, only ever moved by the wheels and the gyro
+  private var odometryX = 0.0
+  private var odometryY = 0.0
+  private var odometryTheta = 0.0
+
+  /**
+   * Recent vision corrections in time order, [CORRECTION_SIZE] values each: the capture time, the
+   * measured pose, the gains it was fused with, and the odometry and corrected poses at that time.
+   */
+  private val corrections = DoubleArray(CORRECTION_COUNT * CORRECTION_SIZE)
+  private var correctionCount = 0
+
+  // Whether a correction was dropped to make room, so estimates before the oldest kept one are lost
+  private var droppedCorrection = false
+
+  // Module distances and gyro angle at the last update
+  private val previousDistances = DoubleArray(FourModuleKinematics.MODULE_COUNT)
+  private val distanceDeltas = DoubleArray(FourModuleKinematics.MODULE_COUNT)
+  private var previousGyro = 0.0
+  private var gyroOffset = 0.0
+
+  // Kalman gains for x, y and heading
+  private val stateVariances = DoubleArray(3)
+  private val visionVariances = DoubleArray(3)
+  private val visionGains = DoubleArray(3)
+
+  // Scratch buffers reused by every update
+  private val twist = DoubleArray(3)
+  private val poseAtTime = DoubleArray(3)
+  private val estimateAtTime = DoubleArray(3)
+  private val estimate = DoubleArray(3)
+  private val correctedPose = DoubleArray(3)
+
+  init {
+    setStateStdDevs(0.1, 0.1, 0.1)
+    setVisionMeasurementStdDevs(0.9, 0.9, 0.9)
+  }
+
+  /**
+   * Sets how much the odometry is trusted. Smaller values trust the odometry more.
+   *
+   * @param x The standard deviation of the x position in meters.
+   * @param y The standard deviation of the y position in meters.
+   * @param theta The standard deviation of the heading in radians.
+   */
+  fun setStateStdDevs(x: Double, y: Double, theta: Double) {
+    stateVariances[0] = x * x
+    stateVariances[1] = y * y
+    stateVariances[2] = theta * theta
+    updateGains()
+  }
+
+  /**
+   * Sets how much vision measurements are trusted. Smaller values trust vision more.
+   *
+   * @param x The standard deviation of the x position in meters.
+   * @param y The standard deviation of the y position in meters.
+   * @param theta The standard deviation of the heading in radians.
+   */
+  fun setVisionMeasurementStdDevs(x: Double, y: Double, theta: Double) {
+    visionVariances[0] = x * x
+    visionVariances[1] = y * y
+    visionVariances[2] = theta * theta
+    updateGains()
+  }
+
+  /**
+   * Resets the estimate to a pose and forgets all history.
+   *
+   * @param gyroRadians The current gyro angle in radians.
+   * @param distances The current distance of each module in meters.
+   * @param x The x position of the pose in meters.
+   * @param y The y position of the pose in meters.
+   * @param theta The heading of the pose in radians.
+   */
+  fun resetPosition(
+    gyroRadians: Double,
+    distances: DoubleArray,
+    x: Double,
+    y: Double,
+    theta: Double,
+  ) {
+    odometryX = x
+    odometryY = y
+    odometryTheta = theta
+    gyroOffset = theta - gyroRadians
+    previousGyro = gyroRadians
+    distances.copyInto(previousDistances, 0, 0, FourModuleKinematics.MODULE_COUNT)
+
+    correctionCount = 0
+    droppedCorrection = false
+    history.clear()
+  }
+
+  /**
+   * Updates the odometry with new module and gyro readings.
+   *
+   * @param timestamp The time the readings were taken, in seconds.
+   * @param gyroRadians The gyro angle in radians.
+   * @param distances The distance of each module in meters.
+   * @param angles The angle of each module in rotations.
+   */
+  fun updateWithTime(
+    timestamp: Double,
+    gyroRadians: Double,
+    distances: DoubleArray,
+    angles: DoubleArray,
+  ) {
+    for (i in 0 until FourModuleKinematics.MODULE_COUNT) {
+      distanceDeltas[i] = distances[i] - previousDistances[i]
+      previousDistances[i] = distances[i]
+    }
+
+    // The wheels give the translation, the gyro gives the rotation
+    kinematics.toChassisSpeeds(distanceDeltas, angles, twist)
+    twist[2] = MathUtil.angleModulus(gyroRadians - previousGyro)
+    previousGyro = gyroRadians
+
+    exp(odometryX, odometryY, odometryTheta, twist, poseAtTime)
+    odometryX = poseAtTime[0]
+    odometryY = poseAtTime[1]
+    odometryTheta = MathUtil.angleModulus(gyroRadians + gyroOffset)
+
+    history.add(timestamp, odometryX, odometryY, odometryTheta)
+  }
+
+  /**
+   * Adds a vision measurement, using the vision standard deviations last set.
+   *
+   * @param x The measured x position in meters.
+   * @param y The measured y position in meters.
+   * @param theta The measured heading in radians.
+   * @param timestamp The time the frame was captured, in the same time base as the odometry.
+   * @return Whether the measurement was used, false if it was older than the history or than
+   *   every correction still kept.
+   */
+  fun addVisionMeasurement(x: Double, y: Double, theta: Double, timestamp: Double): Boolean {
+    if (history.size == 0 || timestamp < history.getOldestTimestamp()) {
+      return false
+    }
+
+    // Measurements with the same capture time are applied in the order they arrive
+    var index = correctionCount
+    while (index > 0 && corrections[(index - 1) * CORRECTION_SIZE + TIME] > timestamp) {
+      index--
+    }
+    if (index == 0 && (droppedCorrection || correctionCount == CORRECTION_COUNT)) {
+      return false
+    }
+
+    if (correctionCount == CORRECTION_COUNT) {
+      corrections.copyInto(corrections, 0, CORRECTION_SIZE, correctionCount * CORRECTION_SIZE)
+      correctionCount--
+      index--
+      droppedCorrection = true
+    }
+    corrections.copyInto(
+      corrections,
+      (index + 1) * CORRECTION_SIZE,
+      index * CORRECTION_SIZE,
+      correctionCount * CORRECTION_SIZE,
+    )
+    correctionCount++
+
+    val offset = index * CORRECTION_SIZE
+    corrections[offset + TIME] = timestamp
+    corrections[offset + MEASUREMENT] = x
+    corrections[offset + MEASUREMENT + 1] = y
+    corrections[offset + MEASUREMENT + 2] = theta
+    visionGains.copyInto(corrections, offset + GAINS)
+    history.sample(timestamp, poseAtTime)
+    poseAtTime.copyInto(corrections, offset + ODOMETRY)
+
+    for (i in index until correctionCount) {
+      correct(i)
+    }
+    return true
+  }
+
+  /**
+   * Adds a vision measurement with its own standard deviations.
+   *
+   * @param x The measured x position in meters.
+   * @param y The measured y position in meters.
+   * @param theta The measured heading in radians.
+   * @param timestamp The time the frame was captured, in the same time base as the odometry.
+   * @param stdDevX The standard deviation of the x position in meters.
+   * @param stdDevY The standard deviation of the y position in meters.
+   * @param stdDevTheta The standard deviation of the heading in radians.
+   * @return Whether the measurement was used, false if it was older than the history.
+   */
+  fun addVisionMeasurement(
+    x: Double,
+    y: Double,
+    theta: Double,
+    timestamp: Double,
+    stdDevX: Double,
+    stdDevY: Double,
+    stdDevTheta: Double,
+  ): Boolean {
+    setVisionMeasurementStdDevs(stdDevX, stdDevY, stdDevTheta)
+    return addVisionMeasurement(x, y, theta, timestamp)
+  }
+
+  /**
+   * Gets the current estimate without allocating.
+   *
+   * @param pose Filled with the x, y and heading of the estimate.
+   */
+  fun getEstimate(pose: DoubleArray) {
+    estimate[0] = odometryX
+    estimate[1] = odometryY
+    estimate[2] = odometryTheta
+    applyCorrection(correctionCount - 1, estimate, pose)
+  }
+
+  /**
+   * Gets the current estimate.
+   *
+   * @return The estimated pose.
+   */
+  fun getEstimatedPosition(): Pose2d {
+    getEstimate(estimate)
+    return Pose2d(estimate[0], estimate[1], Rotation2d(estimate[2]))
+  }
+
+  /** Recomputes the Kalman gains after the odometry or vision standard deviations change. */
+  private fun updateGains() {
+    for (i in 0 until 3) {
+      visionGains[i] = gain(stateVariances[i], visionVariances[i])
+    }
+  }
+
+  /**
+   * Computes the corrected pose of a kept correction, from its measurement and the estimate the
+   * corrections before it give at its capture time.
+   *
+   * @param index The index of the correction.
+   */
+  private fun correct(index: Int) {
+    val offset = index * CORRECTION_SIZE
+    corrections.copyInto(poseAtTime, 0, offset + ODOMETRY, offset + ODOMETRY + 3)
+    applyCorrection(index - 1, poseAtTime, estimateAtTime)
+
+    // Move that estimate part of the way towards the measurement
+    relative(
+      estimateAtTime[0],
+      estimateAtTime[1],
+      estimateAtTime[2],
+      corrections[offset + MEASUREMENT],
+      corrections[offset + MEASUREMENT + 1],
+      corrections[offset + MEASUREMENT + 2],
+      twist,
+    )
+    log(twist)
+    for (i in 0 until 3) {
+      twist[i] *= corrections[offset + GAINS + i]
+    }
+    exp(estimateAtTime[0], estimateAtTime[1], estimateAtTime[2], twist, correctedPose)
+    correctedPose.copyInto(corrections, offset + POSE)
+  }
+
+  /**
+   * Applies a kept vision correction to an odometry pose taken at or after its capture time.
+   *
+   * @param index The index of the correction, or -1 to apply none.
+   * @param odometryPose The odometry pose.
+   * @param result Filled with the corrected pose, may be the same array as the odometry pose.
+   */
+  private fun applyCorrection(index: Int, odometryPose: DoubleArray, result: DoubleArray) {
+    if (index < 0) {
+      odometryPose.copyInto(result)
+      return
+    }
+
+    // The corrected pose, moved by however much odometry moved since the correction
+    val offset = index * CORRECTION_SIZE
+    relative(
+      corrections[offset + ODOMETRY],
+      corrections[offset + ODOMETRY + 1],
+      corrections[offset + ODOMETRY + 2],
+      odometryPose[0],
+      odometryPose[1],
+      odometryPose[2],
+      result,
+    )
+    val dx = result[0]
+    val dy = result[1]
+    val dTheta = result[2]
+    val correctedTheta = corrections[offset + POSE + 2]
+    val cos = cos(correctedTheta)
+    val sin = sin(correctedTheta)
+    result[0] = corrections[offset + POSE] + dx * cos - dy * sin
+    result[1] = corrections[offset + POSE + 1] + dx * sin + dy * cos
+    result[2] = MathUtil.angleModulus(correctedTheta + dTheta)
+  }
+
+  companion object {
+    /** Number of vision corrections kept, how far out of order measurements can arrive. */
+    const val CORRECTION_COUNT = 8
+
+    // Offsets of the values of one correction
+    private const val TIME = 0
+    private const val MEASUREMENT = 1
+    private const val GAINS = 4
+    private const val ODOMETRY = 7
+    private const val POSE = 10
+    private const val CORRECTION_SIZE = 13
+
+    /**
+     * Computes the steady state Kalman gain for one axis, the same closed form the WPILib
+     * estimator uses.
+     *
+     * @param stateVariance The variance of the odometry.
+     * @param visionVariance The variance of the vision measurement.
+     * @return How far to move towards a measurement, between 0 and 1.
+     */
+    private fun gain(stateVariance: Double, visionVariance: Double): Double {
+      if (stateVariance == 0.0) {
+        return 0.0
+      }
+      return stateVariance / (stateVariance + sqrt(stateVariance * visionVariance))
+    }
+
+    /**
+     * Computes the pose of b relative to a, like Pose2d.minus.
+     *
+     * @param result Filled with the relative x, y and heading.
+     */
+    private fun relative(
+      ax: Double,
+      ay: Double,
+      aTheta: Double,
+      bx: Double,
+      by: Double,
+      bTheta: Double,
+      result: DoubleArray,
+    ) {
+      val dx = bx - ax
+      val dy = by - ay
+      val cos = cos(aTheta)
+      val sin = sin(aTheta)
+      result[0] = dx * cos + dy * sin
+      result[1] = -dx * sin + dy * cos
+      result[2] = MathUtil.angleModulus(bTheta - aTheta)
+    }
+
+    /**
+     * Moves a pose along a twist, like Pose2d.exp.
+     *
+     * @param twist The dx, dy and dtheta of the twist, in the frame of the pose.
+     * @param result Filled with the new x, y and heading.
+     */
+    private fun exp(x: Double, y: Double, theta: Double, twist: DoubleArray, result: DoubleArray) {
+      val dx = twist[0]
+      val dy = twist[1]
+      val dTheta = twist[2]
+      val sinTheta = sin(dTheta)
+      val cosTheta = cos(dTheta)
+
+      val s: Double
+      val c: Double
+      if (abs(dTheta) < 1e-9) {
+        s = 1.0 - dTheta * dTheta / 6.0
+        c = 0.5 * dTheta
+      } else {
+        s = sinTheta / dTheta
+        c = (1.0 - cosTheta) / dTheta
+      }
+
+      val localX = dx * s - dy * c
+      val localY = dx * c + dy * s
+      val cos = cos(theta)
+      val sin = sin(theta)
+      result[0] = x + localX * cos - localY * sin
+      result[1] = y + localX * sin + localY * cos
+      result[2] = MathUtil.angleModulus(theta + dTheta)
+    }
+
+    /**
+     * Turns a relative pose into the twist that reaches it, like Pose2d.log.
+     *
+     * @param transform The relative x, y and heading, replaced by the twist.
+     */
+    private fun log(transform: DoubleArray) {
+      val x = transform[0]
+      val y = transform[1]
+      val dTheta = transform[2]
+      val halfDTheta = dTheta / 2.0
+      val cosMinusOne = cos(dTheta) - 1.0
+
+      val halfThetaByTanOfHalfDTheta =
+        if (abs(cosMinusOne) < 1e-9) {
+          1.0 - dTheta * dTheta / 12.0
+        } else {
+          -(halfDTheta * sin(dTheta)) / cosMinusOne
+        }
+
+      // Rotate by (halfThetaByTanOfHalfDTheta, -halfDTheta) and scale by its length in one step
+      transform[0] = x * halfThetaByTanOfHalfDTheta + y * halfDTheta
+      transform[1] = -x * halfDTheta + y * halfThetaByTanOfHalfDTheta
+      transform[2] = dTheta
+    }
+  }
+}
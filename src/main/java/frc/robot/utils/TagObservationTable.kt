@@ -0,0 +1,164 @@
+package frc.robot.utils
+
+/**
+ * The latest observation of every AprilTag from every camera, indexed by tag ID.
+ *
+ * Each value is kept in a primitive array at `camera * (maxTagId + 1) + tagId`, so looking up any
+ * tag is a single array read and recording a frame never allocates. A tag counts as visible to a
+ * camera only if it was in that camera's latest frame.
+ *
+ * @param maxTagId The largest tag ID on the field, from the AprilTagFieldLayout.
+ * @param cameraCount The number of cameras.
+ */
+class TagObservationTable(maxTagId: Int, val cameraCount: Int) {
+  /** Number of slots per camera, one per possible tag ID. */
+  val tagCount = maxTagId + 1
+
+  private val yaws = DoubleArray(tagCount * cameraCount)
+  private val pitches = DoubleArray(tagCount * cameraCount)
+  private val ambiguities = DoubleArray(tagCount * cameraCount)
+  private val ranges = DoubleArray(tagCount * cameraCount)
+  private val timestamps = DoubleArray(tagCount * cameraCount) { Double.NaN }
+
+  /** Capture time of the latest frame of each camera. */
+  private val frameTimestamps = DoubleArray(cameraCount) { Double.NaN }
+
+  /**
+   * Starts recording a new frame. Tags from older frames of this camera stop being visible.
+   *
+   * @param camera The index of the camera.
+   * @param timestamp The time the frame was captured, in seconds.
+   */
+  fun beginFrame(camera: Int, timestamp: Double) {
+    frameTimestamps[camera] = timestamp
+  }
+
+  /**
+   * Records a tag seen in the frame started with [beginFrame]. Tags with an ID outside the layout
+   * are ignored.
+   *
+   * @param camera The index of the camera.
+   * @param tagId The fiducial ID of the tag.
+   * @param yaw The yaw to the tag in degrees.
+   * @param pitch The pitch to the tag in degrees.
+   * @param ambiguity The pose ambiguity of the tag.
+   * @param range The distance to the tag in meters.
+   */
+  fun record(
+    camera: Int,
+    tagId: Int,
+    yaw: Double,
+    pitch: Double,
+    ambiguity: Double,
+    range: Double,
+  ) {
+    if (tagId < 0 || tagId >= tagCount) {
+      return
+    }
+
+    val index = camera * tagCount + tagId
+    yaws[index] = yaw
+    pitches[index] = pitch
+    ambiguities[index] = ambiguity
+    ranges[index] = range
+    timestamps[index] = frameTimestamps[camera]
+  }
+
+  /**
+   * Checks whether a camera saw a tag in its latest frame.
+   *
+   * @param camera The index of the camera.
+   * @param tagId The fiducial ID of the tag.
+   * @return Whether the tag is visible to the camera.
+   */
+  fun isVisible(camera: Int, tagId: Int): Boolean {
+    if (tagId < 0 || tagId >= tagCount) {
+      return false
+    }
+    return timestamps[camera * tagCount + tagId] == frameTimestamps[camera]
+  }
+
+  /**
+   * Checks whether any camera saw a tag in its latest frame.
+   *
+   * @param tagId The fiducial ID of the tag.
+   * @return Whether the tag is visible to any camera.
+   */
+  fun isVisible(tagId: Int): Boolean {
+    return getBestCamera(tagId) >= 0
+  }
+
+  /**
+   * Finds the camera that currently sees a tag with the lowest pose ambiguity.
+   *
+   * @param tagId The fiducial ID of the tag.
+   * @return The index of the camera, or -1 if no camera sees the tag.
+   */
+  fun getBestCamera(tagId: Int): Int {
+    var best = -1
+    for (camera in 0 until cameraCount) {
+      if (
+        isVisible(camera, tagId) &&
+          (best < 0 || getAmbiguity(camera, tagId) < getAmbiguity(best, tagId))
+      ) {
+        best = camera
+      }
+    }
+    return best
+  }
+
+  /**
+   * Gets the yaw to a tag from its latest observation.
+   *
+   * @param camera The index of the camera.
+   * @param tagId The fiducial ID of the tag.
+   * @return The yaw in degrees.
+   */
+  fun getYaw(camera: Int, tagId: Int): Double {
+    return yaws[camera * tagCount + tagId]
+  }
+
+  /**
+   * Gets the pitch to a tag from its latest observation.
+   *
+   * @param camera The index of the camera.
+   * @param tagId The fiducial ID of the tag.
+   * @return The pitch in degrees.
+   */
+  fun getPitch(camera: Int, tagId: Int): Double {
+    return pitches[camera * tagCount + tagId]
+  }
+
+  /**
+   * Gets the pose ambiguity of a tag from its latest observation.
+   *
+   * @param camera The index of the camera.
+   * @param tagId The fiducial ID of the tag.
+   * @return The pose ambiguity.
+   */
+  fun getAmbiguity(camera: Int, tagId: Int): Double {
+    return ambiguities[camera * tagCount + tagId]
+  }
+
+  /**
+   * Gets the distance to a tag from its latest observation.
+   *
+   * @param camera The index of the camera.
+   * @param tagId The fiducial ID of the tag.
+   * @return The distance in meters, NaN if the height of the tag is unknown.
+   */
+  fun getRange(camera: Int, tagId: Int): Double {
+    return ranges[camera * tagCount + tagId]
+  }
+
+  /**
+   * Gets the time a camera last saw a tag.
+   *
+   * @param camera The index of the camera.
+   * @param tagId The fiducial ID of the tag.
+   * @return The capture time in seconds, NaN if the camera never saw the tag.
+   */
+  fun getTimestamp(camera: Int, tagId: Int): Double {
+    return timestamps[camera * tagCount + tagId]
+  }
+}
@@ -0,0 +1,82 @@
+package frc.robot.utils
+
+import edu.wpi.first.networktables.BooleanPublisher
+import edu.wpi.first.networktables.DoubleArrayPublisher
+import edu.wpi.first.networktables.DoublePublisher
+import edu.wpi.first.networktables.NetworkTable
+import edu.wpi.first.networktables.NetworkTableInstance
+import edu.wpi.first.networktables.RawPublisher
+import edu.wpi.first.networktables.StringPublisher
+import edu.wpi.first.util.struct.Struct
+
+/**
+ * Registers telemetry signals as typed NetworkTables publishers.
+ *
+ * Each signal is registered once, usually when its owner is constructed, and the publisher is
+ * kept in a field. Publishing is then a call on the publisher with a primitive or the bytes of a
+ * struct: no key is built, no entry is looked up by name and no value is boxed. Signals are
+ * published under the SmartDashboard table, so they show up where the SmartDashboard values used
+ * to.
+ *
+ * Geometry and module states are published as WPILib structs, which dashboards such as
+ * AdvantageScope decode directly, written in place so publishing them does not allocate.
+ */
+object Telemetry {
+  /** The table every signal is published under. */
+  val table: NetworkTable = NetworkTableInstance.getDefault().getTable("SmartDashboard")
+
+  /**
+   * Registers a number signal.
+   *
+   * @param key The key of the signal, relative to the SmartDashboard table.
+   * @return The publisher of the signal.
+   */
+  fun number(key: String): DoublePublisher {
+    return table.getDoubleTopic(key).publish()
+  }
+
+  /**
+   * Registers a boolean signal.
+   *
+   * @param key The key of the signal, relative to the SmartDashboard table.
+   * @return The publisher of the signal.
+   */
+  fun boolean(key: String): BooleanPublisher {
+    return table.getBooleanTopic(key).publish()
+  }
+
+  /**
+   * Registers a string signal.
+   *
+   * @param key The key of the signal, relative to the SmartDashboard table.
+   * @return The publisher of the signal.
+   */
+  fun string(key: String): StringPublisher {
+    return table.getStringTopic(key).publish()
+  }
+
+  /**
+   * Registers a number array signal.
+   *
+   * @param key The key of the signal, relative to the SmartDashboard table.
+   * @return The publisher of the signal.
+   */
+  fun numberArray(key: String): DoubleArrayPublisher {
+    return table.getDoubleArrayTopic(key).publish()
+  }
+
+  /**
+   * Registers a struct signal, such as a pose, published from the raw bytes of the struct. The
+   * owner fills a reused little endian buffer in place, so immutable values such as a Rotation2d
+   * never have to be created to publish them.
+   *
+   * @param key The key of the signal, relative to the SmartDashboard table.
+   * @param struct The struct of the value, such as Pose2d.struct, or of every element.
+   * @param array Whether the signal is an array of structs, such as the states of every module.
+   * @return The publisher of the signal.
+   */
+  fun rawStruct(key: String, struct: Struct<*>, array: Boolean = false): RawPublisher {
+    table.instance.addSchema(struct)
+    return table.getRawTopic(key).publish(struct.typeString + if (array) "[]" else "")
+  }
+}
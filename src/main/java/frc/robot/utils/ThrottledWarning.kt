@@ -0,0 +1,46 @@
+package frc.robot.utils
+
+import edu.wpi.first.wpilibj.DriverStation
+
+/**
+ * A warning that is reported to the Driver Station at most once per period, no matter how often
+ * it happens. The number of times it happened in between is added to the next report, so a
+ * problem hit every loop does not flood the console or stall the loop on console output.
+ *
+ * @param message The warning to report.
+ * @param periodSeconds The shortest time between two reports.
+ */
+class ThrottledWarning(private val message: String, periodSeconds: Double = 1.0) {
+  private val periodNanos = (periodSeconds * 1e9).toLong()
+  private var lastReportNanos = 0L
+  private var suppressed = 0L
+
+  /** Number of times the warning happened. */
+  @Volatile
+  var count = 0L
+    private set
+
+  /**
+   * Records that the warning happened, reporting it if the last report is old enough.
+   *
+   * @param detail What went wrong this time, such as an exception message, added to the report.
+   *   Occurrences that are not reported drop their detail.
+   */
+  @Synchronized
+  fun report(detail: String? = null) {
+    count++
+    val now = System.nanoTime()
+    if (lastReportNanos != 0L && now - lastReportNanos < periodNanos) {
+      suppressed++
+      return
+    }
+    lastReportNanos = now
+    val text = if (detail == null) message else "$message: $detail"
+    if (suppressed == 0L) {
+      DriverStation.reportWarning(text, false)
+    } else {
+      DriverStation.reportWarning("$text ($suppressed more since last report)", false)
+    }
+    suppressed = 0L
+  }
+}
@@ -0,0 +1,208 @@
+package frc.robot.utils
+
+import kotlin.math.abs
+import kotlin.math.atan2
+import kotlin.math.cos
+import kotlin.math.sin
+import kotlin.math.sqrt
+
+/**
+ * Merges the pose estimates of several cameras into one measurement per frame time.
+ *
+ * Estimates captured within [windowSeconds] of each other are combined with inverse variance
+ * weights, so a camera that sees more tags, or closer tags, counts for more, and the merged
+ * standard deviation is smaller than any single camera's. The cameras' frames of the same time do
+ * not always arrive in the same robot loop, so an estimate waits for a camera that is still
+ * expected to send one of the same time: a camera that sent an estimate within [activeSeconds],
+ * and whose latest capture is older than this one. It waits for up to one window after it was
+ * received. An estimate that no other camera is expected to match is released at once, so a
+ * camera that sees tags on its own adds no delay. Pending estimates live in primitive arrays, so
+ * nothing is allocated.
+ *
+ * @param cameraCount The number of cameras.
+ * @param windowSeconds How close two capture times must be to count as the same frame, and how
+ *   long an estimate waits for the other cameras.
+ * @param activeSeconds How long after its last estimate a camera is still waited for.
+ */
+class VisionFusion(
+  private val cameraCount: Int,
+  private val windowSeconds: Double,
+  private val activeSeconds: Double,
+) {
+  private val capacity = cameraCount * SLOTS_PER_CAMERA
+
+  // One pending estimate per slot
+  private val used = BooleanArray(capacity)
+  private val cameras = IntArray(capacity)
+  private val xs = DoubleArray(capacity)
+  private val ys = DoubleArray(capacity)
+  private val thetas = DoubleArray(capacity)
+  private val timestamps = DoubleArray(capacity)
+  private val receivedTimes = DoubleArray(capacity)
+  private val translationStdDevs = DoubleArray(capacity)
+  private val rotationStdDevs = DoubleArray(capacity)
+
+  /** Slot of each camera's estimate in the measurement being merged, -1 for none. */
+  private val group = IntArray(cameraCount)
+
+  // When each camera's last estimate was received, and its latest capture time
+  private val lastReceivedTimes = DoubleArray(cameraCount) { Double.NEGATIVE_INFINITY }
+  private val lastCaptureTimes = DoubleArray(cameraCount) { Double.NEGATIVE_INFINITY }
+
+  /** Number of estimates replaced before they were fused because every slot was in use. */
+  var droppedEstimates = 0L
+    private set
+
+  /**
+   * Adds the estimate of one camera.
+   *
+   * @param camera The index of the camera.
+   * @param x The estimated x position in meters.
+   * @param y The estimated y position in meters.
+   * @param theta The estimated heading in radians.
+   * @param timestamp The time the frame was captured, in seconds.
+   * @param translationStdDev The standard deviation of the position in meters.
+   * @param rotationStdDev The standard deviation of the heading in radians.
+   * @param receivedTime The time the estimate reached the robot loop, in seconds.
+   */
+  fun add(
+    camera: Int,
+    x: Double,
+    y: Double,
+    theta: Double,
+    timestamp: Double,
+    translationStdDev: Double,
+    rotationStdDev: Double,
+    receivedTime: Double,
+  ) {
+    var slot = used.indexOfFirst { !it }
+    if (slot < 0) {
+      // Every slot is waiting, give up on the oldest capture
+      slot = findOldest()
+      droppedEstimates++
+    }
+    used[slot] = true
+    cameras[slot] = camera
+    xs[slot] = x
+    ys[slot] = y
+    thetas[slot] = theta
+    timestamps[slot] = timestamp
+    receivedTimes[slot] = receivedTime
+    translationStdDevs[slot] = translationStdDev
+    rotationStdDevs[slot] = rotationStdDev
+    lastReceivedTimes[camera] = receivedTime
+    lastCaptureTimes[camera] = maxOf(lastCaptureTimes[camera], timestamp)
+  }
+
+  /**
+   * Takes the oldest pending estimate and merges the estimate of every other camera from the same
+   * frame time into it, once no other camera is expected to send one or the oldest has waited for
+   * one window. Call until it returns false to drain every estimate that is ready, in time order.
+   *
+   * @param measurement Filled with x, y, heading, timestamp, position standard deviation and
+   *   heading standard deviation of the merged measurement.
+   * @param now The current time, in the same time base as the received times.
+   * @return Whether there was an estimate ready.
+   */
+  fun poll(measurement: DoubleArray, now: Double): Boolean {
+    val oldest = findOldest()
+    if (oldest < 0) {
+      return false
+    }
+
+    // The estimate of each camera captured closest to the oldest, within the window
+    group.fill(-1)
+    for (slot in 0 until capacity) {
+      val offset = abs(timestamps[slot] - timestamps[oldest])
+      if (!used[slot] || offset > windowSeconds) {
+        continue
+      }
+      val current = group[cameras[slot]]
+      if (current < 0 || offset < abs(timestamps[current] - timestamps[oldest])) {
+        group[cameras[slot]] = slot
+      }
+    }
+    if (now - receivedTimes[oldest] < windowSeconds && isExpected(timestamps[oldest], now)) {
+      return false
+    }
+
+    var translationWeight = 0.0
+    var rotationWeight = 0.0
+    var x = 0.0
+    var y = 0.0
+    var sinSum = 0.0
+    var cosSum = 0.0
+    var timestamp = 0.0
+    for (slot in group) {
+      if (slot < 0) {
+        continue
+      }
+      used[slot] = false
+
+      val translationVariance = translationStdDevs[slot] * translationStdDevs[slot]
+      val rotationVariance = rotationStdDevs[slot] * rotationStdDevs[slot]
+      val wt = 1.0 / translationVariance
+      val wr = 1.0 / rotationVariance
+      translationWeight += wt
+      rotationWeight += wr
+      x += xs[slot] * wt
+      y += ys[slot] * wt
+      timestamp += timestamps[slot] * wt
+      // Headings are averaged as unit vectors so they wrap correctly
+      sinSum += sin(thetas[slot]) * wr
+      cosSum += cos(thetas[slot]) * wr
+    }
+
+    measurement[0] = x / translationWeight
+    measurement[1] = y / translationWeight
+    measurement[2] = atan2(sinSum, cosSum)
+    measurement[3] = timestamp / translationWeight
+    measurement[4] = sqrt(1.0 / translationWeight)
+    measurement[5] = sqrt(1.0 / rotationWeight)
+    return true
+  }
+
+  /**
+   * Checks whether a camera missing from the group being merged may still send an estimate
+   * captured at its time: it sent an estimate recently, and none captured after that time.
+   *
+   * @param timestamp The capture time of the group.
+   * @param now The current time, in the same time base as the received times.
+   * @return Whether the group should wait.
+   */
+  private fun isExpected(timestamp: Double, now: Double): Boolean {
+    for (camera in 0 until cameraCount) {
+      if (
+        group[camera] < 0 &&
+          now - lastReceivedTimes[camera] < activeSeconds &&
+          lastCaptureTimes[camera] < timestamp - windowSeconds
+      ) {
+        return true
+      }
+    }
+    return false
+  }
+
+  /**
+   * Finds the pending estimate captured first.
+   *
+   * @return Its slot, or -1 if nothing is pending.
+   */
+  private fun findOldest(): Int {
+    var oldest = -1
+    for (slot in 0 until capacity) {
+      if (used[slot] && (oldest < 0 || timestamps[slot] < timestamps[oldest])) {
+        oldest = slot
+      }
+    }
+    return oldest
+  }
+
+  companion object {
+    /** Number of values [poll] fills in. */
+    const val MEASUREMENT_SIZE = 6
+
+    /** Number of estimates each camera can have waiting, enough for a few frames per loop. */
+    private const val SLOTS_PER_CAMERA = 4
+  }
+}
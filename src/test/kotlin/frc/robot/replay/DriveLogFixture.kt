@@ -0,0 +1,144 @@
+package frc.robot.replay
+
+import edu.wpi.first.hal.HAL
+import edu.wpi.first.math.geometry.Pose2d
+import edu.wpi.first.math.geometry.Pose3d
+import edu.wpi.first.math.geometry.Rotation2d
+import edu.wpi.first.math.geometry.Rotation3d
+import edu.wpi.first.util.datalog.DataLog
+import edu.wpi.first.wpilibj.TimedRobot
+import edu.wpi.first.wpilibj.simulation.SimHooks
+import frc.robot.subsystems.CameraIOFake
+import frc.robot.subsystems.CameraSnapshot
+import frc.robot.subsystems.PhotonVision
+import frc.robot.subsystems.SwerveIO
+import frc.robot.subsystems.SwerveSubsystem
+import frc.robot.utils.DriveLog
+import frc.robot.utils.GlobalsValues.PhotonVisionConstants
+import frc.robot.utils.GlobalsValues.SwerveGlobalValues
+import java.nio.file.Path
+import kotlin.math.cos
+import kotlin.math.sin
+import org.photonvision.EstimatedRobotPose
+import org.photonvision.PhotonPoseEstimator.PoseStrategy
+
+/**
+ * Records the drive log [DriveReplayTest] replays, by running the real [PhotonVision] and
+ * [SwerveSubsystem] with a [DriveLog] on the ideal simulated drive and two fake cameras. The FPGA
+ * clock is paused and stepped by one loop period, and the subsystems run in the order the
+ * scheduler runs them, followed by the drive command.
+ *
+ * The robot drives forward at 1 m/s while turning for one second. Every other loop both cameras
+ * see two tags and estimate a pose a few centimeters off the odometry, captured 30 ms earlier.
+ * Every third of camera 2's frames reaches the robot a loop after camera 1's frame of the same
+ * time, some of its frames have no estimate, and the pose is reset halfway.
+ */
+object DriveLogFixture {
+  /** Robot loops recorded. */
+  const val LOOPS = 50
+
+  /** Camera frames recorded, one from each camera every other loop. */
+  const val FRAMES = LOOPS
+
+  /** Pose resets recorded, the drive's own when it is constructed and the one halfway. */
+  const val RESETS = 2
+
+  private const val FILE_NAME = "drive-replay.wpilog"
+  private const val RESET_LOOP = LOOPS / 2
+  private const val LATENCY = 0.03
+  private const val FORWARD_SPEED = 1.0
+  private const val TURN_SPEED = 0.2
+
+  /**
+   * Records the log.
+   *
+   * @param directory The directory to write the log to.
+   * @return The path of the log.
+   * @throws IllegalStateException If the HAL cannot be initialized or the drive log dropped
+   *   records.
+   */
+  fun record(directory: Path): String {
+    check(HAL.initialize(500, 0)) { "Failed to initialize the HAL" }
+    SimHooks.pauseTiming()
+    SimHooks.restartTiming()
+
+    val log = DataLog(directory.toString(), FILE_NAME)
+    val driveLog = DriveLog(log, SwerveGlobalValues.MODULE_COUNT)
+    driveLog.start()
+    val cameras = Array(PhotonVisionConstants.CAMERA_COUNT) { CameraIOFake() }
+    val vision = PhotonVision(driveLog, cameras)
+    val swerve = SwerveSubsystem(vision, driveLog, SwerveIO.sim())
+
+    var lateFrame: CameraSnapshot? = null
+    for (loop in 1..LOOPS) {
+      SimHooks.stepTiming(TimedRobot.kDefaultPeriod)
+
+      lateFrame?.let { cameras[1].publish(it) }
+      lateFrame = null
+      if (loop % 2 == 0) {
+        val sequence = loop / 2L
+        val captureTime = loop * TimedRobot.kDefaultPeriod - LATENCY
+        cameras[0].publish(frame(sequence, captureTime, 0.0, true))
+        val frame = frame(sequence, captureTime, 0.04, loop % 10 != 0)
+        if (loop % 6 == 0) {
+          lateFrame = frame
+        } else {
+          cameras[1].publish(frame)
+        }
+      }
+
+      vision.periodic()
+      swerve.periodic()
+      if (loop == RESET_LOOP) {
+        swerve.newPose(Pose2d(1.0, 0.5, Rotation2d(0.2)))
+      }
+      swerve.getDriveSpeeds(FORWARD_SPEED, 0.0, TURN_SPEED, false)
+    }
+
+    driveLog.stop()
+    log.close()
+    check(driveLog.overflows == 0L) { "The drive log dropped ${driveLog.overflows} records" }
+    return directory.resolve(FILE_NAME).toString()
+  }
+
+  /**
+   * Builds a camera frame that sees two tags.
+   *
+   * @param sequence The number of the frame.
+   * @param captureTime The time the frame was captured in FPGA seconds.
+   * @param offset How far the estimate is off to the left, in meters.
+   * @param hasEstimate Whether the frame estimates a pose.
+   * @return The frame.
+   */
+  private fun frame(
+    sequence: Long,
+    captureTime: Double,
+    offset: Double,
+    hasEstimate: Boolean,
+  ): CameraSnapshot {
+    val estimate =
+      EstimatedRobotPose(
+        Pose3d(
+          FORWARD_SPEED * captureTime + 0.02 * sin(10.0 * captureTime),
+          offset + 0.03 * cos(7.0 * captureTime),
+          0.0,
+          Rotation3d(0.0, 0.0, 0.1 * captureTime + 0.01),
+        ),
+        captureTime,
+        emptyList(),
+        PoseStrategy.MULTI_TAG_PNP_ON_COPROCESSOR,
+      )
+    return CameraSnapshot(
+      sequence,
+      captureTime,
+      intArrayOf(3, 4),
+      doubleArrayOf(-5.0 + captureTime, 5.0 - captureTime),
+      doubleArrayOf(2.0, 2.5),
+      doubleArrayOf(0.05, 0.08),
+      doubleArrayOf(3.0, 3.2),
+      if (hasEstimate) estimate else null,
+      0.3,
+      0.4,
+    )
+  }
+}
@@ -0,0 +1,66 @@
+package frc.robot.replay
+
+import java.nio.file.Path
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertNotEquals
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
+
+/**
+ * Replays the drive log recorded by [DriveLogFixture] through the drive and vision subsystems:
+ * one second driving forward while turning, with two cameras whose frames sometimes reach the
+ * robot a loop apart and a pose reset halfway.
+ */
+class DriveReplayTest {
+  @TempDir lateinit var directory: Path
+
+  private lateinit var log: String
+
+  /** Records the log of the test. */
+  @BeforeEach
+  fun recordLog() {
+    log = DriveLogFixture.record(directory)
+  }
+
+  /** Replaying the same log twice gives bit-identical poses. */
+  @Test
+  fun replayIsDeterministic() {
+    val first = DriveReplay(log, useVision = true).run()
+    val second = DriveReplay(log, useVision = true).run()
+
+    assertEquals(first.loops, second.loops)
+    assertEquals(first.checksum, second.checksum)
+  }
+
+  /**
+   * Every record is replayed, and the subsystems estimate the pose the robot recorded. Camera
+   * rotations are rebuilt from their quaternions, which can move a heading by a rounding error.
+   */
+  @Test
+  fun replayMatchesRecording() {
+    val result = DriveReplay(log, useVision = true).run()
+
+    assertEquals(DriveLogFixture.LOOPS.toLong(), result.loops)
+    assertEquals(DriveLogFixture.LOOPS.toLong(), result.odometrySamples)
+    assertEquals(DriveLogFixture.FRAMES.toLong(), result.cameraFrames)
+    assertEquals(DriveLogFixture.RESETS.toLong(), result.resets)
+    assertTrue(result.maxError < TOLERANCE, "Replayed poses are ${result.maxError} m off")
+  }
+
+  /** The recorded frames reach the pose estimate through the vision subsystem. */
+  @Test
+  fun replayUsesCameraFrames() {
+    val withVision = DriveReplay(log, useVision = true).run()
+    val withoutVision = DriveReplay(log, useVision = false).run()
+
+    assertNotEquals(withVision.checksum, withoutVision.checksum)
+    assertTrue(withoutVision.maxError > TOLERANCE, "Vision did not move the recorded poses")
+  }
+
+  private companion object {
+    /** Largest distance allowed between a replayed and a recorded pose, in meters. */
+    const val TOLERANCE = 1e-9
+  }
+}
@@ -0,0 +1,217 @@
+package frc.robot.sim
+
+import edu.wpi.first.hal.AllianceStationID
+import edu.wpi.first.hal.HAL
+import edu.wpi.first.math.geometry.Pose2d
+import edu.wpi.first.wpilibj.DriverStation
+import edu.wpi.first.wpilibj.TimedRobot
+import edu.wpi.first.wpilibj.simulation.DriverStationSim
+import edu.wpi.first.wpilibj.simulation.SimHooks
+import frc.robot.Robot
+import frc.robot.subsystems.CameraIOSim
+import frc.robot.subsystems.ModuleIOSim
+import frc.robot.subsystems.SwerveIO
+import frc.robot.utils.GlobalsValues.PhotonVisionConstants
+import frc.robot.utils.GlobalsValues.SwerveGlobalValues
+import frc.robot.utils.LogitechGamingPad
+import frc.robot.utils.LoopTimer
+
+/**
+ * Runs the whole robot against the HAL simulator without a GUI or driver station, as fast as the
+ * robot loop allows. The tests drive it, see [HeadlessSimulationTest] and [LoopBudgetTest].
+ *
+ * The FPGA clock is paused and stepped by one loop period after every loop, so a 15 second auto
+ * takes as long as 750 loops take to run instead of 15 seconds. Every loop calls the same robot
+ * methods, in the same order, as [TimedRobot] does.
+ *
+ * The robot runs on the ideal simulated drive, [ModuleIOSim] modules and their gyro, and on
+ * cameras that never see a tag. The scheduler, the commands, PathPlanner's path following and the
+ * drive's kinematics, odometry and pose estimation all run on the stepped clock. The TalonFX and
+ * Pigeon 2 IO, the Phoenix simulated devices and the [frc.robot.subsystems.SwerveSim] physics are
+ * not covered: Phoenix keeps its own wall-clock time and cannot follow a stepped clock, so
+ * PathPlanner is never run against the real motor control.
+ *
+ * The autonomous period runs the robot's auto as the blue alliance, then a scripted teleop period
+ * drives forward, strafes, turns and stops with the left and right sticks of the gamepad.
+ *
+ * @param autoSeconds How long the autonomous period lasts, in simulated seconds.
+ * @param teleopSeconds How long the scripted teleop period lasts, in simulated seconds.
+ */
+class HeadlessSimulation(
+  private val autoSeconds: Double = 15.0,
+  private val teleopSeconds: Double = 8.0,
+) {
+  private val period = TimedRobot.kDefaultPeriod
+
+  /** Times the loops of each period, never published so the window covers the whole period. */
+  private val autoTimer = LoopTimer(period, Double.POSITIVE_INFINITY)
+  private val teleopTimer = LoopTimer(period, Double.POSITIVE_INFINITY)
+
+  /** The simulated modules, kept to count the calls the robot makes to them. */
+  private val modules = Array(SwerveGlobalValues.MODULE_COUNT) { ModuleIOSim() }
+
+  /**
+   * Boots the robot and runs the autonomous and teleop periods.
+   *
+   * @return The summary of the run.
+   * @throws IllegalStateException If the HAL cannot be initialized.
+   */
+  fun run(): SimulationResult {
+    check(HAL.initialize(500, 0)) { "Failed to initialize the HAL" }
+    SimHooks.pauseTiming()
+    DriverStationSim.setDsAttached(true)
+    DriverStationSim.setAllianceStationId(AllianceStationID.Blue1)
+    DriverStationSim.setJoystickAxisCount(PAD_PORT, PAD_AXIS_COUNT)
+
+    val start = System.nanoTime()
+    val robot =
+      Robot(SwerveIO.sim(modules), Array(PhotonVisionConstants.CAMERA_COUNT) { CameraIOSim() })
+    robot.robotInit()
+    robot.simulationInit()
+
+    setMode(autonomous = true)
+    robot.autonomousInit()
+    val autoLoops = (autoSeconds / period).toInt()
+    repeat(autoLoops) { loop(robot, autoTimer) { robot.autonomousPeriodic() } }
+    val autoEndPose = robot.robotContainer?.swerveSubsystem?.getPose()
+      ?: throw IllegalStateException("Robot not booted")
+
+    setMode(autonomous = false)
+    robot.teleopInit()
+    val teleopLoops = (teleopSeconds / period).toInt()
+    val teleopStartCalls = modules.sumOf { it.deviceCalls }
+    for (i in 0 until teleopLoops) {
+      script(i.toDouble() / teleopLoops)
+      loop(robot, teleopTimer) { robot.teleopPeriodic() }
+    }
+    val teleopCalls = modules.sumOf { it.deviceCalls } - teleopStartCalls
+
+    return SimulationResult(
+      robot,
+      autoLoops + teleopLoops,
+      (autoLoops + teleopLoops) * period,
+      (System.nanoTime() - start) / 1e9,
+      autoEndPose,
+      autoTimer,
+      teleopTimer,
+      if (teleopLoops > 0) teleopCalls.toDouble() / teleopLoops else 0.0,
+    )
+  }
+
+  /**
+   * Runs one robot loop, then steps the clock by one period.
+   *
+   * @param robot The robot.
+   * @param loopTimer Times the loop.
+   * @param modePeriodic The periodic function of the current mode.
+   */
+  private inline fun loop(robot: Robot, loopTimer: LoopTimer, modePeriodic: () -> Unit) {
+    loopTimer.start()
+    DriverStation.refreshData()
+    modePeriodic()
+    robot.robotPeriodic()
+    robot.simulationPeriodic()
+    loopTimer.stop()
+    SimHooks.stepTiming(period)
+  }
+
+  /**
+   * Enables the robot in autonomous or teleop.
+   *
+   * @param autonomous Whether to enable autonomous instead of teleop.
+   */
+  private fun setMode(autonomous: Boolean) {
+    DriverStationSim.setAutonomous(autonomous)
+    DriverStationSim.setEnabled(true)
+    DriverStationSim.notifyNewData()
+    DriverStation.refreshData()
+  }
+
+  /**
+   * Sets the gamepad sticks for the scripted teleop period: forward, left, a turn, then nothing.
+   *
+   * @param progress How far through the teleop period the loop is, from 0 to 1.
+   */
+  private fun script(progress: Double) {
+    val phase = (progress * 4).toInt()
+    DriverStationSim.setJoystickAxis(
+      PAD_PORT,
+      LogitechGamingPad.Axis.LEFT_ANALOG_Y.getAxis(),
+      if (phase == 0) -STICK else 0.0,
+    )
+    DriverStationSim.setJoystickAxis(
+      PAD_PORT,
+      LogitechGamingPad.Axis.LEFT_ANALOG_X.getAxis(),
+      if (phase == 1) -STICK else 0.0,
+    )
+    DriverStationSim.setJoystickAxis(
+      PAD_PORT,
+      LogitechGamingPad.Axis.RIGHT_ANALOG_X.getAxis(),
+      if (phase == 2) STICK else 0.0,
+    )
+    DriverStationSim.notifyNewData()
+  }
+
+  companion object {
+    /** Port and number of axes of the driver's gamepad. */
+    private const val PAD_PORT = 0
+    private const val PAD_AXIS_COUNT = 6
+
+    /** How far the scripted teleop pushes a stick. */
+    private const val STICK = 0.5
+  }
+}
+
+/**
+ * What a [HeadlessSimulation] ran and how long its loops took.
+ *
+ * @param robot The robot that ran, still booted.
+ * @param loops The number of robot loops run.
+ * @param simulatedSeconds The simulated time the loops covered.
+ * @param elapsedSeconds The wall-clock time the run took, including booting the robot.
+ * @param autoEndPose The estimated pose of the robot at the end of the autonomous period.
+ * @param autoTimer The durations and allocations of the autonomous loops.
+ * @param teleopTimer The durations and allocations of the teleop loops.
+ * @param teleopDeviceCalls The mean number of module reads and setpoints per teleop loop.
+ */
+class SimulationResult(
+  val robot: Robot,
+  val loops: Int,
+  val simulatedSeconds: Double,
+  val elapsedSeconds: Double,
+  val autoEndPose: Pose2d,
+  val autoTimer: LoopTimer,
+  val teleopTimer: LoopTimer,
+  val teleopDeviceCalls: Double,
+) {
+  override fun toString(): String {
+    return String.format(
+      "%d loops, %.1f s simulated in %.3f s (%.0fx real time)%n%s%n%s",
+      loops,
+      simulatedSeconds,
+      elapsedSeconds,
+      simulatedSeconds / elapsedSeconds,
+      describe("auto", autoTimer),
+      describe("teleop", teleopTimer),
+    )
+  }
+
+  /**
+   * Describes the loops of one period.
+   *
+   * @param name The name of the period.
+   * @param loopTimer The timer of its loops.
+   * @return One line with the loop time percentiles and allocations.
+   */
+  private fun describe(name: String, loopTimer: LoopTimer): String {
+    return String.format(
+      "%s loop p50 %.2f ms, p99 %.2f ms, max %.2f ms, mean alloc %.0f bytes, max alloc %d bytes",
+      name,
+      loopTimer.percentileMillis(50.0),
+      loopTimer.percentileMillis(99.0),
+      loopTimer.getMaxMillis(),
+      loopTimer.getMeanAllocatedBytes(),
+      loopTimer.maxAllocatedBytes,
+    )
+  }
+}
@@ -0,0 +1,58 @@
+package frc.robot.sim
+
+import edu.wpi.first.math.geometry.Translation2d
+import edu.wpi.first.wpilibj.TimedRobot
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.BeforeAll
+import org.junit.jupiter.api.Test
+
+/**
+ * Boots the whole robot in the [HeadlessSimulation] and checks that the auto and the scripted
+ * teleop drive it. See [HeadlessSimulation] for what the simulation does not cover.
+ */
+class HeadlessSimulationTest {
+  /** Every loop of both periods ran, on the stepped clock. */
+  @Test
+  fun everyLoopRuns() {
+    val period = TimedRobot.kDefaultPeriod
+    val loops = (AUTO_SECONDS / period).toInt() + (TELEOP_SECONDS / period).toInt()
+    assertEquals(loops, result.loops)
+    assertEquals(loops.toLong(), result.autoTimer.count + result.teleopTimer.count)
+  }
+
+  /** The auto follows the straight path from (2, 1) to (3, 1). */
+  @Test
+  fun autoDrivesThePath() {
+    val pose = result.autoEndPose
+    val error = pose.translation.getDistance(AUTO_END)
+    assertTrue(error < POSITION_TOLERANCE, "Auto ended at $pose, $error m from the end of the path")
+  }
+
+  /** The gamepad sticks move the robot in teleop. */
+  @Test
+  fun teleopDrives() {
+    val pose = result.robot.robotContainer!!.swerveSubsystem.getPose()
+    val moved = pose.translation.getDistance(result.autoEndPose.translation)
+    assertTrue(moved > POSITION_TOLERANCE, "Teleop only moved the robot $moved m")
+  }
+
+  companion object {
+    private const val AUTO_SECONDS = 15.0
+    private const val TELEOP_SECONDS = 8.0
+    private const val POSITION_TOLERANCE = 0.3
+
+    /** Where the straight auto ends, on the blue alliance. */
+    private val AUTO_END = Translation2d(3.0, 1.0)
+
+    /** The run every test checks. */
+    private lateinit var result: SimulationResult
+
+    /** Boots the robot and runs the auto and teleop periods once for every test. */
+    @BeforeAll
+    @JvmStatic
+    fun runSimulation() {
+      result = HeadlessSimulation(AUTO_SECONDS, TELEOP_SECONDS).run()
+    }
+  }
+}
@@ -0,0 +1,228 @@
+package frc.robot.sim
+
+import edu.wpi.first.math.geometry.Pose3d
+import edu.wpi.first.math.geometry.Rotation3d
+import edu.wpi.first.wpilibj.Timer
+import frc.robot.subsystems.CameraIOFake
+import frc.robot.subsystems.CameraSnapshot
+import frc.robot.subsystems.PhotonVision
+import frc.robot.utils.GlobalsValues.PhotonVisionConstants
+import frc.robot.utils.VisionFusion
+import java.lang.management.ManagementFactory
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.BeforeAll
+import org.junit.jupiter.api.Tag
+import org.junit.jupiter.api.Test
+import org.photonvision.EstimatedRobotPose
+import org.photonvision.PhotonPoseEstimator.PoseStrategy
+
+/**
+ * Checks the robot loop against its budgets, so a change that makes the drive path allocate again
+ * or adds device calls fails the tests instead of a match.
+ *
+ * The whole robot runs once in the [HeadlessSimulation] for the auto and 3000 teleop loops, which
+ * bounds the allocations and the module calls per loop. [PhotonVision.periodic] is also checked
+ * on its own with a new frame from every camera, by the bytes it allocates. These budgets hold on
+ * any machine, and [frc.robot.subsystems.SwerveSubsystemAllocationTest] checks the drive path on
+ * its own. The loop time and vision time budgets are wall-clock times that depend on the machine,
+ * so they are tagged [TIMING] and only run with ./gradlew test -Ptiming.
+ */
+class LoopBudgetTest {
+  private val threadBean =
+    ManagementFactory.getThreadMXBean() as com.sun.management.ThreadMXBean
+
+  /** Mean bytes the robot thread allocates per auto loop. */
+  @Test
+  fun autoAllocation() {
+    assertWithin(
+      "Auto alloc bytes per loop",
+      result.autoTimer.getMeanAllocatedBytes(),
+      AUTO_ALLOC_BYTES,
+    )
+  }
+
+  /** Mean bytes the robot thread allocates per teleop loop. */
+  @Test
+  fun teleopAllocation() {
+    assertWithin(
+      "Teleop alloc bytes per loop",
+      result.teleopTimer.getMeanAllocatedBytes(),
+      TELEOP_ALLOC_BYTES,
+    )
+  }
+
+  /** Module reads and setpoints per teleop loop: one read and two setpoints per module. */
+  @Test
+  fun moduleCalls() {
+    assertWithin("Module calls per teleop loop", result.teleopDeviceCalls, MODULE_CALLS_PER_LOOP)
+  }
+
+  /** 99th percentile of the whole auto loop, in milliseconds. */
+  @Test
+  @Tag(TIMING)
+  fun autoLoopTime() {
+    assertWithin("Auto loop p99 ms", result.autoTimer.percentileMillis(99.0), AUTO_P99_MILLIS)
+  }
+
+  /** 99th percentile of the whole teleop loop, in milliseconds. */
+  @Test
+  @Tag(TIMING)
+  fun teleopLoopTime() {
+    assertWithin(
+      "Teleop loop p99 ms",
+      result.teleopTimer.percentileMillis(99.0),
+      TELEOP_P99_MILLIS,
+    )
+  }
+
+  /**
+   * Mean bytes [PhotonVision.periodic] allocates with a new frame from every camera. Copying and
+   * fusing the frames works on preallocated arrays, so any work added to the vision path that
+   * allocates, such as building keys, boxing or copying frames, fails this on every machine
+   * instead of only the wall-clock budget.
+   */
+  @Test
+  fun visionPeriodicAllocation() {
+    assertTrue(threadBean.isThreadAllocatedMemoryEnabled, "This JVM cannot measure allocations")
+    var allocatedBytes = 0L
+
+    runVision { vision, measured ->
+      val start = threadBean.currentThreadAllocatedBytes
+      vision.periodic()
+      if (measured) {
+        allocatedBytes += threadBean.currentThreadAllocatedBytes - start
+      }
+    }
+
+    assertWithin(
+      "Vision periodic alloc bytes",
+      allocatedBytes.toDouble() / MEASURED_CALLS,
+      VISION_ALLOC_BYTES,
+    )
+  }
+
+  /**
+   * Mean time of [PhotonVision.periodic] with a new frame from every camera, which is copied into
+   * the observation table and fused, in microseconds.
+   */
+  @Test
+  @Tag(TIMING)
+  fun visionPeriodicTime() {
+    var elapsedNanos = 0L
+
+    runVision { vision, measured ->
+      val start = System.nanoTime()
+      vision.periodic()
+      if (measured) {
+        elapsedNanos += System.nanoTime() - start
+      }
+    }
+
+    assertWithin(
+      "Vision periodic us",
+      elapsedNanos / 1e3 / MEASURED_CALLS,
+      VISION_PERIODIC_MICROS,
+    )
+  }
+
+  /**
+   * Runs a vision subsystem with a new frame from every camera before every call, until the JIT
+   * has compiled it, then for the measured calls. The fused measurements are drained after every
+   * call, so the next frames are fused on their own.
+   *
+   * @param periodic Calls [PhotonVision.periodic] on the subsystem, given whether the call is
+   *   measured.
+   */
+  private inline fun runVision(periodic: (PhotonVision, Boolean) -> Unit) {
+    val cameras = Array(PhotonVisionConstants.CAMERA_COUNT) { CameraIOFake() }
+    val vision = PhotonVision(null, cameras)
+    val measurement = DoubleArray(VisionFusion.MEASUREMENT_SIZE)
+
+    for (sequence in 1L..WARMUP_CALLS + MEASURED_CALLS) {
+      for (camera in cameras) {
+        camera.publish(frame(sequence))
+      }
+      periodic(vision, sequence > WARMUP_CALLS)
+      while (vision.pollVisionMeasurement(measurement, Timer.getFPGATimestamp())) {
+        // Drained so the next frame is fused on its own
+      }
+    }
+  }
+
+  /**
+   * Builds a frame that sees two tags and estimates a pose.
+   *
+   * @param sequence The number of the frame.
+   * @return The frame.
+   */
+  private fun frame(sequence: Long): CameraSnapshot {
+    val timestamp = sequence * 0.02
+    return CameraSnapshot(
+      sequence,
+      timestamp,
+      intArrayOf(3, 4),
+      doubleArrayOf(-5.0, 5.0),
+      doubleArrayOf(2.0, 2.5),
+      doubleArrayOf(0.05, 0.08),
+      doubleArrayOf(3.0, 3.2),
+      EstimatedRobotPose(
+        Pose3d(2.0, 3.0, 0.0, Rotation3d(0.0, 0.0, 0.5)),
+        timestamp,
+        emptyList(),
+        PoseStrategy.MULTI_TAG_PNP_ON_COPROCESSOR,
+      ),
+      0.3,
+      0.3,
+    )
+  }
+
+  /**
+   * Checks a measurement against its budget.
+   *
+   * @param name The name of the measurement.
+   * @param value The measured value.
+   * @param budget The largest value allowed.
+   */
+  private fun assertWithin(name: String, value: Double, budget: Double) {
+    assertTrue(value <= budget, "$name is $value, over the budget of $budget")
+  }
+
+  companion object {
+    /** Tag of the wall-clock budgets, which only run with ./gradlew test -Ptiming. */
+    const val TIMING = "timing"
+
+    /** Simulated seconds of scripted teleop, 3000 loops after the 750 loop auto. */
+    private const val TELEOP_SECONDS = 60.0
+
+    // 99th percentile of the whole robot loop, in milliseconds
+    private const val AUTO_P99_MILLIS = 10.0
+    private const val TELEOP_P99_MILLIS = 5.0
+
+    // Mean bytes the robot thread allocates per loop
+    private const val AUTO_ALLOC_BYTES = 65536.0
+    private const val TELEOP_ALLOC_BYTES = 8192.0
+
+    // Module reads and setpoints per teleop loop: a read and two setpoints per module
+    private const val MODULE_CALLS_PER_LOOP = 12.0
+
+    // Mean time of PhotonVision.periodic with a new frame from every camera, in microseconds
+    private const val VISION_PERIODIC_MICROS = 50.0
+
+    // Mean bytes PhotonVision.periodic allocates with a new frame from every camera
+    private const val VISION_ALLOC_BYTES = 0.0
+
+    /** Calls made before and while measuring vision. */
+    private const val WARMUP_CALLS = 20_000
+    private const val MEASURED_CALLS = 100_000
+
+    /** The run every budget is checked against. */
+    private lateinit var result: SimulationResult
+
+    /** Boots the robot and runs the auto and teleop periods once for every test. */
+    @BeforeAll
+    @JvmStatic
+    fun runSimulation() {
+      result = HeadlessSimulation(15.0, TELEOP_SECONDS).run()
+    }
+  }
+}
@@ -0,0 +1,29 @@
+package frc.robot.subsystems
+
+/**
+ * A camera for the tests, which serves whatever frames the test makes the latest one with
+ * [publish], so [PhotonVision] can be measured with a new frame every loop.
+ */
+class CameraIOFake : CameraIO {
+  private var latest = CameraSnapshot.EMPTY
+
+  override var newFrames = 0L
+    private set
+
+  override val duplicateFrames: Long
+    get() = 0L
+
+  /**
+   * Makes a frame the latest one.
+   *
+   * @param snapshot The frame, with a sequence number one higher than the last one.
+   */
+  fun publish(snapshot: CameraSnapshot) {
+    latest = snapshot
+    newFrames++
+  }
+
+  override fun getLatest(): CameraSnapshot {
+    return latest
+  }
+}
@@ -0,0 +1,180 @@
+package frc.robot.subsystems
+
+import com.ctre.phoenix6.controls.VoltageOut
+import edu.wpi.first.hal.HAL
+import edu.wpi.first.math.MathUtil
+import edu.wpi.first.math.system.plant.DCMotor
+import edu.wpi.first.math.util.Units
+import edu.wpi.first.wpilibj.Timer
+import edu.wpi.first.wpilibj.simulation.DCMotorSim
+import edu.wpi.first.wpilibj.simulation.DriverStationSim
+import frc.robot.utils.GlobalsValues.MotorGlobalValues
+import frc.robot.utils.GlobalsValues.SimulationGlobalValues
+import frc.robot.utils.GlobalsValues.SwerveGlobalValues.moduleKinematics
+import kotlin.math.abs
+import kotlin.math.max
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertNotNull
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.BeforeAll
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.TestReporter
+
+/**
+ * Steps [SwerveSim] with a constant voltage on every motor and checks what the Phoenix devices
+ * report against a [DCMotorSim] of each motor and the forward kinematics. The left and right
+ * wheels drive in opposite directions while every module steers, so the robot turns.
+ *
+ * Phoenix keeps its own wall-clock time, so the devices are stepped in real time for one second,
+ * with the time since the last step measured on the wall clock. The devices start from rest in
+ * the fresh JVM of this test class. The cost of every [SwerveSim.update] is measured and
+ * reported with the test.
+ */
+class SwerveSimTest {
+  /** The wheel distance, CANcoder angle and Pigeon 2 yaw follow the models. */
+  @Test
+  fun devicesFollowModels(reporter: TestReporter) {
+    val io = SwerveIO.real()
+    assertNotNull(io.physics, "The drive is not simulated")
+    val sim = io.physics!!
+    val modules = Array(io.modules.size) { io.modules[it] as ModuleIOTalonFX }
+    val pigeon = (io.gyro as GyroIOPigeon2).pigeon
+
+    val driveModels = Array(modules.size) { motorModel(DRIVE_GEAR, DRIVE_INERTIA) }
+    val steerModels = Array(modules.size) { motorModel(STEER_GEAR, STEER_INERTIA) }
+    for (i in modules.indices) {
+      // Left wheels forward, right wheels back
+      val driveVolts = if (i % 2 == 0) DRIVE_VOLTS else -DRIVE_VOLTS
+      modules[i].driveMotor.setControl(VoltageOut(driveVolts))
+      modules[i].steerMotor.setControl(VoltageOut(STEER_VOLTS))
+      driveModels[i].setInputVoltage(driveVolts)
+      steerModels[i].setInputVoltage(STEER_VOLTS)
+    }
+    // Lets the motors apply the voltages before the first step
+    Timer.delay(SETTLE_SECONDS)
+    val startAngles =
+      DoubleArray(modules.size) { modules[it].canCoder.absolutePosition.refresh().valueAsDouble }
+    val startYaw = pigeon.yaw.refresh().valueAsDouble
+
+    val speeds = DoubleArray(modules.size)
+    val angles = DoubleArray(modules.size)
+    val chassisSpeeds = DoubleArray(3)
+    var modelYaw = 0.0
+    var updates = 0
+    var updateNanos = 0L
+    var maxUpdateNanos = 0L
+
+    val end = System.nanoTime() + (RUN_SECONDS * 1e9).toLong()
+    var last = System.nanoTime()
+    while (last < end) {
+      Thread.sleep(STEP_MILLIS)
+      val now = System.nanoTime()
+      val dt = (now - last) / 1e9
+      last = now
+
+      val start = System.nanoTime()
+      sim.update(dt)
+      val cost = System.nanoTime() - start
+      updates++
+      updateNanos += cost
+      maxUpdateNanos = max(maxUpdateNanos, cost)
+
+      for (i in modules.indices) {
+        driveModels[i].update(dt)
+        steerModels[i].update(dt)
+        speeds[i] =
+          Units.radiansToRotations(driveModels[i].angularVelocityRadPerSec) *
+            MotorGlobalValues.METERS_PER_REVOLUTION
+        angles[i] = steerModels[i].angularPositionRotations
+      }
+      moduleKinematics.toChassisSpeeds(speeds, angles, chassisSpeeds)
+      modelYaw += Units.radiansToDegrees(chassisSpeeds[2]) * dt
+    }
+    // Lets the devices publish the last step
+    Timer.delay(SETTLE_SECONDS)
+
+    for (i in modules.indices) {
+      val rotorPosition = modules[i].driveMotor.position.refresh().valueAsDouble
+      val distance = SwerveSubsystem.toMeters(rotorPosition)
+      val modelDistance =
+        driveModels[i].angularPositionRotations * MotorGlobalValues.METERS_PER_REVOLUTION
+      assertTrue(abs(modelDistance) > MIN_DISTANCE, "Module $i only drove $modelDistance m")
+      assertEquals(modelDistance, distance, tolerance(modelDistance), "Distance of module $i")
+
+      val angle = modules[i].canCoder.absolutePosition.refresh().valueAsDouble - startAngles[i]
+      val modelAngle = steerModels[i].angularPositionRotations
+      assertEquals(
+        0.0,
+        MathUtil.inputModulus(angle - modelAngle, -0.5, 0.5),
+        ANGLE_TOLERANCE,
+        "CANcoder angle of module $i",
+      )
+    }
+
+    val yaw = pigeon.yaw.refresh().valueAsDouble - startYaw
+    assertTrue(abs(modelYaw) > MIN_YAW, "The robot only turned $modelYaw degrees")
+    assertEquals(modelYaw, yaw, tolerance(modelYaw), "Pigeon 2 yaw")
+
+    reporter.publishEntry("SwerveSim updates", updates.toString())
+    reporter.publishEntry("SwerveSim.update mean us", "%.1f".format(updateNanos / 1e3 / updates))
+    reporter.publishEntry("SwerveSim.update max us", "%.1f".format(maxUpdateNanos / 1e3))
+  }
+
+  /**
+   * Creates the model of one motor through its gearing.
+   *
+   * @param gearRatio The rotor rotations per mechanism rotation.
+   * @param inertia The moment of inertia of the mechanism in kg m².
+   * @return The model.
+   */
+  private fun motorModel(gearRatio: Double, inertia: Double): DCMotorSim {
+    return DCMotorSim(DCMotor.getFalcon500Foc(1), gearRatio, inertia)
+  }
+
+  /**
+   * Gets how far a device may be from its model, for the few milliseconds the devices lag behind
+   * the physics.
+   *
+   * @param expected The value of the model.
+   * @return The tolerance.
+   */
+  private fun tolerance(expected: Double): Double {
+    return RELATIVE_TOLERANCE * abs(expected) + ABSOLUTE_TOLERANCE
+  }
+
+  companion object {
+    private const val DRIVE_GEAR = MotorGlobalValues.DRIVE_MOTOR_GEAR_RATIO
+    private const val STEER_GEAR = MotorGlobalValues.STEER_MOTOR_GEAR_RATIO
+    private const val DRIVE_INERTIA = SimulationGlobalValues.DRIVE_MOMENT_OF_INERTIA
+    private const val STEER_INERTIA = SimulationGlobalValues.STEER_MOMENT_OF_INERTIA
+
+    /** Constant voltages applied to the drive and steer motors. */
+    private const val DRIVE_VOLTS = 2.0
+    private const val STEER_VOLTS = 0.5
+
+    private const val RUN_SECONDS = 1.0
+    private const val STEP_MILLIS = 5L
+
+    /** How long the devices get to apply a control or publish a step. */
+    private const val SETTLE_SECONDS = 0.1
+
+    /** Least the models must move for the comparison to mean anything. */
+    private const val MIN_DISTANCE = 0.1
+    private const val MIN_YAW = 5.0
+
+    private const val RELATIVE_TOLERANCE = 0.02
+    private const val ABSOLUTE_TOLERANCE = 1e-3
+    private const val ANGLE_TOLERANCE = 0.01
+
+    /** Starts the HAL and enables the robot, which the Phoenix devices need to drive. */
+    @BeforeAll
+    @JvmStatic
+    fun enableRobot() {
+      assertTrue(HAL.initialize(500, 0), "Failed to initialize the HAL")
+      DriverStationSim.setEnabled(true)
+      DriverStationSim.notifyNewData()
+      // Gives the devices time to start up and see the robot enabled
+      Timer.delay(SETTLE_SECONDS)
+    }
+  }
+}
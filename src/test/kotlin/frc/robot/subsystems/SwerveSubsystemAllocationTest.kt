@@ -0,0 +1,84 @@
+package frc.robot.subsystems
+
+import edu.wpi.first.hal.HAL
+import edu.wpi.first.wpilibj.TimedRobot
+import edu.wpi.first.wpilibj.simulation.SimHooks
+import java.lang.management.ManagementFactory
+import org.junit.jupiter.api.AfterAll
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.BeforeAll
+import org.junit.jupiter.api.Test
+
+/**
+ * Checks that the drive path allocates nothing once it is warmed up, on the ideal simulated drive.
+ * The robot thread's allocation counter must not move across thousands of cycles.
+ */
+class SwerveSubsystemAllocationTest {
+  private val threadBean =
+    ManagementFactory.getThreadMXBean() as com.sun.management.ThreadMXBean
+
+  /** Field oriented teleop driving, what PadDrive calls every loop. */
+  @Test
+  fun driveSpeedsDoNotAllocate() {
+    val swerve = SwerveSubsystem(null, null, SwerveIO.sim())
+    val allocated = measureAllocatedBytes { i ->
+      swerve.getDriveSpeeds(2.0, 1.0, 0.5 + i * 1e-6, true)
+    }
+    assertEquals(0L, allocated, "getDriveSpeeds allocated $allocated bytes")
+  }
+
+  /** The periodic of the subsystem: inputs, odometry, pose estimate and telemetry. */
+  @Test
+  fun periodicDoesNotAllocate() {
+    val swerve = SwerveSubsystem(null, null, SwerveIO.sim())
+    val allocated = measureAllocatedBytes { i ->
+      swerve.getDriveSpeeds(2.0, 1.0, 0.5 + i * 1e-6, true)
+      swerve.periodic()
+      SimHooks.stepTiming(TimedRobot.kDefaultPeriod)
+    }
+    assertEquals(0L, allocated, "getDriveSpeeds and periodic allocated $allocated bytes")
+  }
+
+  /**
+   * Runs a cycle until the JIT has compiled it, then counts the bytes the robot thread allocates
+   * over many more cycles.
+   *
+   * @param cycle The cycle to measure, given the number of the call.
+   * @return The bytes allocated by the measured cycles.
+   */
+  private inline fun measureAllocatedBytes(cycle: (Int) -> Unit): Long {
+    assertTrue(threadBean.isThreadAllocatedMemoryEnabled, "This JVM cannot measure allocations")
+    for (i in 0 until WARMUP_CYCLES) {
+      cycle(i)
+      // Warms up the counter too, so reading it is not counted
+      threadBean.currentThreadAllocatedBytes
+    }
+
+    val start = threadBean.currentThreadAllocatedBytes
+    for (i in 0 until MEASURED_CYCLES) {
+      cycle(i)
+    }
+    return threadBean.currentThreadAllocatedBytes - start
+  }
+
+  companion object {
+    private const val WARMUP_CYCLES = 20_000
+    private const val MEASURED_CYCLES = 10_000
+
+    /** Starts the HAL the simulated drive reads its clock from, with the clock paused. */
+    @BeforeAll
+    @JvmStatic
+    fun startHal() {
+      assertTrue(HAL.initialize(500, 0), "Failed to initialize the HAL")
+      SimHooks.pauseTiming()
+    }
+
+    /** Lets the clock run again for the other tests. */
+    @AfterAll
+    @JvmStatic
+    fun resumeTiming() {
+      SimHooks.resumeTiming()
+    }
+  }
+}
@@ -0,0 +1,188 @@
+package frc.robot.utils
+
+import edu.wpi.first.networktables.NetworkTableInstance
+import edu.wpi.first.networktables.PubSubOption
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.Assertions.assertArrayEquals
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertNotNull
+import org.junit.jupiter.api.Assertions.assertNull
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+
+/**
+ * Checks how [LimelightFrameListener] groups value changes into frames, on a NetworkTables
+ * instance of its own. Values are published with explicit timestamps, as the Limelight's arrive.
+ */
+class LimelightFrameListenerTest {
+  private val instance = NetworkTableInstance.create()
+  private val table = instance.getTable("limelight")
+
+  private val tx = table.getDoubleTopic("tx").publish(KEEP_DUPLICATES)
+  private val botpose = table.getDoubleArrayTopic("botpose_wpiblue").publish(KEEP_DUPLICATES)
+  private val tl = table.getDoubleTopic("tl").publish(KEEP_DUPLICATES)
+  private val cl = table.getDoubleTopic("cl").publish(KEEP_DUPLICATES)
+  private val json = table.getStringTopic("json").publish(KEEP_DUPLICATES)
+
+  private var listener: LimelightFrameListener? = null
+
+  @AfterEach
+  fun closeInstance() {
+    listener?.close()
+    instance.close()
+  }
+
+  /** Values of one frame with the same timestamp are one frame. */
+  @Test
+  fun equalTimestampsFormOneFrame() {
+    val listener = listen(4)
+    publishFrame(1_000_000L, 1.0)
+    awaitListener()
+
+    assertEquals(1L, listener.assembledFrames)
+    assertEquals(0L, listener.partialFrames)
+    assertFrame(listener.poll(), 1.0, 1_000_000L)
+    assertNull(listener.poll())
+  }
+
+  /** Values a few microseconds apart are still one frame, timed by its first value. */
+  @Test
+  fun timestampsMicrosecondsApartFormOneFrame() {
+    val listener = listen(4)
+    publishFrame(1_000_000L, 1.0, spacingMicros = 3L)
+    publishFrame(1_050_000L, 2.0, spacingMicros = 3L)
+    awaitListener()
+
+    assertEquals(2L, listener.assembledFrames)
+    assertEquals(0L, listener.partialFrames)
+    assertFrame(listener.poll(), 1.0, 1_000_000L)
+    assertFrame(listener.poll(), 2.0, 1_050_000L)
+  }
+
+  /**
+   * A frame where only some entries changed is finished by the next frame's first value, and
+   * keeps the previous values of the others. An entry changing twice also starts a new frame.
+   */
+  @Test
+  fun unchangedEntriesKeepTheirValues() {
+    val listener = listen(8)
+    publishFrame(1_000_000L, 1.0)
+    tx.set(2.0, 1_050_000L)
+    botpose.set(pose(2.0), 1_050_002L)
+    publishFrame(1_100_000L, 3.0)
+    tx.set(4.0, 1_150_000L)
+    tx.set(5.0, 1_150_010L)
+    publishFrame(1_200_000L, 6.0)
+    awaitListener()
+
+    assertEquals(6L, listener.assembledFrames)
+    assertEquals(3L, listener.partialFrames)
+    assertFrame(listener.poll(), 1.0, 1_000_000L)
+    val partial = listener.poll()
+    assertNotNull(partial)
+    assertEquals(2.0, partial!!.tx)
+    assertArrayEquals(pose(2.0), partial.botpose)
+    assertEquals("{\"tx\": 1.0}", partial.json)
+    assertEquals(1.05 - LATENCY, partial.timestamp, DELTA)
+    assertFrame(listener.poll(), 3.0, 1_100_000L)
+
+    val first = listener.poll()
+    assertNotNull(first)
+    assertEquals(4.0, first!!.tx)
+    assertArrayEquals(pose(3.0), first.botpose)
+    val second = listener.poll()
+    assertNotNull(second)
+    assertEquals(5.0, second!!.tx)
+    assertEquals(1.15001 - LATENCY, second.timestamp, DELTA)
+
+    assertFrame(listener.poll(), 6.0, 1_200_000L)
+  }
+
+  /** With the queue full, the oldest frames are dropped and counted. */
+  @Test
+  fun fullQueueDropsOldest() {
+    val listener = listen(2)
+    for (i in 1..4) {
+      publishFrame(i * 1_000_000L, i.toDouble())
+    }
+    awaitListener()
+
+    assertEquals(4L, listener.assembledFrames)
+    assertEquals(2L, listener.droppedFrames)
+    assertEquals(2, listener.size())
+    assertFrame(listener.poll(), 3.0, 3_000_000L)
+    assertFrame(listener.poll(), 4.0, 4_000_000L)
+    assertNull(listener.poll())
+  }
+
+  /**
+   * Starts the listener of the test.
+   *
+   * @param capacity The most frames kept waiting.
+   * @return The listener, closed after the test.
+   */
+  private fun listen(capacity: Int): LimelightFrameListener {
+    val listener = LimelightFrameListener(table, capacity)
+    this.listener = listener
+    return listener
+  }
+
+  /**
+   * Publishes every entry of one frame. The pose and JSON dump are made from the tx value, so
+   * each frame's values can be told apart.
+   *
+   * @param timeMicros The NetworkTables timestamp of the first value.
+   * @param value The tx value of the frame.
+   * @param spacingMicros How far apart the timestamps of the values are.
+   */
+  private fun publishFrame(timeMicros: Long, value: Double, spacingMicros: Long = 0L) {
+    tx.set(value, timeMicros)
+    botpose.set(pose(value), timeMicros + spacingMicros)
+    tl.set(TL, timeMicros + 2 * spacingMicros)
+    cl.set(CL, timeMicros + 3 * spacingMicros)
+    json.set("{\"tx\": $value}", timeMicros + 4 * spacingMicros)
+  }
+
+  /** Waits until the listener thread has handled every value published so far. */
+  private fun awaitListener() {
+    assertTrue(instance.waitForListenerQueue(WAIT_SECONDS), "The listener queue did not drain")
+  }
+
+  /**
+   * Checks a frame that was published whole by [publishFrame].
+   *
+   * @param frame The frame.
+   * @param value The tx value it was published with.
+   * @param timeMicros The timestamp of its first value.
+   */
+  private fun assertFrame(frame: LimelightFrame?, value: Double, timeMicros: Long) {
+    assertNotNull(frame, "No frame with tx $value")
+    assertEquals(value, frame!!.tx)
+    assertArrayEquals(pose(value), frame.botpose)
+    assertEquals("{\"tx\": $value}", frame.json)
+    assertEquals(timeMicros / 1e6 - LATENCY, frame.timestamp, DELTA)
+  }
+
+  /**
+   * Makes the botpose of a frame.
+   *
+   * @param value The tx value of the frame.
+   * @return The pose.
+   */
+  private fun pose(value: Double): DoubleArray {
+    return doubleArrayOf(value, 2.0, 0.0, 0.0, 0.0, 90.0)
+  }
+
+  private companion object {
+    const val TL = 10.0
+    const val CL = 20.0
+
+    /** The pipeline and capture latency, in seconds. */
+    const val LATENCY = (TL + CL) / 1000.0
+
+    const val WAIT_SECONDS = 5.0
+    const val DELTA = 1e-9
+
+    val KEEP_DUPLICATES: PubSubOption = PubSubOption.keepDuplicates(true)
+  }
+}
@@ -0,0 +1,54 @@
+package frc.robot.utils
+
+import edu.wpi.first.networktables.StringPublisher
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.Assertions.assertFalse
+import org.junit.jupiter.api.Assertions.assertSame
+import org.junit.jupiter.api.Assertions.assertThrows
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+
+/** Checks how [LimelightHandle] caches the parsed JSON dump, on the local NetworkTables. */
+class LimelightHandleTest {
+  // A table of its own for every test, so no test sees the values of another
+  private val handle = LimelightHandle("limelight-test-${nextTable++}")
+  private val json: StringPublisher = handle.table.getStringTopic("json").publish()
+
+  @AfterEach
+  fun closePublisher() {
+    json.close()
+  }
+
+  /** A dump that fails to parse invalidates the results and is parsed again on the next call. */
+  @Test
+  fun malformedJsonInvalidatesResults() {
+    json.set(VALID, 1_000_000L)
+    assertTrue(handle.getLatestResults().targetingResults.valid)
+
+    json.set(TRUNCATED, 2_000_000L)
+    assertThrows(IllegalArgumentException::class.java) { handle.getLatestResults() }
+    assertFalse(handle.results.targetingResults.valid)
+    assertThrows(IllegalArgumentException::class.java) { handle.getLatestResults() }
+
+    json.set(VALID, 3_000_000L)
+    assertTrue(handle.getLatestResults().targetingResults.valid)
+  }
+
+  /** The same dump is only parsed once. */
+  @Test
+  fun unchangedJsonIsNotParsedAgain() {
+    json.set(VALID, 1_000_000L)
+    val results = handle.getLatestResults()
+    results.targetingResults.valid = false
+
+    assertSame(results, handle.getLatestResults())
+    assertFalse(results.targetingResults.valid)
+  }
+
+  private companion object {
+    var nextTable = 0
+
+    const val VALID = "{\"Results\": {\"botpose\": [1.5, 2.5, 0, 0, 0, 90], \"v\": 1}}"
+    const val TRUNCATED = "{\"Results\": {\"botpose\": [1.5, 2"
+  }
+}
@@ -0,0 +1,154 @@
+package frc.robot.utils
+
+import com.sun.net.httpserver.HttpExchange
+import com.sun.net.httpserver.HttpServer
+import edu.wpi.first.hal.HAL
+import java.net.InetAddress
+import java.net.InetSocketAddress
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.TimeUnit
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertFalse
+import org.junit.jupiter.api.Assertions.assertInstanceOf
+import org.junit.jupiter.api.Assertions.assertNotSame
+import org.junit.jupiter.api.Assertions.assertSame
+import org.junit.jupiter.api.Assertions.assertThrows
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.BeforeAll
+import org.junit.jupiter.api.Test
+
+/**
+ * Checks [LimelightHttpClient] against a local HTTP server standing in for the Limelight. The
+ * server answers "/ok" right away and holds "/block" until the test releases it.
+ */
+class LimelightHttpClientTest {
+  private val entered = CountDownLatch(1)
+  private val release = CountDownLatch(1)
+
+  private val server =
+    HttpServer.create(InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0).apply {
+      executor = Executors.newCachedThreadPool()
+      createContext("/ok") { exchange -> respond(exchange) }
+      createContext("/block") { exchange ->
+        entered.countDown()
+        release.await(WAIT_SECONDS, TimeUnit.SECONDS)
+        respond(exchange)
+      }
+      start()
+    }
+
+  private val baseUrl: (String) -> String = { "http://127.0.0.1:${server.address.port}/" }
+
+  private val clients = ArrayList<LimelightHttpClient>()
+
+  @AfterEach
+  fun stopServer() {
+    release.countDown()
+    for (client in clients) {
+      client.close()
+    }
+    server.stop(0)
+  }
+
+  /** A request the Limelight answers with status 200 succeeds. */
+  @Test
+  fun answeredRequestSucceeds() {
+    val client = client()
+
+    assertTrue(client.get(NAME, "ok").get(WAIT_SECONDS, TimeUnit.SECONDS))
+    assertEquals(1L, client.sent)
+    assertEquals(0L, client.failed)
+  }
+
+  /** A Limelight that does not answer within the read timeout fails the request. */
+  @Test
+  fun unansweredRequestTimesOut() {
+    val client = client(readTimeoutMillis = 200)
+
+    assertFalse(client.get(NAME, "block").get(WAIT_SECONDS, TimeUnit.SECONDS))
+    assertEquals(1L, client.failed)
+  }
+
+  /**
+   * An identical request gets the future of the one in flight. Once that one is answered, even a
+   * request made from its completion is sent again.
+   */
+  @Test
+  fun identicalRequestsCoalesce() {
+    val client = client()
+
+    val first = client.get(NAME, "block", "snapname", "a")
+    assertTrue(entered.await(WAIT_SECONDS, TimeUnit.SECONDS))
+    assertSame(first, client.get(NAME, "block", "snapname", "a"))
+    assertNotSame(first, client.get(NAME, "block", "snapname", "b"))
+    assertEquals(1L, client.coalesced)
+
+    val afterAnswer = first.thenApply { client.get(NAME, "block", "snapname", "a") }
+    release.countDown()
+    assertTrue(first.get(WAIT_SECONDS, TimeUnit.SECONDS))
+    val next = afterAnswer.get(WAIT_SECONDS, TimeUnit.SECONDS)
+    assertNotSame(first, next)
+    assertTrue(next.get(WAIT_SECONDS, TimeUnit.SECONDS))
+    assertEquals(1L, client.coalesced)
+  }
+
+  /** With the thread busy and the queue full, a request fails at once instead of blocking. */
+  @Test
+  fun fullQueueRejects() {
+    val client = client(queueCapacity = 1)
+
+    val running = client.get(NAME, "block?n=1")
+    assertTrue(entered.await(WAIT_SECONDS, TimeUnit.SECONDS))
+    val queued = client.get(NAME, "block?n=2")
+    val refused = client.get(NAME, "block?n=3")
+
+    assertTrue(refused.isCompletedExceptionally)
+    val error = assertThrows(ExecutionException::class.java) { refused.get() }
+    assertInstanceOf(RejectedExecutionException::class.java, error.cause)
+    assertEquals(1L, client.rejected)
+    assertEquals(1, client.queueDepth)
+
+    release.countDown()
+    assertTrue(running.get(WAIT_SECONDS, TimeUnit.SECONDS))
+    assertTrue(queued.get(WAIT_SECONDS, TimeUnit.SECONDS))
+  }
+
+  /**
+   * Creates a client with one thread, pointed at the server. It is closed after the test.
+   *
+   * @param queueCapacity The most requests waiting for the thread.
+   * @param readTimeoutMillis How long to wait for the response.
+   * @return The client.
+   */
+  private fun client(queueCapacity: Int = 8, readTimeoutMillis: Int = 5000): LimelightHttpClient {
+    val client = LimelightHttpClient(baseUrl, 1, queueCapacity, 500, readTimeoutMillis)
+    clients.add(client)
+    return client
+  }
+
+  companion object {
+    private const val NAME = "limelight"
+    private const val WAIT_SECONDS = 5L
+
+    /** Failed requests report a warning to the Driver Station, which needs the HAL. */
+    @BeforeAll
+    @JvmStatic
+    fun startHal() {
+      assertTrue(HAL.initialize(500, 0), "Failed to initialize the HAL")
+    }
+
+    /**
+     * Answers a request with status 200 and no body.
+     *
+     * @param exchange The request.
+     */
+    private fun respond(exchange: HttpExchange) {
+      exchange.sendResponseHeaders(200, -1)
+      exchange.close()
+    }
+  }
+}
@@ -0,0 +1,210 @@
+package frc.robot.utils
+
+import com.fasterxml.jackson.databind.DeserializationFeature
+import com.fasterxml.jackson.databind.ObjectMapper
+import frc.robot.utils.LimelightHelpers.LimelightResults
+import frc.robot.utils.LimelightHelpers.LimelightTargetRetro
+import frc.robot.utils.LimelightHelpers.LimelightTarget_Classifier
+import frc.robot.utils.LimelightHelpers.LimelightTarget_Detector
+import frc.robot.utils.LimelightHelpers.LimelightTarget_Fiducial
+import org.junit.jupiter.api.Assertions.assertArrayEquals
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertThrows
+import org.junit.jupiter.api.Test
+
+/**
+ * Checks that [LimelightJsonParser] reads every field the same as the Jackson path LimelightHelpers
+ * used to take, on the payload recorded for the benchmark and on one with every target type.
+ */
+class LimelightJsonParserTest {
+  private val mapper =
+    ObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
+
+  private val parser = LimelightJsonParser()
+
+  /** The recorded dump of a Limelight seeing two AprilTags. */
+  @Test
+  fun recordedPayloadMatchesJackson() {
+    val json = LimelightJsonParserTest::class.java.getResource(RECORDED)!!.readText()
+
+    assertMatchesJackson(json, LimelightResults())
+  }
+
+  /** A dump with retroreflective, classifier, detector and barcode targets. */
+  @Test
+  fun everyTargetTypeMatchesJackson() {
+    assertMatchesJackson(EVERY_TARGET, LimelightResults())
+  }
+
+  /**
+   * Parsing into results filled from another dump, as the robot does, overwrites every field. The
+   * second dump has every key, since the parser keeps the previous value of a missing one.
+   */
+  @Test
+  fun reusedResultsMatchJackson() {
+    val recorded = LimelightJsonParserTest::class.java.getResource(RECORDED)!!.readText()
+    val results = LimelightResults()
+
+    assertMatchesJackson(recorded, results)
+    assertMatchesJackson(EVERY_TARGET, results)
+    assertMatchesJackson(EVERY_TARGET, results)
+  }
+
+  /** A dump cut off in the middle of an array is rejected. */
+  @Test
+  fun truncatedPayloadThrows() {
+    assertThrows(IllegalArgumentException::class.java) {
+      parser.parse("{\"Results\": {\"botpose\": [1.5, 2", LimelightResults())
+    }
+  }
+
+  /**
+   * Parses a dump with both Jackson and the parser and compares every field.
+   *
+   * @param json The JSON results dump.
+   * @param results The results the parser fills.
+   */
+  private fun assertMatchesJackson(json: String, results: LimelightResults) {
+    val expected = mapper.readValue(json, LimelightResults::class.java).targetingResults
+    parser.parse(json, results)
+    val actual = results.targetingResults
+
+    assertEquals(expected.pipelineID, actual.pipelineID)
+    assertEquals(expected.latency_pipeline, actual.latency_pipeline)
+    assertEquals(expected.latency_capture, actual.latency_capture)
+    assertEquals(expected.timestamp_LIMELIGHT_publish, actual.timestamp_LIMELIGHT_publish)
+    assertEquals(expected.timestamp_RIOFPGA_capture, actual.timestamp_RIOFPGA_capture)
+    assertEquals(expected.valid, actual.valid)
+    assertArrayEquals(expected.botpose, actual.botpose)
+    assertArrayEquals(expected.botpose_wpired, actual.botpose_wpired)
+    assertArrayEquals(expected.botpose_wpiblue, actual.botpose_wpiblue)
+    assertArrayEquals(expected.camerapose_robotspace, actual.camerapose_robotspace)
+
+    assertTargetsEqual(expected.targets_Retro, actual.targets_Retro, ::assertRetroEqual)
+    assertTargetsEqual(
+      expected.targets_Fiducials,
+      actual.targets_Fiducials,
+      ::assertFiducialEqual,
+    )
+    assertTargetsEqual(
+      expected.targets_Classifier,
+      actual.targets_Classifier,
+      ::assertClassifierEqual,
+    )
+    assertTargetsEqual(
+      expected.targets_Detector,
+      actual.targets_Detector,
+      ::assertDetectorEqual,
+    )
+    assertEquals(expected.targets_Barcode!!.size, actual.targets_Barcode!!.size)
+  }
+
+  /**
+   * Compares two target arrays element by element.
+   *
+   * @param expected The targets Jackson read.
+   * @param actual The targets the parser read.
+   * @param assertTargetEqual Compares the fields of one target.
+   */
+  private fun <T> assertTargetsEqual(
+    expected: Array<T?>?,
+    actual: Array<T?>?,
+    assertTargetEqual: (T, T) -> Unit,
+  ) {
+    assertEquals(expected!!.size, actual!!.size)
+    for (i in expected.indices) {
+      assertTargetEqual(expected[i]!!, actual[i]!!)
+    }
+  }
+
+  private fun assertRetroEqual(expected: LimelightTargetRetro, actual: LimelightTargetRetro) {
+    assertArrayEquals(expected.cameraPose_TargetSpace, actual.cameraPose_TargetSpace)
+    assertArrayEquals(expected.robotPose_FieldSpace, actual.robotPose_FieldSpace)
+    assertArrayEquals(expected.robotPose_TargetSpace, actual.robotPose_TargetSpace)
+    assertArrayEquals(expected.targetPose_CameraSpace, actual.targetPose_CameraSpace)
+    assertArrayEquals(expected.targetPose_RobotSpace, actual.targetPose_RobotSpace)
+    assertEquals(expected.ta, actual.ta)
+    assertEquals(expected.tx, actual.tx)
+    assertEquals(expected.tx_pixels, actual.tx_pixels)
+    assertEquals(expected.ty, actual.ty)
+    assertEquals(expected.ty_pixels, actual.ty_pixels)
+    assertEquals(expected.ts, actual.ts)
+  }
+
+  private fun assertFiducialEqual(
+    expected: LimelightTarget_Fiducial,
+    actual: LimelightTarget_Fiducial,
+  ) {
+    assertEquals(expected.fiducialID, actual.fiducialID)
+    assertEquals(expected.fiducialFamily, actual.fiducialFamily)
+    assertArrayEquals(expected.cameraPose_TargetSpace, actual.cameraPose_TargetSpace)
+    assertArrayEquals(expected.robotPose_FieldSpace, actual.robotPose_FieldSpace)
+    assertArrayEquals(expected.robotPose_TargetSpace, actual.robotPose_TargetSpace)
+    assertArrayEquals(expected.targetPose_CameraSpace, actual.targetPose_CameraSpace)
+    assertArrayEquals(expected.targetPose_RobotSpace, actual.targetPose_RobotSpace)
+    assertEquals(expected.ta, actual.ta)
+    assertEquals(expected.tx, actual.tx)
+    assertEquals(expected.tx_pixels, actual.tx_pixels)
+    assertEquals(expected.ty, actual.ty)
+    assertEquals(expected.ty_pixels, actual.ty_pixels)
+    assertEquals(expected.ts, actual.ts)
+  }
+
+  private fun assertClassifierEqual(
+    expected: LimelightTarget_Classifier,
+    actual: LimelightTarget_Classifier,
+  ) {
+    assertEquals(expected.className, actual.className)
+    assertEquals(expected.classID, actual.classID)
+    assertEquals(expected.confidence, actual.confidence)
+    assertEquals(expected.zone, actual.zone)
+    assertEquals(expected.tx, actual.tx)
+    assertEquals(expected.tx_pixels, actual.tx_pixels)
+    assertEquals(expected.ty, actual.ty)
+    assertEquals(expected.ty_pixels, actual.ty_pixels)
+  }
+
+  private fun assertDetectorEqual(
+    expected: LimelightTarget_Detector,
+    actual: LimelightTarget_Detector,
+  ) {
+    assertEquals(expected.className, actual.className)
+    assertEquals(expected.classID, actual.classID)
+    assertEquals(expected.confidence, actual.confidence)
+    assertEquals(expected.ta, actual.ta)
+    assertEquals(expected.tx, actual.tx)
+    assertEquals(expected.tx_pixels, actual.tx_pixels)
+    assertEquals(expected.ty, actual.ty)
+    assertEquals(expected.ty_pixels, actual.ty_pixels)
+  }
+
+  private companion object {
+    /** The payload the JSON benchmark parses. */
+    const val RECORDED = "/limelight-results.json"
+
+    val EVERY_TARGET =
+      """
+      {"Results": {
+        "Barcode": [{"fam": "QR", "data": "a\"b"}],
+        "Classifier": [{"class": "note", "classID": 2, "conf": 0.875, "zone": 1,
+          "tx": -1.5e1, "txp": 12.25, "ty": 3, "typ": 90.5}],
+        "Detector": [
+          {"class": "robot", "classID": 1, "conf": 0.61, "ta": 0.021, "tx": 4.123456789012345,
+            "txp": 180, "ty": -2.75, "typ": 60.125},
+          {"class": "note", "classID": 2, "conf": 0.93, "ta": 0.3, "tx": -0.000123,
+            "txp": 20, "ty": 1E-3, "typ": 61}],
+        "Fiducial": [],
+        "Retro": [{"pts": [[1, 2], [3, 4]], "t6c_ts": [0.1, 0.2, 0.3, 0.4, 0.5, 0.6],
+          "t6r_fs": [1, 2, 3, 4, 5, 6], "t6r_ts": [-1, -2, -3, -4, -5, -6],
+          "t6t_cs": [0.5, 0.25, 0.125, 0, 0, 0], "t6t_rs": [9, 8, 7, 6, 5, 4],
+          "ta": 0.5, "tx": 1.25, "txp": 2.5, "ty": -3.75, "typ": 5, "ts": 0.0625}],
+        "botpose": [1.5, 2.5, 0, 0, 0, 90.0],
+        "botpose_wpiblue": [9.77, 6.6, 0, 0, 0, 90.0],
+        "botpose_wpired": [6.77, 1.6, 0, 0, 0, -90.0],
+        "cl": 11.5, "pID": 1, "t6c_rs": [0.2, 0, 0.5, 0, 0, 180], "tl": 7.123, "ts": 1234.5,
+        "ts_rio": 56.789,
+        "v": 0, "unknown": {"nested": [1, {"a": null}]}}}
+      """
+        .trimIndent()
+  }
+}
@@ -0,0 +1,75 @@
+package frc.robot.utils
+
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Test
+
+/** Checks the statistics [LoopTimer] reads back from its histogram against known durations. */
+class LoopTimerTest {
+  /** Never publishes on its own, so the window is only reset by the tests. */
+  private val loopTimer = LoopTimer(0.02, Double.POSITIVE_INFINITY)
+
+  /** 97 loops of 5 ms, two overruns of 25 ms and one of 40 ms. */
+  private fun recordKnownLoops() {
+    repeat(97) { loopTimer.record(5_050_000L) }
+    repeat(2) { loopTimer.record(25_050_000L) }
+    loopTimer.record(40_000_000L)
+  }
+
+  /** Percentiles report the upper edge of their bucket, the maximum is exact. */
+  @Test
+  fun percentilesAndMax() {
+    recordKnownLoops()
+
+    assertEquals(100L, loopTimer.count)
+    assertEquals(5.1, loopTimer.percentileMillis(50.0), DELTA)
+    assertEquals(5.1, loopTimer.percentileMillis(97.0), DELTA)
+    assertEquals(25.1, loopTimer.percentileMillis(99.0), DELTA)
+    assertEquals(40.0, loopTimer.percentileMillis(100.0), DELTA)
+    assertEquals(40.0, loopTimer.getMaxMillis(), DELTA)
+  }
+
+  /** Loops longer than the period are overruns, counted per window and since startup. */
+  @Test
+  fun overruns() {
+    recordKnownLoops()
+    assertEquals(3L, loopTimer.overruns)
+    assertEquals(3L, loopTimer.totalOverruns)
+
+    loopTimer.reset()
+    recordKnownLoops()
+    assertEquals(3L, loopTimer.overruns)
+    assertEquals(6L, loopTimer.totalOverruns)
+  }
+
+  /** Loops longer than the histogram land in the last bucket but keep their real maximum. */
+  @Test
+  fun longLoopsClampToLastBucket() {
+    loopTimer.record(250_000_000L)
+
+    assertEquals(250.0, loopTimer.getMaxMillis(), DELTA)
+    assertEquals(
+      LoopTimer.BUCKET_COUNT * LoopTimer.BUCKET_WIDTH_NANOS / 1e6,
+      loopTimer.percentileMillis(50.0),
+      DELTA,
+    )
+  }
+
+  /** Resetting clears the window, so an empty window reports zeros. */
+  @Test
+  fun resetClearsWindow() {
+    recordKnownLoops()
+    loopTimer.recordPeriod(21_000_000L)
+    loopTimer.recordAllocation(64L)
+    loopTimer.reset()
+
+    assertEquals(0L, loopTimer.count)
+    assertEquals(0.0, loopTimer.percentileMillis(99.0), DELTA)
+    assertEquals(0.0, loopTimer.getMaxMillis(), DELTA)
+    assertEquals(0.0, loopTimer.getMeanJitterMillis(), DELTA)
+    assertEquals(0L, loopTimer.maxAllocatedBytes)
+  }
+
+  private companion object {
+    const val DELTA = 1e-9
+  }
+}
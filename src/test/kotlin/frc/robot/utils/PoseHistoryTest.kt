@@ -0,0 +1,107 @@
+package frc.robot.utils
+
+import edu.wpi.first.math.MathUtil
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertFalse
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+
+/**
+ * Checks [PoseHistory] once it has wrapped around: six poses one second apart go into a history
+ * of four, so the last two overwrite the oldest and the poses at 4 s and 5 s sit at the end and
+ * the start of the arrays.
+ */
+class PoseHistoryTest {
+  private val history = PoseHistory(CAPACITY)
+  private val pose = DoubleArray(3)
+
+  /** Adds the poses at 1 s to 6 s. */
+  private fun addSixPoses() {
+    for (i in 1..6) {
+      history.add(i.toDouble(), 10.0 * i, -i.toDouble(), THETAS[i - 1])
+    }
+  }
+
+  /** Only the newest poses are kept once the history is full. */
+  @Test
+  fun overwritesOldest() {
+    addSixPoses()
+
+    assertEquals(CAPACITY, history.size)
+    assertEquals(3.0, history.getOldestTimestamp())
+    assertEquals(6.0, history.getLatestTimestamp())
+  }
+
+  /** Times at the oldest and newest pose, and outside them, give those poses exactly. */
+  @Test
+  fun samplesBoundaries() {
+    addSixPoses()
+
+    assertSample(3.0, 30.0, -3.0, THETAS[2])
+    assertSample(6.0, 60.0, -6.0, THETAS[5])
+    // 1 s and 2 s were overwritten, so they clamp to the oldest pose still kept
+    assertSample(1.5, 30.0, -3.0, THETAS[2])
+    assertSample(10.0, 60.0, -6.0, THETAS[5])
+  }
+
+  /**
+   * Between the last entry of the arrays and the first, the pose is interpolated, and the heading
+   * goes the short way across ±π.
+   */
+  @Test
+  fun interpolatesAcrossArrayEnd() {
+    addSixPoses()
+
+    assertSample(4.0, 40.0, -4.0, THETAS[3])
+    assertSample(5.0, 50.0, -5.0, THETAS[4])
+    assertSample(4.25, 42.5, -4.25, THETAS[3] + 0.25 * (2.0 * Math.PI + THETAS[4] - THETAS[3]))
+  }
+
+  /** Poses that are not newer than the latest one are ignored. */
+  @Test
+  fun ignoresOldPoses() {
+    addSixPoses()
+    history.add(5.5, 0.0, 0.0, 0.0)
+    history.add(6.0, 0.0, 0.0, 0.0)
+
+    assertEquals(6.0, history.getLatestTimestamp())
+    assertSample(5.5, 55.0, -5.5, THETAS[4] + 0.5 * (THETAS[5] - THETAS[4]))
+  }
+
+  /** A cleared history has no poses, and fills again from the start. */
+  @Test
+  fun clear() {
+    addSixPoses()
+    history.clear()
+
+    assertEquals(0, history.size)
+    assertTrue(history.getOldestTimestamp().isNaN())
+    assertFalse(history.sample(4.0, pose))
+
+    history.add(1.0, 1.0, 2.0, 0.5)
+    assertSample(0.0, 1.0, 2.0, 0.5)
+  }
+
+  /**
+   * Checks the pose sampled at a time.
+   *
+   * @param timestamp The time to sample.
+   * @param x The expected x position.
+   * @param y The expected y position.
+   * @param theta The expected heading, compared modulo a full turn.
+   */
+  private fun assertSample(timestamp: Double, x: Double, y: Double, theta: Double) {
+    assertTrue(history.sample(timestamp, pose))
+    assertEquals(x, pose[0], DELTA, "x at $timestamp s")
+    assertEquals(y, pose[1], DELTA, "y at $timestamp s")
+    assertEquals(0.0, MathUtil.angleModulus(theta - pose[2]), DELTA, "Heading at $timestamp s")
+  }
+
+  private companion object {
+    const val CAPACITY = 4
+    const val DELTA = 1e-9
+
+    /** Headings of the six poses, the fourth and fifth on either side of ±π. */
+    val THETAS = doubleArrayOf(0.0, 0.5, 1.0, 3.0, -3.0, -2.5)
+  }
+}
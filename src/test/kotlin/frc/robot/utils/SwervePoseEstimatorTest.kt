@@ -0,0 +1,200 @@
+package frc.robot.utils
+
+import edu.wpi.first.math.MathUtil
+import edu.wpi.first.math.VecBuilder
+import edu.wpi.first.math.estimator.SwerveDrivePoseEstimator
+import edu.wpi.first.math.geometry.Pose2d
+import edu.wpi.first.math.geometry.Rotation2d
+import edu.wpi.first.math.kinematics.SwerveModulePosition
+import frc.robot.utils.GlobalsValues.SwerveGlobalValues
+import kotlin.math.cos
+import kotlin.math.sin
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertFalse
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+
+/**
+ * Checks [SwervePoseEstimator] against the WPILib [SwerveDrivePoseEstimator] on the same drive.
+ * The robot drives while turning past ±π, and every tenth of a second two frames captured a few
+ * samples earlier arrive together. Frames are captured exactly at odometry samples, so neither
+ * estimator interpolates.
+ */
+class SwervePoseEstimatorTest {
+  private val period = 1.0 / SwerveGlobalValues.ODOMETRY_FREQUENCY
+
+  private val distances = DoubleArray(FourModuleKinematics.MODULE_COUNT)
+  private val angles = DoubleArray(FourModuleKinematics.MODULE_COUNT)
+  private val positions = Array(FourModuleKinematics.MODULE_COUNT) { SwerveModulePosition() }
+  private val pose = DoubleArray(3)
+
+  private val estimator =
+    SwervePoseEstimator(
+      SwerveGlobalValues.moduleKinematics,
+      SwerveGlobalValues.POSE_HISTORY_SECONDS,
+      SwerveGlobalValues.ODOMETRY_FREQUENCY,
+    )
+  private val wpilibEstimator =
+    SwerveDrivePoseEstimator(SwerveGlobalValues.kinematics, Rotation2d(), positions, Pose2d())
+
+  init {
+    estimator.resetPosition(0.0, distances, 0.0, 0.0, 0.0)
+  }
+
+  /** With the frames added in time order, both estimators give the same pose every sample. */
+  @Test
+  fun matchesWpilibInTimeOrder() {
+    drive(outOfOrder = false)
+  }
+
+  /**
+   * A frame that arrives after a newer one gives the pose WPILib gives with the frames in time
+   * order, so the newer correction is not lost.
+   */
+  @Test
+  fun outOfOrderFrameMatchesWpilibInTimeOrder() {
+    drive(outOfOrder = true)
+  }
+
+  /** Frames older than the history, or than every kept correction, are not used. */
+  @Test
+  fun rejectsFramesTooOld() {
+    for (i in 1..SAMPLES) {
+      step(i)
+      estimator.updateWithTime(time(i), gyro(i), distances, angles)
+    }
+    estimator.getEstimate(pose)
+    val before = pose.copyOf()
+
+    assertFalse(estimator.addVisionMeasurement(0.0, 0.0, 0.0, 0.0))
+
+    // Fill the corrections, dropping the oldest, then go back before every one still kept
+    val first = SAMPLES - SwervePoseEstimator.CORRECTION_COUNT - 1
+    for (i in first..SAMPLES) {
+      assertTrue(estimator.addVisionMeasurement(1.0, 1.0, 0.0, time(i)))
+    }
+    estimator.getEstimate(pose)
+    val corrected = pose.copyOf()
+    assertFalse(estimator.addVisionMeasurement(1.0, 1.0, 0.0, time(first)))
+    estimator.getEstimate(pose)
+
+    assertTrue(corrected[0] != before[0], "The corrections did not move the estimate")
+    assertEquals(corrected.toList(), pose.toList())
+  }
+
+  /**
+   * Drives both estimators through the same samples and frames, checking that they agree after
+   * every sample.
+   *
+   * @param outOfOrder Whether the newer of each pair of frames reaches this estimator first. The
+   *   WPILib estimator always gets them in time order.
+   */
+  private fun drive(outOfOrder: Boolean) {
+    for (i in 1..SAMPLES) {
+      step(i)
+      estimator.updateWithTime(time(i), gyro(i), distances, angles)
+      wpilibEstimator.updateWithTime(time(i), Rotation2d(gyro(i)), positions)
+
+      if (i % FRAME_INTERVAL == 0) {
+        val older = i - 2 * LATENCY
+        val newer = i - LATENCY
+        addFrame(wpilibEstimator, older)
+        addFrame(wpilibEstimator, newer)
+        if (outOfOrder) {
+          addFrame(estimator, newer)
+          addFrame(estimator, older)
+        } else {
+          addFrame(estimator, older)
+          addFrame(estimator, newer)
+        }
+      }
+
+      estimator.getEstimate(pose)
+      val expected = wpilibEstimator.estimatedPosition
+      assertEquals(expected.x, pose[0], TOLERANCE, "x at sample $i")
+      assertEquals(expected.y, pose[1], TOLERANCE, "y at sample $i")
+      assertEquals(
+        0.0,
+        MathUtil.angleModulus(expected.rotation.radians - pose[2]),
+        TOLERANCE,
+        "Heading at sample $i",
+      )
+    }
+  }
+
+  /**
+   * Adds the frame captured at a sample, with standard deviations that change between frames.
+   *
+   * @param estimator The estimator to add it to.
+   * @param sample The sample the frame was captured at.
+   */
+  private fun addFrame(estimator: SwervePoseEstimator, sample: Int) {
+    val stdDev = stdDev(sample)
+    assertTrue(
+      estimator.addVisionMeasurement(
+        frameX(sample),
+        frameY(sample),
+        frameTheta(sample),
+        time(sample),
+        stdDev,
+        stdDev,
+        stdDev,
+      )
+    )
+  }
+
+  /**
+   * Adds the frame captured at a sample to the WPILib estimator.
+   *
+   * @param estimator The estimator to add it to.
+   * @param sample The sample the frame was captured at.
+   */
+  private fun addFrame(estimator: SwerveDrivePoseEstimator, sample: Int) {
+    val stdDev = stdDev(sample)
+    estimator.addVisionMeasurement(
+      Pose2d(frameX(sample), frameY(sample), Rotation2d(frameTheta(sample))),
+      time(sample),
+      VecBuilder.fill(stdDev, stdDev, stdDev),
+    )
+  }
+
+  /**
+   * Moves the wheels and module angles on to a sample. Each module drives at its own speed, so
+   * the robot also slides sideways.
+   *
+   * @param sample The number of the sample, counting from 1.
+   */
+  private fun step(sample: Int) {
+    for (i in distances.indices) {
+      distances[i] += 0.008 * (1.0 + 0.1 * i)
+      angles[i] = 0.1 + 0.05 * sin(time(sample))
+      positions[i] = SwerveModulePosition(distances[i], Rotation2d.fromRotations(angles[i]))
+    }
+  }
+
+  private fun time(sample: Int) = sample * period
+
+  private fun gyro(sample: Int) = TURN_RATE * time(sample)
+
+  private fun frameX(sample: Int) = 0.02 * sample + 0.1 * sin(sample.toDouble())
+
+  private fun frameY(sample: Int) = 0.3 * cos(0.1 * sample)
+
+  private fun frameTheta(sample: Int) = MathUtil.angleModulus(gyro(sample) + 0.05)
+
+  private fun stdDev(sample: Int) = 0.5 + 0.2 * (sample % 3)
+
+  private companion object {
+    /** Two and a half seconds of odometry. */
+    const val SAMPLES = 625
+
+    /** Samples between frame pairs, and how many samples late the newer frame arrives. */
+    const val FRAME_INTERVAL = 25
+    const val LATENCY = 10
+
+    /** Gyro rate in radians per second, so the heading wraps past ±π. */
+    const val TURN_RATE = 3.0
+
+    const val TOLERANCE = 1e-6
+  }
+}
@@ -0,0 +1,112 @@
+package frc.robot.utils
+
+import edu.wpi.first.math.MathUtil
+import kotlin.math.sqrt
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertFalse
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+
+/** Checks how [VisionFusion] groups, weights and releases the estimates of two cameras. */
+class VisionFusionTest {
+  private val fusion = VisionFusion(2, WINDOW, ACTIVE)
+  private val measurement = DoubleArray(VisionFusion.MEASUREMENT_SIZE)
+
+  /**
+   * Estimates captured within the window of each other are one measurement, a later capture is
+   * the next one.
+   */
+  @Test
+  fun groupsByCaptureTime() {
+    fusion.add(0, 1.0, 2.0, 0.0, 1.000, 0.5, 0.5, 1.05)
+    fusion.add(1, 1.0, 2.0, 0.0, 1.015, 0.5, 0.5, 1.05)
+    fusion.add(0, 3.0, 4.0, 0.0, 1.040, 0.5, 0.5, 1.05)
+    fusion.add(1, 3.0, 4.0, 0.0, 1.045, 0.5, 0.5, 1.05)
+
+    assertTrue(fusion.poll(measurement, 1.05))
+    assertEquals(1.0, measurement[0], DELTA)
+    assertEquals(1.0075, measurement[3], DELTA)
+    assertTrue(fusion.poll(measurement, 1.05))
+    assertEquals(3.0, measurement[0], DELTA)
+    assertEquals(1.0425, measurement[3], DELTA)
+    assertFalse(fusion.poll(measurement, 1.05))
+  }
+
+  /**
+   * Each camera counts by the inverse of its variance, and the merged standard deviation is
+   * smaller than either camera's.
+   */
+  @Test
+  fun weightsByInverseVariance() {
+    fusion.add(0, 1.0, 0.0, 0.0, 1.0, 0.1, 0.2, 1.05)
+    fusion.add(1, 2.0, 1.0, 0.3, 1.0, 0.2, 0.1, 1.05)
+
+    assertTrue(fusion.poll(measurement, 1.05))
+    // Position weights 100 and 25, heading weights 25 and 100
+    assertEquals(1.2, measurement[0], DELTA)
+    assertEquals(0.2, measurement[1], DELTA)
+    assertEquals(0.24, measurement[2], 1e-3)
+    assertEquals(sqrt(1.0 / 125.0), measurement[4], DELTA)
+    assertEquals(sqrt(1.0 / 125.0), measurement[5], DELTA)
+  }
+
+  /** Headings on either side of ±π average to π, not to zero. */
+  @Test
+  fun averagesHeadingsAcrossPi() {
+    fusion.add(0, 1.0, 1.0, Math.PI - 0.1, 1.0, 0.5, 0.5, 1.05)
+    fusion.add(1, 1.0, 1.0, -Math.PI + 0.1, 1.0, 0.5, 0.5, 1.05)
+
+    assertTrue(fusion.poll(measurement, 1.05))
+    assertEquals(0.0, MathUtil.angleModulus(measurement[2] - Math.PI), DELTA)
+  }
+
+  /** With no other camera sending estimates, a single camera's estimate is released at once. */
+  @Test
+  fun releasesSingleCameraAtOnce() {
+    fusion.add(0, 1.0, 2.0, 0.5, 1.0, 0.5, 0.5, 1.05)
+
+    assertTrue(fusion.poll(measurement, 1.05))
+    assertEquals(1.0, measurement[0], DELTA)
+    assertEquals(0.5, measurement[4], DELTA)
+  }
+
+  /**
+   * A camera that sent an estimate recently is waited for, for up to one window, unless it has
+   * already sent a newer capture. A camera that went quiet is not waited for.
+   */
+  @Test
+  fun waitsForActiveCamera() {
+    // Both cameras are sending frames
+    fusion.add(0, 0.0, 0.0, 0.0, 0.95, 0.5, 0.5, 1.00)
+    fusion.add(1, 0.0, 0.0, 0.0, 0.95, 0.5, 0.5, 1.00)
+    assertTrue(fusion.poll(measurement, 1.00))
+
+    // Camera 1's frame of the same time arrives a loop later
+    fusion.add(0, 1.0, 0.0, 0.0, 1.00, 0.5, 0.5, 1.05)
+    assertFalse(fusion.poll(measurement, 1.05))
+    fusion.add(1, 3.0, 0.0, 0.0, 1.00, 0.5, 0.5, 1.06)
+    assertTrue(fusion.poll(measurement, 1.06))
+    assertEquals(2.0, measurement[0], DELTA)
+
+    // Camera 1's frame never comes, so camera 0's is released after one window
+    fusion.add(0, 1.0, 0.0, 0.0, 1.05, 0.5, 0.5, 1.10)
+    assertFalse(fusion.poll(measurement, 1.10))
+    assertTrue(fusion.poll(measurement, 1.10 + WINDOW))
+    assertEquals(1.0, measurement[0], DELTA)
+
+    // Camera 0 has gone quiet for longer than the active time, so camera 1 does not wait for it
+    fusion.add(1, 3.0, 0.0, 0.0, 1.20, 0.5, 0.5, 1.25)
+    assertTrue(fusion.poll(measurement, 1.25))
+
+    // Camera 1 is ahead of camera 0, so it will not send a frame of camera 0's time
+    fusion.add(0, 1.0, 0.0, 0.0, 1.15, 0.5, 0.5, 1.26)
+    assertTrue(fusion.poll(measurement, 1.26))
+    assertEquals(1.0, measurement[0], DELTA)
+  }
+
+  private companion object {
+    const val WINDOW = 0.02
+    const val ACTIVE = 0.1
+    const val DELTA = 1e-9
+  }
+}